@@ -0,0 +1,185 @@
+package benchmarks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A small benchmark runner that needs no build tools or dependencies. Each
+ * benchmark is warmed up, then measured over several runs, and reports its
+ * time and throughput along with the bytes allocated per operation and the
+ * garbage collections that happened while it ran.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+final class Harness {
+	private static final int WARMUP_RUNS = 3, MEASURED_RUNS = 5;
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static String filter = "";
+
+	/**
+	 * The work done by each thread of a benchmark.
+	 */
+	interface Workload {
+		/**
+		 * Run the operations of one thread.
+		 * 
+		 * @param thread     The index of the thread, starting at 0.
+		 * @param operations The number of operations to run.
+		 * @throws Exception If the benchmark fails.
+		 */
+		void run(int thread, int operations) throws Exception;
+	}
+
+	/**
+	 * Create fresh state for one run of a benchmark.
+	 */
+	interface Setup {
+		/**
+		 * Create the workload of one run.
+		 * 
+		 * @return The workload.
+		 * @throws Exception If the state cannot be created.
+		 */
+		Workload create() throws Exception;
+	}
+
+	/**
+	 * @hidden
+	 */
+	private Harness() {
+	}
+
+	/**
+	 * Only run the benchmarks whose names contain a piece of text.
+	 * 
+	 * @param text The text that benchmark names must contain.
+	 */
+	static void setFilter(String text) {
+		filter = text;
+	}
+
+	/**
+	 * Print the column headings of the results.
+	 */
+	static void printHeader() {
+		System.out.println(String.format("%-36s %-20s %7s %12s %14s %10s %6s %8s", "Benchmark", "Parameters",
+				"Threads", "ns/op", "ops/s", "B/op", "GCs", "GC ms"));
+	}
+
+	/**
+	 * Run a benchmark and print its results.
+	 * 
+	 * @param name                The name of the benchmark.
+	 * @param parameters          The data sizes used by the benchmark.
+	 * @param threads             The number of threads running the workload.
+	 * @param operationsPerThread The number of operations each thread runs.
+	 * @param setup               Creates the state of each run.
+	 * @throws Exception If the benchmark fails.
+	 */
+	static void benchmark(String name, String parameters, int threads, int operationsPerThread, Setup setup)
+			throws Exception {
+		if (!name.contains(filter)) {
+			return;
+		}
+
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			runOnce(threads, operationsPerThread, setup.create());
+		}
+
+		long nanos = 0, allocatedBytes = 0, collections = -collectionCount(), collectionMillis = -collectionTime();
+
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long[] result = runOnce(threads, operationsPerThread, setup.create());
+			nanos += result[0];
+			allocatedBytes += result[1];
+		}
+
+		collections += collectionCount();
+		collectionMillis += collectionTime();
+
+		double operations = (double) threads * operationsPerThread * MEASURED_RUNS;
+		System.out.println(String.format("%-36s %-20s %7d %12.1f %14.0f %10.1f %6d %8d", name, parameters, threads,
+				nanos / operations, operations / (nanos / 1e9), allocatedBytes / operations, collections,
+				collectionMillis));
+	}
+
+	/**
+	 * @hidden
+	 * @param threads             The number of threads.
+	 * @param operationsPerThread The number of operations each thread runs.
+	 * @param workload            The workload to run.
+	 * @return The elapsed nanoseconds and the bytes allocated by the threads.
+	 * @throws Exception If the workload fails.
+	 */
+	private static long[] runOnce(int threads, int operationsPerThread, Workload workload) throws Exception {
+		CountDownLatch ready = new CountDownLatch(threads), start = new CountDownLatch(1),
+				done = new CountDownLatch(threads);
+		AtomicLong allocatedBytes = new AtomicLong();
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			Thread worker = new Thread(() -> {
+				try {
+					ready.countDown();
+					start.await();
+					long before = THREADS.getCurrentThreadAllocatedBytes();
+					workload.run(thread, operationsPerThread);
+					allocatedBytes.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - before);
+				} catch (Exception e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					done.countDown();
+				}
+			});
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		ready.await();
+		long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - startTime;
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		return new long[] { elapsed, allocatedBytes.get() };
+	}
+
+	/**
+	 * @hidden
+	 * @return The number of garbage collections so far.
+	 */
+	private static long collectionCount() {
+		long count = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+
+		return count;
+	}
+
+	/**
+	 * @hidden
+	 * @return The milliseconds spent in garbage collection so far.
+	 */
+	private static long collectionTime() {
+		long time = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+
+		return time;
+	}
+}
@@ -0,0 +1,858 @@
+package benchmarks;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import events.EventChannel;
+import makingtransactions.NegativeBalanceException;
+import makingtransactions.Transaction;
+import makingtransactions.bankaccounts.AccountRegistry;
+import makingtransactions.bankaccounts.AccountTable;
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.bankaccounts.CurrencyTotals;
+import makingtransactions.bankaccounts.JointAccount;
+import makingtransactions.bankaccounts.SingleAccount;
+import makingtransactions.bankaccounts.Transfer;
+import makingtransactions.exchange.CurrencyConverter;
+import makingtransactions.exchange.ExchangeRates;
+import makingtransactions.ledgers.ColumnarLedger;
+import makingtransactions.ledgers.TieredLedger;
+import metrics.JfrMetrics;
+import metrics.Metrics;
+import metrics.PostingMetrics;
+import persistence.CsvFiles;
+import persistence.Snapshot;
+import persistence.TransactionJournal;
+import postingservice.PostingPipeline;
+import reconciliation.Reconciler;
+import scheduling.TransactionScheduler;
+import userservice.User;
+import userservice.UserDirectory;
+
+/**
+ * Benchmarks for the hot paths of the class library. Every performance change
+ * should be judged against the results of this suite.
+ * 
+ * Run every benchmark, or only the ones whose names contain the first
+ * argument:
+ * 
+ * <pre>
+ * java -cp bin benchmarks.HotPathBenchmarks [filter]
+ * </pre>
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class HotPathBenchmarks {
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+	private static final int[] LINK_SIZES = { 1_000, 100_000 };
+	private static final int[] HOLDER_COUNTS = { 2, 100, 1_000 };
+	private static final int[] PARALLELISMS = { 1, 2, 4, 8, 16, 32, 64 };
+	private static final int[] GROUP_SIZES = { 1, 8, 64 };
+	private static final int REGISTRY_SIZE = 1_000_000;
+	private static final int DIRECTORY_SIZE = 1_000_000, SCHEDULE_COUNT = 10_000_000;
+	private static final long DAY_MILLIS = 86_400_000;
+
+	/**
+	 * @hidden
+	 */
+	private HotPathBenchmarks() {
+	}
+
+	/**
+	 * Run the benchmarks.
+	 * 
+	 * @param args An optional filter for the benchmark names.
+	 * @throws Exception If a benchmark fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			Harness.setFilter(args[0]);
+		}
+
+		Harness.printHeader();
+
+		for (int threads : THREAD_COUNTS) {
+			Harness.benchmark("BankAccount.addTransaction", "hot account", threads, 1_000_000 / threads, () -> {
+				SingleAccount bankAccount = newAccount(0);
+				Transaction transaction = new Transaction("Deposit", 1, 1, 0);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						bankAccount.addTransaction(transaction);
+					}
+				};
+			});
+		}
+
+		// The posting path of the first release: a double balance and a list of
+		// transactions behind one monitor.
+		for (int threads : THREAD_COUNTS) {
+			Harness.benchmark("SynchronizedBaseline", "hot account", threads, 1_000_000 / threads, () -> {
+				SynchronizedAccount bankAccount = new SynchronizedAccount();
+				Transaction transaction = new Transaction("Deposit", 1, 1, 0);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						bankAccount.addTransaction(transaction);
+					}
+				};
+			});
+		}
+
+		for (int threads : THREAD_COUNTS) {
+			Harness.benchmark("BankAccount.addTransaction", "account table", threads, 1_000_000 / threads, () -> {
+				SingleAccount bankAccount = new SingleAccount(new AccountTable(), 0, new User("Benchmark", 30, 1),
+						"Benchmark", "USD", 1, 1, 1);
+				Transaction transaction = new Transaction("Deposit", 1, 1, 0);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						bankAccount.addTransaction(transaction);
+					}
+				};
+			});
+		}
+
+		for (int threads : THREAD_COUNTS) {
+			Harness.benchmark("BankAccount.addTransaction", "counted in totals", threads, 1_000_000 / threads, () -> {
+				CurrencyTotals totals = new CurrencyTotals();
+				SingleAccount[] bankAccounts = new SingleAccount[threads];
+
+				for (int i = 0; i < threads; i++) {
+					bankAccounts[i] = newAccount(0);
+					totals.attach(bankAccounts[i]);
+				}
+
+				Transaction transaction = new Transaction("Deposit", 1, 1, 0);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						bankAccounts[thread].addTransaction(transaction);
+					}
+				};
+			});
+		}
+
+		for (PostingMetrics metrics : new PostingMetrics[] { new PostingMetrics(), new JfrMetrics() }) {
+			String parameters = metrics.getClass().getSimpleName();
+
+			for (int threads : THREAD_COUNTS) {
+				Harness.benchmark("BankAccount.addTransaction", parameters, threads, 1_000_000 / threads, () -> {
+					BankAccount.setMetrics(metrics);
+					SingleAccount bankAccount = newAccount(0);
+					Transaction transaction = new Transaction("Deposit", 1, 1, 0);
+					return (thread, operations) -> {
+						for (int i = 0; i < operations; i++) {
+							bankAccount.addTransaction(transaction);
+						}
+					};
+				});
+			}
+
+			BankAccount.setMetrics(Metrics.NONE);
+
+			if (metrics instanceof JfrMetrics) {
+				((JfrMetrics) metrics).close();
+			}
+		}
+
+		for (String currency : new String[] { "USD", "EUR" }) {
+			Harness.benchmark("BankAccount.addTransaction", "from " + currency, 1, 1_000_000, () -> {
+				SingleAccount bankAccount = newAccount(0);
+				bankAccount.setCurrencyConverter(
+						new CurrencyConverter(ExchangeRates.EMPTY.withRate("EUR", "USD", new BigDecimal("1.085"))));
+				Transaction transaction = new Transaction("Deposit", 1, 1, 0, currency);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						bankAccount.addTransaction(transaction);
+					}
+				};
+			});
+		}
+
+		Harness.benchmark("BankAccount.addTransactions", "batch=1000", 1, 1_000, () -> {
+			SingleAccount bankAccount = newAccount(0);
+			ArrayList<Transaction> batch = new ArrayList<Transaction>();
+
+			for (int i = 0; i < 1_000; i++) {
+				batch.add(new Transaction("Payroll", i, 1, 0));
+			}
+
+			return (thread, operations) -> {
+				for (int i = 0; i < operations; i++) {
+					bankAccount.addTransactions(batch);
+				}
+			};
+		});
+
+		for (int threads : THREAD_COUNTS) {
+			Harness.benchmark("Transfer.execute", "100 accounts", threads, 200_000 / threads, () -> {
+				SingleAccount[] bankAccounts = new SingleAccount[100];
+
+				for (int i = 0; i < bankAccounts.length; i++) {
+					bankAccounts[i] = newAccount(1_000_000);
+				}
+
+				return (thread, operations) -> {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+
+					for (int i = 0; i < operations; i++) {
+						int from = random.nextInt(bankAccounts.length);
+						int to = (from + 1 + random.nextInt(bankAccounts.length - 1)) % bankAccounts.length;
+						Transfer.transfer(bankAccounts[from], bankAccounts[to], 0.01);
+					}
+				};
+			});
+		}
+
+		Harness.benchmark("NegativeBalanceException", "rejected posting", 1, 1_000_000, () -> {
+			SingleAccount bankAccount = newAccount(0);
+			Transaction transaction = new Transaction("Card", 1, 0, 1);
+			return (thread, operations) -> {
+				for (int i = 0; i < operations; i++) {
+					try {
+						bankAccount.addTransaction(transaction);
+					} catch (NegativeBalanceException e) {
+						// Every posting is rejected.
+					}
+				}
+			};
+		});
+
+		for (int mode = 0; mode < 3; mode++) {
+			String parameters = new String[] { "exception", "stackless", "tryAddTransaction" }[mode];
+			boolean stackless = mode == 1, statusCodes = mode == 2;
+
+			Harness.benchmark("Declines at 50%", parameters, 1, 1_000_000, () -> {
+				SingleAccount bankAccount = newAccount(0);
+				bankAccount.setStacklessRejections(stackless);
+				Transaction deposit = new Transaction("Deposit", 1, 1, 0), purchase = new Transaction("Card", 2, 0, 2);
+				return (thread, operations) -> {
+					long declines = 0;
+
+					for (int i = 0; i < operations; i++) {
+						Transaction transaction = (i & 1) == 0 ? deposit : purchase;
+
+						if (statusCodes) {
+							declines += bankAccount.tryAddTransaction(transaction);
+						} else {
+							try {
+								bankAccount.addTransaction(transaction);
+							} catch (NegativeBalanceException e) {
+								declines++;
+							}
+						}
+					}
+
+					if (declines < 0) {
+						throw new IllegalStateException();
+					}
+				};
+			});
+		}
+
+		for (boolean minorUnits : new boolean[] { false, true }) {
+			Harness.benchmark("Balance arithmetic", minorUnits ? "long minor units" : "double", 1, 10_000_000, () -> {
+				double[] amounts = new double[4096];
+				long[] minorAmounts = new long[amounts.length];
+
+				for (int i = 0; i < amounts.length; i++) {
+					minorAmounts[i] = 1 + i * 7919L % 100_000;
+					amounts[i] = minorAmounts[i] / 100.0;
+				}
+
+				return (thread, operations) -> {
+					double balance = 0;
+					long minorBalance = 0;
+
+					for (int i = 0; i < operations; i++) {
+						if (minorUnits) {
+							minorBalance = Math.addExact(minorBalance, minorAmounts[i & amounts.length - 1]);
+						} else {
+							balance += amounts[i & amounts.length - 1];
+						}
+					}
+
+					if (balance < 0 || minorBalance < 0) {
+						throw new IllegalStateException();
+					}
+				};
+			});
+		}
+
+		// The bytes per operation are the heap that each transaction takes.
+		for (boolean columnar : new boolean[] { false, true }) {
+			Harness.benchmark("Ledger.append", columnar ? "ColumnarLedger" : "ArrayList<Transaction>", 1, 1_000_000,
+					() -> {
+						ColumnarLedger ledger = new ColumnarLedger();
+						ArrayList<Transaction> list = new ArrayList<Transaction>();
+						return (thread, operations) -> {
+							for (int i = 0; i < operations; i++) {
+								if (columnar) {
+									ledger.append("Deposit", i, 100, 0, i);
+								} else {
+									list.add(new Transaction("Deposit", i, 1, 0));
+								}
+							}
+						};
+					});
+		}
+
+		Harness.benchmark("BankAccount.getBalanceAt", "ledger=1000000", 1, 1_000_000, () -> {
+			SingleAccount bankAccount = newStatementAccount(1_000_000);
+			return (thread, operations) -> {
+				long balances = 0;
+
+				for (int i = 0; i < operations; i++) {
+					balances += bankAccount.getBalanceMinorUnitsAt((int) (i * 7919L % 1_000_000));
+				}
+
+				if (balances < 0) {
+					throw new IllegalStateException();
+				}
+			};
+		});
+
+		Harness.benchmark("BankAccount.getBalanceAsOf", "ledger=1000000", 1, 1_000_000, () -> {
+			SingleAccount bankAccount = newStatementAccount(1_000_000);
+			return (thread, operations) -> {
+				long balances = 0;
+
+				for (int i = 0; i < operations; i++) {
+					balances += bankAccount.getBalanceMinorUnitsAsOf(i * 7919L % 1_000_000);
+				}
+
+				if (balances < 0) {
+					throw new IllegalStateException();
+				}
+			};
+		});
+
+		for (String parameters : new String[] { "hot", "cold" }) {
+			boolean hot = parameters.equals("hot");
+
+			Harness.benchmark("TieredLedger.getCredit", parameters, 1, hot ? 1_000_000 : 10_000, () -> {
+				Path file = Files.createTempFile("ledger", ".pages");
+				file.toFile().deleteOnExit();
+				TieredLedger ledger = new TieredLedger(file, 100_000);
+
+				for (int i = 0; i < 1_000_000; i++) {
+					ledger.append("Deposit", i, 1, i % 3, i);
+				}
+
+				// Cold reads jump between pages, so almost every read decodes a page.
+				int first = hot ? 900_000 : 0, stride = TieredLedger.DEFAULT_PAGE_SIZE * 7 + 1;
+				return (thread, operations) -> {
+					long credits = 0;
+
+					for (int i = 0; i < operations; i++) {
+						credits += ledger.getCredit(first + (int) ((long) i * stride % 100_000));
+					}
+
+					if (credits < 0) {
+						throw new IllegalStateException();
+					}
+				};
+			});
+		}
+
+		for (boolean journaled : new boolean[] { false, true }) {
+			Harness.benchmark("PostingPipeline.publish", journaled ? "journaled" : "not journaled", 1, 1_000_000, () -> {
+				AccountRegistry registry = new AccountRegistry();
+				User user = new User("Benchmark", 30, 1);
+				ByteBuffer[] records = new ByteBuffer[4096];
+				byte[] name = "Deposit".getBytes(StandardCharsets.UTF_8);
+
+				for (int i = 0; i < records.length; i++) {
+					if (i < 1_000) {
+						registry.register(new SingleAccount(user, "Benchmark", "USD", 1, 1, i));
+					}
+
+					records[i] = ByteBuffer.allocate(40 + name.length);
+					records[i].putLong(AccountRegistry.key(1, 1, i % 1_000)).putInt(i).putLong(1).putLong(0).putLong(i)
+							.putInt(name.length).put(name).flip();
+				}
+
+				Path directory = Files.createTempDirectory("journal");
+				TransactionJournal journal = journaled ? new TransactionJournal(directory, 4096, 5, 64L << 20, false)
+						: null;
+				PostingPipeline pipeline = new PostingPipeline(registry, journal);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						pipeline.publish(records[i & records.length - 1]);
+					}
+
+					pipeline.close();
+
+					if (journal != null) {
+						journal.close();
+					}
+
+					deleteDirectory(directory);
+				};
+			});
+		}
+
+		// Every posting waits for its record to be on disk, so the throughput is
+		// the number of commits per second.
+		for (int groupSize : GROUP_SIZES) {
+			Harness.benchmark("TransactionJournal.posted", "groupSize=" + groupSize, 64, 200, () -> {
+				Path directory = Files.createTempDirectory("journal");
+				TransactionJournal journal = new TransactionJournal(directory, groupSize, 2, 64L << 20, true);
+				SingleAccount[] bankAccounts = new SingleAccount[64];
+				AtomicInteger running = new AtomicInteger(bankAccounts.length);
+
+				for (int i = 0; i < bankAccounts.length; i++) {
+					bankAccounts[i] = new SingleAccount(new User("Benchmark", 30, 1), "Benchmark", "USD", 1, 1, i);
+					journal.attach(bankAccounts[i]);
+				}
+
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						bankAccounts[thread].addTransaction("Deposit", i, 1, 0);
+					}
+
+					// The last thread to finish closes the journal.
+					if (running.decrementAndGet() == 0) {
+						journal.close();
+						deleteDirectory(directory);
+					}
+				};
+			});
+		}
+
+		// Both rebuild 10,000 accounts with 20 transactions each from files that
+		// are written the first time.
+		Path startupDirectory = Files.createTempDirectory("startup");
+		startupDirectory.toFile().deleteOnExit();
+
+		for (boolean snapshot : new boolean[] { true, false }) {
+			Harness.benchmark(snapshot ? "Snapshot.read" : "TransactionJournal.replay", "transactions=200000", 1, 1,
+					() -> {
+						Path snapshotFile = startupDirectory.resolve("accounts.snapshot");
+
+						if (Files.notExists(snapshotFile)) {
+							writeStartupFiles(startupDirectory, snapshotFile);
+						}
+
+						AccountRegistry registry = new AccountRegistry();
+
+						if (!snapshot) {
+							User user = new User("Startup", 30, 1);
+
+							for (int i = 0; i < 10_000; i++) {
+								registry.register(new SingleAccount(user, "Startup", "USD", 1, 1, i));
+							}
+						}
+
+						return (thread, operations) -> {
+							long accounts = snapshot ? Snapshot.read(snapshotFile).get(0).getBankAccountSet().size()
+									: TransactionJournal.replay(startupDirectory, registry) / 20;
+
+							if (accounts != 10_000) {
+								throw new IllegalStateException();
+							}
+						};
+					});
+		}
+
+		for (boolean reading : new boolean[] { false, true }) {
+			// Each operation exports or imports 1,000 accounts with 1,000 transactions each.
+			Harness.benchmark(reading ? "CsvFiles.read" : "CsvFiles.write", "transactions=1000000", 1, 3, () -> {
+				User user = new User("Benchmark", 30, 1);
+
+				for (int i = 0; i < 1_000; i++) {
+					SingleAccount bankAccount = new SingleAccount(user, "Benchmark", "USD", 1, 1, i);
+
+					for (int j = 0; j < 1_000; j++) {
+						bankAccount.addTransaction("Deposit", j, 1 + j % 3, 0, j);
+					}
+				}
+
+				Path directory = Files.createTempDirectory("csv");
+				ArrayList<User> users = new ArrayList<User>();
+				users.add(user);
+				CsvFiles.write(directory, users);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						if (reading) {
+							CsvFiles.read(directory);
+						} else {
+							CsvFiles.write(directory, users);
+						}
+					}
+
+					try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+						for (Path file : files) {
+							Files.delete(file);
+						}
+					}
+
+					Files.delete(directory);
+				};
+			});
+		}
+
+		for (boolean firing : new boolean[] { false, true }) {
+			// The schedules are spread over 100,000 accounts. Every schedule that is fired is due at midnight, and
+			// nine in ten of those added are too, with the rest during the day.
+			Harness.benchmark(firing ? "TransactionScheduler.advanceTo" : "TransactionScheduler.schedule",
+					"schedules=" + SCHEDULE_COUNT, 1, SCHEDULE_COUNT, () -> {
+						SingleAccount[] bankAccounts = new SingleAccount[100_000];
+						User user = new User("Benchmark", 30, 1);
+
+						for (int i = 0; i < bankAccounts.length; i++) {
+							bankAccounts[i] = new SingleAccount(user, "Benchmark", "USD", 1, 1, i);
+						}
+
+						TransactionScheduler scheduler = new TransactionScheduler(0);
+
+						if (firing) {
+							for (int i = 0; i < SCHEDULE_COUNT; i++) {
+								scheduler.schedule(bankAccounts[i % bankAccounts.length], "Standing Order", i, 1, 0,
+										DAY_MILLIS, DAY_MILLIS);
+							}
+						}
+
+						return (thread, operations) -> {
+							if (firing) {
+								if (scheduler.advanceTo(DAY_MILLIS) != operations) {
+									throw new IllegalStateException();
+								}
+							} else {
+								for (int i = 0; i < operations; i++) {
+									scheduler.schedule(bankAccounts[i % bankAccounts.length], "Standing Order", i, 1, 0,
+											i % 10 == 0 ? DAY_MILLIS + i % DAY_MILLIS : DAY_MILLIS, DAY_MILLIS);
+								}
+							}
+						};
+					});
+		}
+
+		ArrayList<SingleAccount> population = new ArrayList<SingleAccount>();
+
+		for (int parallelism : PARALLELISMS) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+			Harness.benchmark("Reconciler.reconcile", "parallelism=" + parallelism, 1, 1, () -> {
+				// Every run reconciles the same 10,000 accounts with 100 transactions each.
+				if (population.isEmpty()) {
+					for (int i = 0; i < 10_000; i++) {
+						population.add(newStatementAccount(100));
+					}
+				}
+
+				Reconciler reconciler = new Reconciler(pool);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						if (!reconciler.reconcile(population).isBalanced()) {
+							throw new IllegalStateException();
+						}
+					}
+				};
+			});
+
+			pool.shutdown();
+		}
+
+		AccountRegistry accountRegistry = new AccountRegistry();
+		ArrayList<SingleAccount> registered = new ArrayList<SingleAccount>();
+
+		for (boolean scan : new boolean[] { false, true }) {
+			Harness.benchmark("AccountRegistry.get", (scan ? "scan=" : "keys=") + REGISTRY_SIZE, 1,
+					scan ? 100 : 1_000_000, () -> {
+						// Every run looks up the same accounts, which are created the first time.
+						if (registered.isEmpty()) {
+							User user = new User("Registry", 30, 1);
+
+							for (int i = 0; i < REGISTRY_SIZE; i++) {
+								SingleAccount bankAccount = new SingleAccount(user, "Registry", "USD", i % 100, 1, i);
+								accountRegistry.register(bankAccount);
+								registered.add(bankAccount);
+							}
+						}
+
+						return (thread, operations) -> {
+							int found = 0;
+
+							for (int i = 0; i < operations; i++) {
+								int accountNumber = (int) (i * 7919L % REGISTRY_SIZE);
+
+								if (!scan) {
+									found += accountRegistry.get(1, accountNumber % 100, accountNumber) != null ? 1 : 0;
+									continue;
+								}
+
+								for (SingleAccount bankAccount : registered) {
+									if (bankAccount.getInstitutionNumber() == 1
+											&& bankAccount.getTransitNumber() == accountNumber % 100
+											&& bankAccount.getAccountNumber() == accountNumber) {
+										found++;
+										break;
+									}
+								}
+							}
+
+							if (found != operations) {
+								throw new IllegalStateException();
+							}
+						};
+					});
+		}
+
+		registered.clear();
+
+		for (int size : LINK_SIZES) {
+			Harness.benchmark("User.addBankAccount", "accounts=" + size, 1, size, () -> {
+				User user = new User("Corporate", 30, 1);
+				User holder = new User("Holder", 30, 2);
+				ArrayList<SingleAccount> bankAccounts = new ArrayList<SingleAccount>();
+
+				for (int i = 0; i < size; i++) {
+					bankAccounts.add(new SingleAccount(holder, "Account", "USD", 1, 1, i));
+				}
+
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						user.addBankAccount(bankAccounts.get(i));
+					}
+				};
+			});
+		}
+
+		UserDirectory userDirectory = new UserDirectory();
+
+		for (String lookup : new String[] { "get", "getByEmail", "getByPhoneNumber" }) {
+			Harness.benchmark("UserDirectory." + lookup, "users=" + DIRECTORY_SIZE, 1, 1_000_000, () -> {
+				// Every run looks up the same directory, which is filled the first time.
+				if (userDirectory.size() == 0) {
+					for (int i = 0; i < DIRECTORY_SIZE; i++) {
+						userDirectory.register(new User("Directory", 30, i, "user" + i + "@example.com",
+								"+1555" + (1_000_000_000 + i)));
+					}
+				}
+
+				String[] keys = new String[4096];
+
+				for (int i = 0; i < keys.length; i++) {
+					int userId = (int) (i * 7919L % DIRECTORY_SIZE);
+					keys[i] = lookup.equals("getByEmail") ? "User" + userId + "@Example.com"
+							: "+1 555 " + (1_000_000_000 + userId);
+				}
+
+				return (thread, operations) -> {
+					long found = 0;
+
+					for (int i = 0; i < operations; i++) {
+						User user = lookup.equals("get") ? userDirectory.get((int) (i * 7919L % DIRECTORY_SIZE))
+								: lookup.equals("getByEmail") ? userDirectory.getByEmail(keys[i & keys.length - 1])
+										: userDirectory.getByPhoneNumber(keys[i & keys.length - 1]);
+						found += user == null ? 0 : 1;
+					}
+
+					if (found != operations) {
+						throw new IllegalStateException();
+					}
+				};
+			});
+		}
+
+		// Missing contacts are reported to the default channel, which is given a sink that does nothing.
+		EventChannel eventChannel = new EventChannel(1 << 16);
+		eventChannel.addSink(event -> {
+		});
+		EventChannel.setDefault(eventChannel);
+
+		for (int threads : THREAD_COUNTS) {
+			Harness.benchmark("User.removeEmail", "missing address", threads, 1_000_000 / threads, () -> {
+				User[] users = newUsers(threads);
+				return (thread, operations) -> {
+					for (int i = 0; i < operations; i++) {
+						users[thread].removeEmail("missing@example.com");
+					}
+				};
+			});
+		}
+
+		eventChannel.close();
+
+		for (int holders : HOLDER_COUNTS) {
+			Harness.benchmark("JointAccount.addUser", "holders=" + holders, 1, holders, () -> {
+				User[] users = newUsers(holders);
+				return (thread, operations) -> {
+					JointAccount jointAccount = new JointAccount(users[0], "Joint", "USD", 1, 1, 1);
+
+					for (int i = 1; i < operations; i++) {
+						jointAccount.addUser(users[i]);
+					}
+				};
+			});
+
+			Harness.benchmark("JointAccount.addUsers", "holders=" + holders, 1, holders, () -> {
+				User[] users = newUsers(holders);
+				return (thread, operations) -> {
+					JointAccount jointAccount = new JointAccount(users[0], "Joint", "USD", 1, 1, 1);
+					jointAccount.addUsers(Arrays.asList(users).subList(1, operations));
+				};
+			});
+
+			for (boolean copied : new boolean[] { true, false }) {
+				Harness.benchmark(copied ? "JointAccount.getUsers" : "JointAccount.getUserList", "holders=" + holders,
+						1, 100_000, () -> {
+							User[] users = newUsers(holders);
+							JointAccount jointAccount = new JointAccount(users[0], "Joint", "USD", 1, 1, 1);
+
+							jointAccount.addUsers(Arrays.asList(users).subList(1, holders));
+
+							return (thread, operations) -> {
+								long sizes = 0;
+
+								for (int i = 0; i < operations; i++) {
+									sizes += copied ? jointAccount.getUsers().size()
+											: jointAccount.getUserList().size();
+								}
+
+								if (sizes < 0) {
+									throw new IllegalStateException();
+								}
+							};
+						});
+			}
+
+			Harness.benchmark("JointAccount.containsUser", "holders=" + holders, 1, 100_000, () -> {
+				User[] users = newUsers(holders);
+				JointAccount jointAccount = new JointAccount(users[0], "Joint", "USD", 1, 1, 1);
+
+				jointAccount.addUsers(Arrays.asList(users).subList(1, holders));
+
+				return (thread, operations) -> {
+					int found = 0;
+
+					for (int i = 0; i < operations; i++) {
+						found += jointAccount.containsUser(users[i % holders]) ? 1 : 0;
+					}
+
+					if (found != operations) {
+						throw new IllegalStateException();
+					}
+				};
+			});
+		}
+	}
+
+	/**
+	 * The posting path of the first release, kept to compare against.
+	 * 
+	 * @hidden
+	 */
+	private static final class SynchronizedAccount {
+		private final ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		private double balance;
+
+		private synchronized void addTransaction(Transaction transaction) {
+			double credit = transaction.getCredit();
+
+			if (credit > balance) {
+				throw new IllegalStateException("The balance is too low!");
+			} else {
+				transactions.add(transaction);
+				balance += transaction.getDebit();
+				balance -= credit;
+			}
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param balance The opening balance.
+	 * @return A new single account.
+	 */
+	private static SingleAccount newAccount(double balance) {
+		return new SingleAccount(balance, new User("Benchmark", 30, 1), "Benchmark", "USD", 1, 1, 1);
+	}
+
+	/**
+	 * Write a snapshot and a journal of the same 10,000 accounts with 20
+	 * transactions each.
+	 * 
+	 * @hidden
+	 * @param directory    The directory of the journal.
+	 * @param snapshotFile The snapshot file.
+	 * @throws Exception If the files cannot be written.
+	 */
+	private static void writeStartupFiles(Path directory, Path snapshotFile) throws Exception {
+		User user = new User("Startup", 30, 1);
+
+		try (TransactionJournal journal = new TransactionJournal(directory, 4096, 5, 64L << 20, false)) {
+			for (int i = 0; i < 10_000; i++) {
+				SingleAccount bankAccount = new SingleAccount(user, "Startup", "USD", 1, 1, i);
+				journal.attach(bankAccount);
+
+				for (int j = 0; j < 20; j++) {
+					bankAccount.addTransaction("Deposit", j, 1 + j % 3, 0, j);
+				}
+			}
+		}
+
+		Snapshot.write(snapshotFile, List.of(user));
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param directory A directory of files to be deleted with it.
+	 * @throws Exception If a file cannot be deleted.
+	 */
+	private static void deleteDirectory(Path directory) throws Exception {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+
+		Files.delete(directory);
+	}
+
+	/**
+	 * @hidden
+	 * @param size The number of transactions in the ledger.
+	 * @return A new single account with one deposit per millisecond.
+	 * @throws Exception If a transaction is rejected.
+	 */
+	private static SingleAccount newStatementAccount(int size) throws Exception {
+		SingleAccount bankAccount = newAccount(0);
+
+		for (int i = 0; i < size; i++) {
+			bankAccount.addTransaction("Deposit", i, 1 + i % 3, 0, i);
+		}
+
+		return bankAccount;
+	}
+
+	/**
+	 * @hidden
+	 * @param count The number of users.
+	 * @return An array of new users.
+	 */
+	private static User[] newUsers(int count) {
+		User[] users = new User[count];
+
+		for (int i = 0; i < count; i++) {
+			users[i] = new User("User", 30, i);
+		}
+
+		return users;
+	}
+}
@@ -0,0 +1,152 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import makingtransactions.Transaction;
+import makingtransactions.bankaccounts.SingleAccount;
+import makingtransactions.ledgers.LedgerView;
+import postingservice.PostingService;
+import userservice.User;
+
+/**
+ * A load test for the PostingService. Every submission is made without waiting
+ * for the ones before it, so they can all be in flight at once, and the time
+ * from each submission to the completion of its future is recorded. When a
+ * rate is given, the threads submit that many postings per second instead, in
+ * bursts every millisecond, to show the latency below saturation.
+ * 
+ * Each account is only submitted to by one thread, so the test also checks that
+ * every ledger holds its transactions in the order that they were submitted.
+ * 
+ * <pre>
+ * java -cp bin benchmarks.PostingLoadTest [submissions] [accounts] [threads] [rate]
+ * </pre>
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class PostingLoadTest {
+	/**
+	 * @hidden
+	 */
+	private PostingLoadTest() {
+	}
+
+	/**
+	 * Run the load test.
+	 * 
+	 * @param args The number of submissions, accounts and submitting threads,
+	 *             and the postings per second (0 for no limit).
+	 * @throws Exception If a posting fails or a ledger is out of order.
+	 */
+	public static void main(String[] args) throws Exception {
+		int submissions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int rate = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		for (int run = 0; run < 3; run++) {
+			// The first two runs warm up the service.
+			long[] latencies = run(submissions, accounts, threads, rate);
+
+			if (run == 2) {
+				Arrays.sort(latencies);
+				System.out.println(String.format("%d submissions to %d accounts from %d threads at %s", submissions,
+						accounts, threads, rate == 0 ? "no limit" : rate + " postings/s"));
+				System.out.println(String.format("p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+						percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+						percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e3));
+			}
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param submissions The number of transactions to submit.
+	 * @param accounts    The number of accounts to submit to.
+	 * @param threads     The number of submitting threads.
+	 * @param rate        The postings per second, or 0 for no limit.
+	 * @return The latency of every submission in nanoseconds.
+	 * @throws Exception If a posting fails or a ledger is out of order.
+	 */
+	private static long[] run(int submissions, int accounts, int threads, int rate) throws Exception {
+		User user = new User("Load", 30, 1);
+		SingleAccount[] bankAccounts = new SingleAccount[accounts];
+
+		for (int i = 0; i < accounts; i++) {
+			bankAccounts[i] = new SingleAccount(user, "Load", "USD", 1, 1, i);
+		}
+
+		long[] latencies = new long[submissions];
+		CountDownLatch completed = new CountDownLatch(submissions);
+		Thread[] submitters = new Thread[threads];
+		long start = System.nanoTime();
+
+		try (PostingService postingService = new PostingService()) {
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				submitters[t] = new Thread(() -> {
+					long burstStart = System.nanoTime();
+					int burst = 0;
+
+					for (int i = thread; i < submissions; i += threads) {
+						if (rate > 0 && ++burst > Math.max(1, rate / 1000 / threads)) {
+							burstStart += 1_000_000;
+							LockSupport.parkNanos(burstStart - System.nanoTime());
+							burst = 1;
+						}
+
+						int index = i;
+						long submitted = System.nanoTime();
+						SingleAccount bankAccount = bankAccounts[i / threads % (accounts / threads) * threads + thread];
+						postingService.submit(bankAccount, new Transaction("Deposit", i, 1, 0)).whenComplete(
+								(balance, failure) -> {
+									latencies[index] = failure == null ? System.nanoTime() - submitted : -1;
+									completed.countDown();
+								});
+					}
+				});
+				submitters[t].start();
+			}
+
+			for (Thread submitter : submitters) {
+				submitter.join();
+			}
+
+			completed.await();
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		for (SingleAccount bankAccount : bankAccounts) {
+			LedgerView transactions = bankAccount.getTransactions();
+
+			for (int i = 1; i < transactions.size(); i++) {
+				if (transactions.getTransactionId(i) <= transactions.getTransactionId(i - 1)) {
+					throw new IllegalStateException(String.format("%s is out of order!", bankAccount));
+				}
+			}
+		}
+
+		for (long latency : latencies) {
+			if (latency < 0) {
+				throw new IllegalStateException("A posting failed!");
+			}
+		}
+
+		System.out.println(String.format("%.0f postings/s", submissions / (elapsed / 1e9)));
+		return latencies;
+	}
+
+	/**
+	 * @hidden
+	 * @param sortedLatencies The latencies in nanoseconds, in order.
+	 * @param fraction        The fraction of latencies at or below the result.
+	 * @return The latency in microseconds.
+	 */
+	private static double percentile(long[] sortedLatencies, double fraction) {
+		return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, sortedLatencies.length * fraction)] / 1e3;
+	}
+}
@@ -0,0 +1,731 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+
+import events.ContactNotFound;
+import events.EventChannel;
+import makingtransactions.NegativeBalanceException;
+import makingtransactions.Transaction;
+import makingtransactions.bankaccounts.AccountRegistry;
+import makingtransactions.bankaccounts.AccountTable;
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.bankaccounts.SingleAccount;
+import makingtransactions.bankaccounts.Transfer;
+import makingtransactions.ledgers.TieredLedger;
+import metrics.PostingMetrics;
+import persistence.CsvFiles;
+import persistence.Snapshot;
+import persistence.TransactionJournal;
+import postingservice.PostingService;
+import scheduling.TransactionScheduler;
+import userservice.User;
+import userservice.UserDirectory;
+
+/**
+ * Checks for bugs that were fixed in the class library. Like the benchmarks,
+ * they need no build tools or dependencies, and a check that fails throws an
+ * IllegalStateException.
+ * 
+ * Run every check, or only the ones whose names contain the first argument:
+ * 
+ * <pre>
+ * java -cp bin benchmarks.RegressionChecks [filter]
+ * </pre>
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class RegressionChecks {
+	private static String filter = "";
+
+	/**
+	 * A check that throws when it fails.
+	 */
+	interface Check {
+		/**
+		 * Run the check.
+		 * 
+		 * @throws Exception If the check fails.
+		 */
+		void run() throws Exception;
+	}
+
+	/**
+	 * The work of one thread in a race.
+	 */
+	interface ThreadWork {
+		/**
+		 * Run the work of a thread.
+		 * 
+		 * @param thread The index of the thread, starting at 0.
+		 * @throws Exception If the work fails.
+		 */
+		void run(int thread) throws Exception;
+	}
+
+	/**
+	 * @hidden
+	 */
+	private RegressionChecks() {
+	}
+
+	/**
+	 * Run the checks.
+	 * 
+	 * @param args An optional filter for the check names.
+	 * @throws Exception If a check fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			filter = args[0];
+		}
+
+		check("BankAccount.ledgerOrder", () -> {
+			// Deposits race with withdrawals of the whole balance, so the ledger only
+			// stays non-negative if it is in the order that the balance changed.
+			checkLedgerOrder(newAccount(null));
+			checkLedgerOrder(newAccount(new AccountTable()));
+		});
+
+		check("Transfer.conservation", RegressionChecks::checkTransferConservation);
+
+		check("Transfer.overflow", () -> {
+			// The accounts are locked and credited in the order they were created,
+			// so the first credit has to be undone when the second overflows.
+			SingleAccount from = newAccount(null), first = newAccount(null), second = newAccount(null);
+			from.setBalanceMinorUnits(1_000);
+			second.setBalanceMinorUnits(BankAccount.MAX_BALANCE_MINOR_UNITS - 50);
+
+			try {
+				new Transfer("Transfer", 1).addLeg(from, first, 1).addLeg(from, second, 1).execute();
+				throw new IllegalStateException("The overflowing transfer was applied!");
+			} catch (ArithmeticException e) {
+				require(from.getBalanceMinorUnits() == 1_000 && first.getBalanceMinorUnits() == 0
+						&& second.getBalanceMinorUnits() == BankAccount.MAX_BALANCE_MINOR_UNITS - 50,
+						"The overflowing transfer changed the balances!");
+				require(from.getTransactions().isEmpty() && first.getTransactions().isEmpty()
+						&& second.getTransactions().isEmpty(), "The overflowing transfer was recorded!");
+			}
+		});
+
+		check("Transfer.rounding", () -> {
+			try {
+				new Transfer("Transfer", 1).addLeg(newAccount(null), newAccount(null), 0.001);
+				throw new IllegalStateException("A transfer of less than one cent was allowed!");
+			} catch (IllegalArgumentException e) {
+				// A leg must move at least one minor unit.
+			}
+		});
+
+		check("Transfer.currencyChange", () -> {
+			// A currency that changes after a leg was added stops the transfer.
+			SingleAccount from = newAccount(null), to = newAccount(null);
+			from.setBalanceMinorUnits(100);
+			Transfer transfer = new Transfer("Check", 1).addLegMinorUnits(from, to, 60);
+			to.setCurrency("EUR");
+
+			try {
+				transfer.execute();
+				require(false, "Minor units were moved from USD to EUR!");
+			} catch (IllegalArgumentException e) {
+				require(from.getBalanceMinorUnits() == 100 && to.getBalanceMinorUnits() == 0
+						&& from.getTransactions().size() == 0 && to.getTransactions().size() == 0,
+						"A rejected transfer changed the accounts!");
+			}
+		});
+
+		check("AccountRegistry.highInstitutions", () -> {
+			// Institutions from 2048 up set the sign bit of the key, and the last two
+			// accounts have the keys -1 and -2.
+			AccountRegistry registry = new AccountRegistry();
+			User user = new User("Check", 30, 1);
+
+			for (int i = 0; i < 100; i++) {
+				registry.register(new SingleAccount(user, "Check", "USD", 1, 3_000, i));
+				registry.register(new SingleAccount(user, "Check", "USD", 1, 1, i));
+			}
+
+			int maxTransit = AccountRegistry.MAX_TRANSIT_NUMBER;
+			int maxInstitution = AccountRegistry.MAX_INSTITUTION_NUMBER;
+			SingleAccount last = new SingleAccount(user, "Check", "USD", maxTransit, maxInstitution, -1);
+			registry.register(last);
+			registry.register(new SingleAccount(user, "Check", "USD", maxTransit, maxInstitution, -2));
+
+			require(registry.size() == 202, "The registry holds %d accounts instead of 202!", registry.size());
+			require(registry.get(3_000, 1, 5) != null, "An account of institution 3000 was lost!");
+			require(registry.get(maxInstitution, maxTransit, -1) == last, "The account with key -1 was lost!");
+			require(registry.getAccounts(3_000).size() == 100, "Institution 3000 lists %d accounts instead of 100!",
+					registry.getAccounts(3_000).size());
+			require(registry.getAccounts(maxInstitution, maxTransit).size() == 2,
+					"The last transit lists %d accounts instead of 2!",
+					registry.getAccounts(maxInstitution, maxTransit).size());
+			require(registry.unregister(last) && registry.get(maxInstitution, maxTransit, -1) == null
+					&& registry.get(maxInstitution, maxTransit, -2) != null,
+					"The account with key -1 was not removed!");
+		});
+
+		check("TransactionJournal.replayOrder", RegressionChecks::checkJournalReplay);
+
+		check("TransactionJournal.closed", () -> {
+			// A posting that cannot be journaled is not added.
+			TransactionJournal journal = new TransactionJournal(Files.createTempDirectory("journal"));
+			SingleAccount bankAccount = newAccount(null);
+			bankAccount.setBalanceMinorUnits(1_000);
+			journal.attach(bankAccount);
+			journal.close();
+
+			try {
+				bankAccount.tryAddTransaction("Deposit", 1, 100, 0);
+				throw new IllegalStateException("A posting to a closed journal was allowed!");
+			} catch (IllegalStateException e) {
+				require(bankAccount.getBalanceMinorUnits() == 1_000 && bankAccount.getTransactions().isEmpty(),
+						"A posting that was not journaled changed the account!");
+			}
+		});
+
+		check("TransactionJournal.batch", () -> {
+			// A batch that cannot be journaled in full leaves nothing to replay.
+			Path directory = Files.createTempDirectory("journal");
+			SingleAccount bankAccount = newAccount(null);
+
+			try (TransactionJournal journal = new TransactionJournal(directory)) {
+				journal.attach(bankAccount);
+				bankAccount.addTransactions(List.of(new Transaction("Deposit", 1, 100, 0)));
+
+				try {
+					bankAccount.addTransactions(List.of(new Transaction("Deposit", 2, 50, 0),
+							new Transaction("x".repeat(1 << 20), 3, 50, 0)));
+					throw new IllegalStateException("A batch that is too big to be journaled was added!");
+				} catch (IllegalArgumentException e) {
+					// The second transaction is too big to be journaled.
+				}
+			}
+
+			SingleAccount replayed = newAccount(null);
+			AccountRegistry registry = new AccountRegistry();
+			registry.register(replayed);
+			long records = TransactionJournal.replay(directory, registry);
+			require(bankAccount.getBalanceMinorUnits() == 10_000 && replayed.getBalanceMinorUnits() == 10_000
+					&& records == 1, "%d transactions were replayed to a balance of %d instead of %d!", records,
+					replayed.getBalanceMinorUnits(), bankAccount.getBalanceMinorUnits());
+		});
+
+		check("TransactionScheduler.postingError", () -> {
+			// A schedule whose posting throws is retried, and the others still fire.
+			TransactionJournal journal = new TransactionJournal(Files.createTempDirectory("journal"));
+			SingleAccount journaled = newAccount(null), other = newAccount(null);
+			journal.attach(journaled);
+			journal.close();
+
+			TransactionScheduler scheduler = new TransactionScheduler(0, 1_000, 1_000, 3);
+			int scheduleId = scheduler.schedule(journaled, "Salary", 1, 100, 0, 1_000, 10_000);
+			scheduler.schedule(other, "Salary", 2, 100, 0, 1_000, 10_000);
+
+			try {
+				scheduler.advanceTo(1_000);
+				throw new IllegalStateException("The error of the closed journal was not thrown!");
+			} catch (IllegalStateException e) {
+				require(other.getBalanceMinorUnits() == 100 && scheduler.isScheduled(scheduleId)
+						&& scheduler.getAttempts(scheduleId) == 1, "The schedules were not kept!");
+			}
+
+			journal.detach(journaled);
+			require(scheduler.advanceTo(100_000) > 0 && journaled.getBalanceMinorUnits() > 0,
+					"The schedule did not fire after the error cleared!");
+		});
+
+		check("PostingService.drain", () -> {
+			// Postings submitted before the executor shuts down are all added, in
+			// order, although the mailbox cannot be run again.
+			SingleAccount bankAccount = newAccount(null);
+			ArrayList<CompletableFuture<Double>> balances = new ArrayList<CompletableFuture<Double>>();
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			CountDownLatch started = new CountDownLatch(1);
+			executor.execute(() -> {
+				try {
+					started.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			try (PostingService postingService = new PostingService(executor)) {
+				for (int i = 0; i < 1_000; i++) {
+					balances.add(postingService.submit(bankAccount, new Transaction("Deposit", i, 1, 0)));
+				}
+			}
+
+			executor.shutdown();
+			started.countDown();
+
+			for (int i = 0; i < balances.size(); i++) {
+				double balance = balances.get(i).get();
+				require(balance == i + 1, "Posting %d completed with a balance of %.2f!", i, balance);
+			}
+		});
+
+		check("TieredLedger.spillFailure", () -> {
+			// A ledger that cannot move a page to its file leaves the accounts as
+			// they were.
+			Path file = Files.createTempFile("ledger", ".pages");
+			TieredLedger ledger = new TieredLedger(file, 1, 1);
+			SingleAccount bankAccount = newAccount(null), other = newAccount(null);
+			bankAccount.restoreLedger(ledger, 0);
+			bankAccount.addTransaction("Deposit", 1, 100, 0);
+			bankAccount.addTransaction("Deposit", 2, 100, 0);
+			ledger.close();
+
+			for (Check posting : new Check[] { () -> bankAccount.addTransaction("Deposit", 3, 100, 0),
+					() -> bankAccount.addTransactions(List.of(new Transaction("Deposit", 4, 1, 0))),
+					() -> new Transfer("Transfer", 5).addLegMinorUnits(other, bankAccount, 100).execute() }) {
+				other.setBalanceMinorUnits(100);
+
+				try {
+					posting.run();
+					throw new IllegalStateException("A posting to a closed ledger was added!");
+				} catch (UncheckedIOException e) {
+					require(bankAccount.getBalanceMinorUnits() == 200 && ledger.size() == 2
+							&& other.getBalanceMinorUnits() == 100 && other.getTransactions().isEmpty(),
+							"The failed posting changed the accounts!");
+				}
+			}
+
+			Files.delete(file);
+		});
+
+		check("Snapshot.rewrite", () -> {
+			// The ledgers read from a snapshot are loaded from it later, including
+			// ones that are not written back.
+			Path file = Files.createTempFile("snapshot", ".bin");
+			User first = new User("First", 30, 1), second = new User("Second", 30, 2);
+
+			for (User user : new User[] { first, second }) {
+				SingleAccount bankAccount = new SingleAccount(user, "Check", "USD", 1, 1, user.getUserId());
+
+				for (int i = 0; i < 1_000; i++) {
+					bankAccount.addTransaction("Deposit", i, 1 + i % 3, 0, i);
+				}
+			}
+
+			Snapshot.write(file, List.of(first, second));
+			List<User> users = Snapshot.read(file);
+			Snapshot.write(file, users.subList(0, 1));
+			Snapshot.write(file, users.subList(0, 1));
+
+			for (User user : users) {
+				BankAccount bankAccount = user.getBankAccounts().get(0);
+				int size = bankAccount.getTransactions().size();
+				require(size == 1_000 && bankAccount.getTransactions().getDebitMinorUnits(size - 1) == 1 + 999 % 3
+						&& bankAccount.getBalanceMinorUnitsAt(size - 1) == bankAccount.getBalanceMinorUnits(),
+						"The ledger of %s changed when its snapshot was written back!", user);
+			}
+
+			BankAccount rewritten = Snapshot.read(file).get(0).getBankAccounts().get(0);
+			require(rewritten.getTransactions().size() == 1_000 && rewritten.getBalanceMinorUnits() == 1_999,
+					"The snapshot that was written back does not match!");
+			Files.delete(file);
+		});
+
+		check("Snapshot.mappings", () -> {
+			// Lazy ledgers share one mapping of the snapshot, which is closed as
+			// soon as it was read.
+			if (!Files.isDirectory(Path.of("/proc/self"))) {
+				return;
+			}
+
+			Path file = Files.createTempFile("snapshot", ".bin").toRealPath();
+			User user = new User("Check", 30, 1);
+
+			for (int i = 0; i < 2_000; i++) {
+				new SingleAccount(user, "Check", "USD", 1, 1, i).addTransaction("Deposit", i, 1, 0, i);
+			}
+
+			Snapshot.write(file, List.of(user));
+			List<BankAccount> bankAccounts = Snapshot.read(file).get(0).getBankAccounts();
+			require(countOpenFiles(file) == 0, "The snapshot is still open after it was read!");
+
+			for (BankAccount bankAccount : bankAccounts) {
+				bankAccount.getTransactions().size();
+				bankAccount.getTransactions().getDebitMinorUnits(0);
+			}
+
+			long mappings = Files.readAllLines(Path.of("/proc/self/maps")).stream()
+					.filter(line -> line.endsWith(file.toString())).count();
+			require(mappings <= 1, "The snapshot is mapped %d times!", mappings);
+			Files.delete(file);
+		});
+
+		check("CsvFiles.nullContacts", () -> {
+			// A user can hold null email addresses and phone numbers.
+			Path directory = Files.createTempDirectory("csv");
+			User user = new User("Check", 30, 1, null, "+15550000000");
+			user.addEmail("check@example.com");
+			user.addPhoneNumber(null);
+			new SingleAccount(user, "Check", "USD", 1, 1, 1);
+
+			CsvFiles.write(directory, List.of(user));
+			User read = CsvFiles.read(directory).get(0);
+			require(read.getEmailAddresses().equals(List.of("check@example.com"))
+					&& read.getPhoneNumbers().equals(List.of("+15550000000")),
+					"The contacts were read back as %s and %s!", read.getEmailAddresses(), read.getPhoneNumbers());
+
+			for (String fileName : new String[] { CsvFiles.USERS_FILE, CsvFiles.ACCOUNTS_FILE,
+					CsvFiles.TRANSACTIONS_FILE }) {
+				Files.delete(directory.resolve(fileName));
+			}
+
+			Files.delete(directory);
+		});
+
+		check("CsvFiles.lineNumbers", () -> {
+			// Errors name the line of the file, after blank lines and a name with
+			// a line break, and a long run of blank lines is skipped.
+			Path directory = Files.createTempDirectory("csv");
+			User user = new User("Check", 30, 1);
+			new SingleAccount(user, "Check", "USD", 1, 1, 1);
+			CsvFiles.write(directory, List.of(user));
+
+			Path usersFile = directory.resolve(CsvFiles.USERS_FILE);
+			List<String> lines = Files.readAllLines(usersFile);
+			StringBuilder contents = new StringBuilder(lines.get(0)).append("\n".repeat(200_000));
+			contents.append("2,\"Two\nLines\",30,,\n\n3,Three,thirty,,\n");
+			Files.writeString(usersFile, contents);
+
+			try {
+				CsvFiles.read(directory);
+				require(false, "A user with a wrong age was read!");
+			} catch (IOException e) {
+				require(e.getMessage().startsWith("Line 200004 "), "The error points to the wrong line: %s",
+						e.getMessage());
+			}
+
+			for (String fileName : new String[] { CsvFiles.USERS_FILE, CsvFiles.ACCOUNTS_FILE,
+					CsvFiles.TRANSACTIONS_FILE }) {
+				Files.delete(directory.resolve(fileName));
+			}
+
+			Files.delete(directory);
+		});
+
+		check("UserDirectory.sameUserAddresses", () -> {
+			// Two addresses of one user that are the same once normalized.
+			UserDirectory userDirectory = new UserDirectory();
+			User user = new User("Check", 30, 1, "A@x.com", "+1 555 000 0000");
+			user.addEmail("a@x.com ");
+			user.addPhoneNumber("+15550000000");
+			userDirectory.register(user);
+			require(userDirectory.getByEmail("a@x.com") == user && userDirectory.getByPhoneNumber("+15550000000") == user,
+					"The user was not found by their address!");
+
+			user.removeEmail("A@x.com");
+			user.removePhoneNumber("+1 555 000 0000");
+			require(userDirectory.getByEmail("a@x.com") == user && userDirectory.getByPhoneNumber("+15550000000") == user,
+					"The address was released while the user still had it!");
+
+			user.removeEmail("a@x.com ");
+			user.removePhoneNumber("+15550000000");
+			require(userDirectory.getByEmail("a@x.com") == null && userDirectory.getByPhoneNumber("+15550000000") == null,
+					"The address was not released!");
+		});
+
+		check("PostingMetrics.nullCurrency", () -> {
+			// Postings to accounts without a currency are counted like any other.
+			PostingMetrics metrics = new PostingMetrics(1);
+			BankAccount.setMetrics(metrics);
+
+			try {
+				SingleAccount from = new SingleAccount(new User("Check", 30, 1), "Check", null, 1, 1, 1),
+						to = new SingleAccount(new User("Check", 30, 1), "Check", null, 1, 1, 1);
+				from.addTransaction("Deposit", 1, 1_000, 0);
+				require(from.tryAddTransaction("Withdrawal", 2, 0, 5_000) == BankAccount.INSUFFICIENT_FUNDS,
+						"The withdrawal was not rejected!");
+				new Transfer("Transfer", 3).addLegMinorUnits(from, to, 100).execute();
+				require(from.getBalanceMinorUnits() == 900 && to.getBalanceMinorUnits() == 100,
+						"The balances are %d and %d!", from.getBalanceMinorUnits(), to.getBalanceMinorUnits());
+				require(metrics.getPostings(null) == 3 && metrics.getRejections(null) == 1,
+						"%d postings and %d rejections were counted!", metrics.getPostings(null),
+						metrics.getRejections(null));
+			} finally {
+				BankAccount.setMetrics(null);
+			}
+		});
+
+		check("EventChannel.closeRace", () -> {
+			// Events published while the channel closes are delivered or dropped.
+			for (int round = 0; round < 1_000; round++) {
+				EventChannel channel = new EventChannel(64);
+				LongAdder delivered = new LongAdder(), accepted = new LongAdder();
+				channel.addSink(event -> delivered.increment());
+				ContactNotFound event = new ContactNotFound(null, "check@example.com");
+
+				race(4, thread -> {
+					for (int i = 0; i < 1_000; i++) {
+						if (thread == 0 && i == 100) {
+							channel.close();
+						} else if (channel.publish(event)) {
+							accepted.increment();
+						}
+					}
+				});
+
+				require(delivered.sum() == accepted.sum() && accepted.sum() + channel.getDropped() == 3_999,
+						"%d events were delivered, %d accepted and %d dropped!", delivered.sum(), accepted.sum(),
+						channel.getDropped());
+			}
+		});
+	}
+
+	/**
+	 * @hidden
+	 * @param name  The name of the check.
+	 * @param check The check.
+	 * @throws Exception If the check fails.
+	 */
+	private static void check(String name, Check check) throws Exception {
+		if (!name.contains(filter)) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		check.run();
+		System.out.println(String.format("%-40s passed in %d ms", name, (System.nanoTime() - start) / 1_000_000));
+	}
+
+	/**
+	 * @hidden
+	 * @param condition The condition that must hold.
+	 * @param message   The message of the failure.
+	 * @param arguments The arguments of the message.
+	 */
+	private static void require(boolean condition, String message, Object... arguments) {
+		if (!condition) {
+			throw new IllegalStateException(String.format(message, arguments));
+		}
+	}
+
+	/**
+	 * Run threads at once and wait for all of them.
+	 * 
+	 * @hidden
+	 * @param threads The number of threads.
+	 * @param work    The work of each thread, given its index.
+	 * @throws Exception If a thread failed.
+	 */
+	private static void race(int threads, ThreadWork work) throws Exception {
+		ArrayList<Thread> started = new ArrayList<Thread>();
+		Exception[] failure = new Exception[1];
+
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			Thread worker = new Thread(() -> {
+				try {
+					work.run(thread);
+				} catch (Exception e) {
+					synchronized (failure) {
+						failure[0] = e;
+					}
+				}
+			});
+			worker.start();
+			started.add(worker);
+		}
+
+		for (Thread worker : started) {
+			worker.join();
+		}
+
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param bankAccount An empty account.
+	 * @throws Exception If a balance in the ledger is negative or the last one
+	 *                   is not the balance of the account.
+	 */
+	private static void checkLedgerOrder(BankAccount bankAccount) throws Exception {
+		race(16, thread -> {
+			for (int i = 0; i < 200_000; i++) {
+				bankAccount.tryAddTransaction("Deposit", i, 1, 0, i);
+				bankAccount.tryAddTransaction("Withdrawal", i, 0, bankAccount.getBalanceMinorUnits(), i);
+			}
+		});
+
+		int size = bankAccount.getTransactions().size();
+
+		for (int i = 0; i < size; i++) {
+			long balance = bankAccount.getBalanceMinorUnitsAt(i);
+			require(balance >= 0, "The balance after transaction %d is %d!", i, balance);
+		}
+
+		require(bankAccount.getBalanceMinorUnitsAt(size - 1) == bankAccount.getBalanceMinorUnits(),
+				"The ledger ends at %d, but the balance is %d!", bankAccount.getBalanceMinorUnitsAt(size - 1),
+				bankAccount.getBalanceMinorUnits());
+	}
+
+	/**
+	 * Run thousands of threads that transfer between a few accounts while
+	 * adding their own transactions, and check that no money was created or
+	 * lost.
+	 * 
+	 * @hidden
+	 * @throws Exception If the money does not add up.
+	 */
+	private static void checkTransferConservation() throws Exception {
+		SingleAccount[] bankAccounts = new SingleAccount[50];
+		long expected = 0;
+
+		for (int i = 0; i < bankAccounts.length; i++) {
+			bankAccounts[i] = newAccount(null);
+			bankAccounts[i].setBalanceMinorUnits(100_000);
+			expected += 100_000;
+		}
+
+		LongAdder posted = new LongAdder();
+
+		race(2_000, thread -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			for (int i = 0; i < 200; i++) {
+				SingleAccount bankAccount = bankAccounts[random.nextInt(bankAccounts.length)];
+
+				if (random.nextInt(10) == 0) {
+					long debit = random.nextInt(2) * random.nextInt(1_000), credit = random.nextInt(1_000);
+
+					if (bankAccount.tryAddTransaction("Direct", i, debit, credit, i) == BankAccount.POSTED) {
+						posted.add(debit - credit);
+					}
+
+					continue;
+				}
+
+				Transfer transfer = new Transfer("Transfer", i);
+
+				for (int legs = 1 + random.nextInt(3); legs > 0; legs--) {
+					SingleAccount to = bankAccounts[random.nextInt(bankAccounts.length)];
+
+					if (to != bankAccount) {
+						transfer.addLeg(bankAccount, to, (1 + random.nextInt(2_000)) / 100.0);
+					}
+				}
+
+				try {
+					transfer.execute();
+				} catch (NegativeBalanceException e) {
+					// Nothing was moved.
+				}
+			}
+		});
+
+		long total = 0;
+
+		for (SingleAccount bankAccount : bankAccounts) {
+			long balance = bankAccount.getBalanceMinorUnits();
+			int size = bankAccount.getTransactions().size();
+			require(balance >= 0, "%s has a negative balance!", bankAccount);
+			require(size == 0 || bankAccount.getBalanceMinorUnitsAt(size - 1) == balance,
+					"The ledger of %s does not add up to its balance!", bankAccount);
+			total += balance;
+		}
+
+		require(total == expected + posted.sum(), "The accounts hold %d minor units instead of %d!", total,
+				expected + posted.sum());
+	}
+
+	/**
+	 * Journal deposits that race with withdrawals of the whole balance and
+	 * transfers between two accounts, and check that replaying the journal
+	 * rebuilds the same balances and ledgers.
+	 * 
+	 * @hidden
+	 * @throws Exception If the journal cannot be replayed or does not match.
+	 */
+	private static void checkJournalReplay() throws Exception {
+		Path directory = Files.createTempDirectory("journal");
+		User user = new User("Check", 30, 1);
+		SingleAccount first = new SingleAccount(user, "Check", "USD", 1, 1, 1);
+		SingleAccount second = new SingleAccount(user, "Check", "USD", 1, 1, 2);
+
+		try (TransactionJournal journal = new TransactionJournal(directory, 256, 1, 64L << 20, false)) {
+			journal.attach(first);
+			journal.attach(second);
+
+			race(8, thread -> {
+				for (int i = 0; i < 20_000; i++) {
+					first.tryAddTransaction("Deposit", i, 2, 0, i);
+					first.tryAddTransaction("Withdrawal", i, 0, first.getBalanceMinorUnits(), i);
+
+					try {
+						new Transfer("Transfer", i, i).addLegMinorUnits(first, second, 1).execute();
+						new Transfer("Transfer", i, i).addLegMinorUnits(second, first, 1).execute();
+					} catch (NegativeBalanceException e) {
+						// The balance was taken by another thread.
+					}
+				}
+			});
+		}
+
+		AccountRegistry registry = new AccountRegistry();
+		SingleAccount replayedFirst = new SingleAccount(user, "Check", "USD", 1, 1, 1);
+		SingleAccount replayedSecond = new SingleAccount(user, "Check", "USD", 1, 1, 2);
+		registry.register(replayedFirst);
+		registry.register(replayedSecond);
+		TransactionJournal.replay(directory, registry);
+
+		require(replayedFirst.getBalanceMinorUnits() == first.getBalanceMinorUnits()
+				&& replayedSecond.getBalanceMinorUnits() == second.getBalanceMinorUnits(),
+				"The replayed balances are %d and %d instead of %d and %d!", replayedFirst.getBalanceMinorUnits(),
+				replayedSecond.getBalanceMinorUnits(), first.getBalanceMinorUnits(), second.getBalanceMinorUnits());
+		require(replayedFirst.getTransactions().size() == first.getTransactions().size()
+				&& replayedSecond.getTransactions().size() == second.getTransactions().size(),
+				"The replayed ledgers have a different number of transactions!");
+	}
+
+	/**
+	 * @hidden
+	 * @param file The file to look for.
+	 * @return How many file descriptors of this process refer to the file.
+	 * @throws IOException If the file descriptors cannot be listed.
+	 */
+	private static int countOpenFiles(Path file) throws IOException {
+		int count = 0;
+
+		try (DirectoryStream<Path> descriptors = Files.newDirectoryStream(Path.of("/proc/self/fd"))) {
+			for (Path descriptor : descriptors) {
+				try {
+					if (Files.readSymbolicLink(descriptor).equals(file)) {
+						count++;
+					}
+				} catch (IOException e) {
+					// The descriptor was closed while the directory was listed.
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @hidden
+	 * @param table The table holding the balance, or <code>null</code>.
+	 * @return An empty account.
+	 */
+	private static SingleAccount newAccount(AccountTable table) {
+		return new SingleAccount(table, 0, new User("Check", 30, 1), "Check", "USD", 1, 1, 1);
+	}
+}
@@ -0,0 +1,19 @@
+package events;
+
+/**
+ * A sink that prints the message of each event, to standard error if it is an
+ * error and to standard output if not.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class ConsoleSink implements EventSink {
+	@Override
+	public void handle(DomainEvent event) {
+		if (event.isError()) {
+			System.err.println(event.getMessage());
+		} else {
+			System.out.println(event.getMessage());
+		}
+	}
+}
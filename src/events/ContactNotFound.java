@@ -0,0 +1,49 @@
+package events;
+
+import userservice.User;
+
+/**
+ * An event for an email address or phone number that could not be removed
+ * from a user because they do not have it.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class ContactNotFound extends DomainEvent {
+	private final User user;
+	private final String contact;
+
+	/**
+	 * Create the event.
+	 * 
+	 * @param user    The user.
+	 * @param contact The email address or phone number that was to be removed.
+	 */
+	public ContactNotFound(User user, String contact) {
+		this.user = user;
+		this.contact = contact;
+	}
+
+	/**
+	 * Get the user.
+	 * 
+	 * @return The user.
+	 */
+	public User getUser() {
+		return user;
+	}
+
+	/**
+	 * Get the email address or phone number that was to be removed.
+	 * 
+	 * @return The email address or phone number.
+	 */
+	public String getContact() {
+		return contact;
+	}
+
+	@Override
+	public String getMessage() {
+		return String.format("%s was not found! Nothing was removed", contact);
+	}
+}
@@ -0,0 +1,44 @@
+package events;
+
+/**
+ * An abstract class for something that happened to a user or bank account
+ * that may be worth reporting but is not an error for the caller. Events only
+ * hold references to what they are about, so their message is not built until
+ * a sink asks for it.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public abstract class DomainEvent {
+	private final long timestamp = System.currentTimeMillis();
+
+	/**
+	 * Get the time the event happened.
+	 * 
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get a description of the event for people to read.
+	 * 
+	 * @return The message.
+	 */
+	public abstract String getMessage();
+
+	/**
+	 * Check to see if the event reports a request that was refused.
+	 * 
+	 * @return <code>true</code> if the event should be shown as an error.
+	 */
+	public boolean isError() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return getMessage();
+	}
+}
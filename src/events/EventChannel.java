@@ -0,0 +1,364 @@
+package events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A channel that hands domain events to sinks on a background thread, so the
+ * thread that reports an event never waits for a sink or the console. Events
+ * go into a bounded ring that any number of threads publish to without locking.
+ * When the ring is full the event is dropped and counted instead of making the
+ * reporting thread wait.
+ * 
+ * Each slot of the ring has a sequence number that says whether it is free or
+ * holds an event, so publishers only compete for the next sequence. The
+ * background thread sleeps while there is nothing to deliver and is woken by
+ * the next event.
+ * 
+ * Once the channel is closed and every claimed event was delivered, the
+ * background thread closes the tail as well. A publisher that races with
+ * close either claimed its slot before that, so its event is delivered, or
+ * fails to claim one and counts its event as dropped.
+ * 
+ * Since sinks run on the background thread, a ConsoleSink prints an event some
+ * time after it was published, and may print it after output that the
+ * publishing thread writes next. Call {@link #flush()} to wait for the events
+ * published so far. The default channel is closed when the Java runtime shuts
+ * down, so its events are still delivered before the program exits.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class EventChannel implements AutoCloseable {
+	/**
+	 * The number of events the ring holds when no capacity is given.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 12;
+
+	private static final EventSink[] NO_SINKS = new EventSink[0];
+	private static final int SPINS = 100, YIELDS = 100;
+	private static final long PARK_NANOS = 50_000;
+	private static final long CLOSED_TAIL = -1;
+
+	private static volatile EventChannel defaultChannel;
+	private static boolean shutdownHookAdded;
+
+	private final AtomicReferenceArray<DomainEvent> events;
+	private final AtomicLongArray sequences;
+	private final int mask;
+
+	// Publishers claim sequences from the tail until the delivering thread sets
+	// it to CLOSED_TAIL. Only the delivering thread changes the head.
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	private final LongAdder dropped = new LongAdder();
+
+	// Only the delivering thread changes this, so it is never read half written.
+	private volatile long failed;
+
+	private volatile EventSink[] sinks = NO_SINKS;
+	private volatile boolean waiting, closed;
+	private final Thread deliverer;
+
+	/**
+	 * Start a channel with the default capacity and no sinks.
+	 */
+	public EventChannel() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Start a channel with no sinks.
+	 * 
+	 * @param capacity The number of events the ring holds, which must be a power
+	 *                 of two.
+	 * @throws IllegalArgumentException If the capacity is not a power of two.
+	 */
+	public EventChannel(int capacity) throws IllegalArgumentException {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException(String.format("The capacity %d is not a power of two!", capacity));
+		}
+
+		mask = capacity - 1;
+		events = new AtomicReferenceArray<DomainEvent>(capacity);
+		sequences = new AtomicLongArray(capacity);
+
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+
+		deliverer = new Thread(this::deliverLoop, "event-channel");
+		deliverer.setDaemon(true);
+		deliverer.start();
+	}
+
+	/**
+	 * Get the channel that users and bank accounts report their events to. It
+	 * is started with a ConsoleSink the first time it is needed, unless another
+	 * channel was set, and is closed when the Java runtime shuts down.
+	 * 
+	 * @return The default channel.
+	 */
+	public static EventChannel getDefault() {
+		EventChannel channel = defaultChannel;
+		return channel != null ? channel : startDefault();
+	}
+
+	/**
+	 * Set the channel that users and bank accounts report their events to. The
+	 * previous channel is not closed, and the new one is closed when the Java
+	 * runtime shuts down.
+	 * 
+	 * @param channel The new default channel.
+	 * @throws NullPointerException If the channel is <code>null</code>.
+	 */
+	public static synchronized void setDefault(EventChannel channel) throws NullPointerException {
+		if (channel == null) {
+			throw new NullPointerException("The default event channel cannot be null!");
+		}
+
+		defaultChannel = channel;
+		addShutdownHook();
+	}
+
+	/**
+	 * Publish an event without waiting for it to be delivered.
+	 * 
+	 * @param event The event.
+	 * @return <code>true</code> if the event will be delivered, or
+	 *         <code>false</code> if it was dropped because the ring was full or
+	 *         the channel is closed.
+	 */
+	public boolean publish(DomainEvent event) {
+		if (closed) {
+			dropped.increment();
+			return false;
+		}
+
+		long sequence = tail.get();
+
+		for (;;) {
+			if (sequence == CLOSED_TAIL) {
+				dropped.increment();
+				return false;
+			}
+
+			long difference = sequences.get((int) sequence & mask) - sequence;
+
+			if (difference == 0) {
+				if (tail.compareAndSet(sequence, sequence + 1)) {
+					break;
+				}
+
+				sequence = tail.get();
+			} else if (difference < 0) {
+				dropped.increment();
+				return false;
+			} else {
+				sequence = tail.get();
+			}
+		}
+
+		int slot = (int) sequence & mask;
+		events.lazySet(slot, event);
+		sequences.set(slot, sequence + 1);
+
+		if (waiting) {
+			LockSupport.unpark(deliverer);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Add a sink that is given every event delivered after it is added.
+	 * 
+	 * @param sink The sink to be added.
+	 */
+	public synchronized void addSink(EventSink sink) {
+		EventSink[] currentSinks = sinks;
+		EventSink[] newSinks = new EventSink[currentSinks.length + 1];
+		System.arraycopy(currentSinks, 0, newSinks, 0, currentSinks.length);
+		newSinks[currentSinks.length] = sink;
+		sinks = newSinks;
+	}
+
+	/**
+	 * Remove a sink from the channel.
+	 * 
+	 * @param sink The sink to be removed.
+	 */
+	public synchronized void removeSink(EventSink sink) {
+		EventSink[] currentSinks = sinks;
+
+		for (int i = 0; i < currentSinks.length; i++) {
+			if (currentSinks[i] == sink) {
+				EventSink[] newSinks = new EventSink[currentSinks.length - 1];
+				System.arraycopy(currentSinks, 0, newSinks, 0, i);
+				System.arraycopy(currentSinks, i + 1, newSinks, i, newSinks.length - i);
+				sinks = newSinks;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of events that were dropped because the ring was full or
+	 * the channel was closed.
+	 * 
+	 * @return The number of dropped events.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Get the number of times a sink threw an exception while handling an
+	 * event.
+	 * 
+	 * @return The number of failed deliveries.
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Wait until every event published before this was called has been given to
+	 * the sinks.
+	 */
+	public void flush() {
+		long target = tail.get();
+
+		for (int idles = 0; head < target && deliverer.isAlive(); idles++) {
+			idle(idles);
+		}
+	}
+
+	/**
+	 * Deliver the published events and stop the background thread. Events
+	 * published afterwards are dropped.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(deliverer);
+
+		try {
+			deliverer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @return The default channel, started if it was not set.
+	 */
+	private static synchronized EventChannel startDefault() {
+		if (defaultChannel == null) {
+			EventChannel channel = new EventChannel();
+			channel.addSink(new ConsoleSink());
+			defaultChannel = channel;
+			addShutdownHook();
+		}
+
+		return defaultChannel;
+	}
+
+	/**
+	 * Close the default channel when the Java runtime shuts down, so that the
+	 * events published before are delivered. The caller must hold the class
+	 * lock.
+	 * 
+	 * @hidden
+	 */
+	private static void addShutdownHook() {
+		if (shutdownHookAdded) {
+			return;
+		}
+
+		try {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> defaultChannel.close(), "event-channel-shutdown"));
+			shutdownHookAdded = true;
+		} catch (IllegalStateException e) {
+			// The runtime is already shutting down, so the events cannot be waited for.
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private void deliverLoop() {
+		long next = 0;
+
+		for (int idles = 0;; idles++) {
+			int slot = (int) next & mask;
+
+			if (sequences.get(slot) != next + 1) {
+				// Closing the tail makes the publishers that have not claimed a slot
+				// yet drop their events, so none is claimed after this thread stops.
+				if (closed && tail.compareAndSet(next, CLOSED_TAIL)) {
+					return;
+				} else if (idles < SPINS + YIELDS) {
+					// Waking a parked thread costs the publisher far more than an
+					// event, so a busy channel is not allowed to park between events.
+					idle(idles);
+					continue;
+				}
+
+				// A publisher that sees the flag after publishing wakes this thread,
+				// and one that published before it was set is seen by the check.
+				waiting = true;
+
+				if (sequences.get(slot) != next + 1 && !closed) {
+					LockSupport.park(this);
+				}
+
+				waiting = false;
+				idles = -1;
+				continue;
+			}
+
+			idles = -1;
+
+			DomainEvent event = events.get(slot);
+			events.lazySet(slot, null);
+			sequences.set(slot, next + mask + 1);
+			deliver(event);
+			head = ++next;
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param event The event to be given to every sink.
+	 */
+	private void deliver(DomainEvent event) {
+		for (EventSink sink : sinks) {
+			try {
+				sink.handle(event);
+			} catch (RuntimeException e) {
+				failed++;
+			}
+		}
+	}
+
+	/**
+	 * Wait a little, spinning at first, then yielding and then sleeping.
+	 * 
+	 * @hidden
+	 * @param idles The number of times the thread has waited in a row.
+	 */
+	private static void idle(int idles) {
+		if (idles < SPINS) {
+			Thread.onSpinWait();
+		} else if (idles < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
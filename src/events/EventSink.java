@@ -0,0 +1,18 @@
+package events;
+
+/**
+ * An interface for receiving the domain events of an EventChannel. Sinks are
+ * called one event at a time on the thread of the channel, never on the thread
+ * that reported the event.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public interface EventSink {
+	/**
+	 * Handle an event.
+	 * 
+	 * @param event The event.
+	 */
+	void handle(DomainEvent event);
+}
@@ -0,0 +1,70 @@
+package events;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * An event for journaled transactions that could not be written to disk. The
+ * transactions were already added to their bank accounts, but they will not
+ * be replayed after a restart.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class JournalWriteFailed extends DomainEvent {
+	private final Path directory;
+	private final long records;
+	private final IOException cause;
+
+	/**
+	 * Create the event.
+	 * 
+	 * @param directory The directory of the journal.
+	 * @param records   The number of records that were not written.
+	 * @param cause     The error that stopped them from being written.
+	 */
+	public JournalWriteFailed(Path directory, long records, IOException cause) {
+		this.directory = directory;
+		this.records = records;
+		this.cause = cause;
+	}
+
+	/**
+	 * Get the directory of the journal.
+	 * 
+	 * @return The directory.
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the number of records that were not written. A transfer is one
+	 * record.
+	 * 
+	 * @return The number of records.
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Get the error that stopped the records from being written.
+	 * 
+	 * @return The error.
+	 */
+	public IOException getCause() {
+		return cause;
+	}
+
+	@Override
+	public String getMessage() {
+		return String.format("%d journaled transactions in %s could not be written to disk: %s!", records, directory,
+				cause.getMessage());
+	}
+
+	@Override
+	public boolean isError() {
+		return true;
+	}
+}
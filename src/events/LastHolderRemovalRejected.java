@@ -0,0 +1,55 @@
+package events;
+
+import makingtransactions.bankaccounts.JointAccount;
+import userservice.User;
+
+/**
+ * An event for a user that was not removed from a joint account because they
+ * are its only holder.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class LastHolderRemovalRejected extends DomainEvent {
+	private final User user;
+	private final JointAccount jointAccount;
+
+	/**
+	 * Create the event.
+	 * 
+	 * @param user         The user that was to be removed.
+	 * @param jointAccount The joint account.
+	 */
+	public LastHolderRemovalRejected(User user, JointAccount jointAccount) {
+		this.user = user;
+		this.jointAccount = jointAccount;
+	}
+
+	/**
+	 * Get the user that was to be removed.
+	 * 
+	 * @return The user.
+	 */
+	public User getUser() {
+		return user;
+	}
+
+	/**
+	 * Get the joint account.
+	 * 
+	 * @return The joint account.
+	 */
+	public JointAccount getJointAccount() {
+		return jointAccount;
+	}
+
+	@Override
+	public String getMessage() {
+		return "A joint account must have at least one user!";
+	}
+
+	@Override
+	public boolean isError() {
+		return true;
+	}
+}
@@ -0,0 +1,92 @@
+package events;
+
+import makingtransactions.bankaccounts.BankAccount;
+
+/**
+ * An event for a scheduled transaction that was given up after it failed
+ * every time it was tried.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class ScheduledTransactionFailed extends DomainEvent {
+	private final int scheduleId, attempts;
+	private final BankAccount bankAccount;
+	private final String transactionName;
+	private final long dueTime;
+
+	/**
+	 * Create the event.
+	 * 
+	 * @param scheduleId      The ID of the schedule.
+	 * @param bankAccount     The bank account of the schedule.
+	 * @param transactionName The name of the transaction.
+	 * @param dueTime         The time the transaction was due in milliseconds
+	 *                        since the epoch.
+	 * @param attempts        The number of times the transaction was tried.
+	 */
+	public ScheduledTransactionFailed(int scheduleId, BankAccount bankAccount, String transactionName, long dueTime,
+			int attempts) {
+		this.scheduleId = scheduleId;
+		this.bankAccount = bankAccount;
+		this.transactionName = transactionName;
+		this.dueTime = dueTime;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Get the ID of the schedule.
+	 * 
+	 * @return The schedule ID.
+	 */
+	public int getScheduleId() {
+		return scheduleId;
+	}
+
+	/**
+	 * Get the bank account of the schedule.
+	 * 
+	 * @return The bank account.
+	 */
+	public BankAccount getBankAccount() {
+		return bankAccount;
+	}
+
+	/**
+	 * Get the name of the transaction.
+	 * 
+	 * @return The transaction name.
+	 */
+	public String getTransactionName() {
+		return transactionName;
+	}
+
+	/**
+	 * Get the time the transaction was due.
+	 * 
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getDueTime() {
+		return dueTime;
+	}
+
+	/**
+	 * Get the number of times the transaction was tried.
+	 * 
+	 * @return The number of attempts.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	@Override
+	public String getMessage() {
+		return String.format("Scheduled transaction %s to %s was given up after %d attempts!", transactionName,
+				bankAccount, attempts);
+	}
+
+	@Override
+	public boolean isError() {
+		return true;
+	}
+}
@@ -0,0 +1,50 @@
+package events;
+
+import makingtransactions.bankaccounts.JointAccount;
+import userservice.User;
+
+/**
+ * An event for a user that could not be removed from a joint account because
+ * they do not hold it.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class UserNotInJointAccount extends DomainEvent {
+	private final User user;
+	private final JointAccount jointAccount;
+
+	/**
+	 * Create the event.
+	 * 
+	 * @param user         The user that was to be removed.
+	 * @param jointAccount The joint account.
+	 */
+	public UserNotInJointAccount(User user, JointAccount jointAccount) {
+		this.user = user;
+		this.jointAccount = jointAccount;
+	}
+
+	/**
+	 * Get the user that was to be removed.
+	 * 
+	 * @return The user.
+	 */
+	public User getUser() {
+		return user;
+	}
+
+	/**
+	 * Get the joint account.
+	 * 
+	 * @return The joint account.
+	 */
+	public JointAccount getJointAccount() {
+		return jointAccount;
+	}
+
+	@Override
+	public String getMessage() {
+		return String.format("%s is not part of this joint account called %s", user, jointAccount);
+	}
+}
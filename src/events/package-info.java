@@ -0,0 +1,7 @@
+/**
+ * Classes for reporting domain events without waiting for them to be handled.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package events;
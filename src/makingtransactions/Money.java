@@ -0,0 +1,127 @@
+package makingtransactions;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * A utility class for working with money as a <code>long</code> amount of
+ * minor units (For example, cents). The scale is the number of decimal places
+ * in one major unit and is taken from the currency code.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class Money {
+	/**
+	 * The scale used when a currency is not a known ISO 4217 currency code.
+	 */
+	public static final int DEFAULT_SCALE = 2;
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private Money() {
+	}
+
+	/**
+	 * Get the scale (The number of decimal places) of a currency.
+	 * 
+	 * @param currency The currency code, such as <code>"USD"</code>.
+	 * @return The scale of the currency, or {@link #DEFAULT_SCALE} if the
+	 *         currency is not a known currency code.
+	 */
+	public static int scale(String currency) {
+		if (currency != null) {
+			try {
+				int digits = Currency.getInstance(currency).getDefaultFractionDigits();
+
+				if (digits >= 0) {
+					return digits;
+				}
+			} catch (IllegalArgumentException e) {
+				// Free-form currencies fall back to the default scale.
+			}
+		}
+
+		return DEFAULT_SCALE;
+	}
+
+	/**
+	 * Convert an amount of major units into minor units.
+	 * 
+	 * @param amount The amount in major units, such as <code>12.5</code>.
+	 * @param scale  The scale of the currency.
+	 * @return The amount in minor units, rounded to the nearest minor unit.
+	 * @throws ArithmeticException If the amount does not fit in a
+	 *                             <code>long</code>.
+	 */
+	public static long toMinorUnits(double amount, int scale) throws ArithmeticException {
+		double minorUnits = Math.rint(amount * POWERS_OF_TEN[scale]);
+
+		if (Double.isNaN(minorUnits) || minorUnits >= 0x1p63 || minorUnits < -0x1p63) {
+			throw new ArithmeticException(String.format("%f cannot be stored as minor units!", amount));
+		}
+
+		return (long) minorUnits;
+	}
+
+	/**
+	 * Convert an amount of minor units into major units.
+	 * 
+	 * @param amount The amount in minor units.
+	 * @param scale  The scale of the currency.
+	 * @return The amount in major units.
+	 */
+	public static double toMajorUnits(long amount, int scale) {
+		return amount / (double) POWERS_OF_TEN[scale];
+	}
+
+	/**
+	 * Convert an amount of minor units from one scale to another.
+	 * 
+	 * @param amount    The amount in minor units.
+	 * @param fromScale The scale that the amount is in.
+	 * @param toScale   The scale to convert to.
+	 * @return The amount in minor units of the new scale.
+	 * @throws ArithmeticException If the amount cannot be converted without
+	 *                             rounding or overflowing.
+	 */
+	public static long rescale(long amount, int fromScale, int toScale) throws ArithmeticException {
+		if (fromScale == toScale) {
+			return amount;
+		} else if (fromScale < toScale) {
+			return Math.multiplyExact(amount, POWERS_OF_TEN[toScale - fromScale]);
+		} else {
+			long divisor = POWERS_OF_TEN[fromScale - toScale];
+
+			if (amount % divisor != 0) {
+				throw new ArithmeticException(
+						String.format("%s cannot be stored with %d decimal places!", toString(amount, fromScale),
+								toScale));
+			}
+
+			return amount / divisor;
+		}
+	}
+
+	/**
+	 * Get the text form of an amount, such as <code>"12.50"</code>.
+	 * 
+	 * @param amount The amount in minor units.
+	 * @param scale  The scale of the currency.
+	 * @return The amount in major units as text.
+	 */
+	public static String toString(long amount, int scale) {
+		return BigDecimal.valueOf(amount, scale).toPlainString();
+	}
+}
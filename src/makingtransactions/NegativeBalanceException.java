@@ -8,7 +8,9 @@ package makingtransactions;
  * @version 1.0.0
  */
 public class NegativeBalanceException extends Exception {
-	private double credit, balance;
+	private long credit, balance;
+	private int scale;
+	private Transaction transaction;
 
 	/**
 	 * Throw the NegativeBalanceException to avoid a negative balance on a bank
@@ -18,12 +20,105 @@ public class NegativeBalanceException extends Exception {
 	 * @param balance The balance on the bank account.
 	 */
 	public NegativeBalanceException(double credit, double balance) {
+		this(Money.toMinorUnits(credit, Money.DEFAULT_SCALE), Money.toMinorUnits(balance, Money.DEFAULT_SCALE),
+				Money.DEFAULT_SCALE);
+	}
+
+	/**
+	 * Throw the NegativeBalanceException with amounts in minor units (For
+	 * example, cents).
+	 * 
+	 * @param credit  The credit of the transaction in minor units.
+	 * @param balance The balance on the bank account in minor units.
+	 * @param scale   The scale (The number of decimal places) of the amounts.
+	 */
+	public NegativeBalanceException(long credit, long balance, int scale) {
+		this.credit = credit;
+		this.balance = balance;
+		this.scale = scale;
+	}
+
+	/**
+	 * Throw the NegativeBalanceException for a transaction that would have made
+	 * the balance negative.
+	 * 
+	 * @param credit      The credit of the transaction in minor units.
+	 * @param balance     The balance on the bank account in minor units.
+	 * @param scale       The scale (The number of decimal places) of the
+	 *                    amounts.
+	 * @param transaction The transaction that was rejected.
+	 */
+	public NegativeBalanceException(long credit, long balance, int scale, Transaction transaction) {
+		this(credit, balance, scale);
+		this.transaction = transaction;
+	}
+
+	/**
+	 * Throw the NegativeBalanceException, optionally without capturing a stack
+	 * trace. Skipping the stack trace makes routine rejections much cheaper.
+	 * 
+	 * @param credit      The credit of the transaction in minor units.
+	 * @param balance     The balance on the bank account in minor units.
+	 * @param scale       The scale (The number of decimal places) of the
+	 *                    amounts.
+	 * @param transaction The transaction that was rejected, if there is one.
+	 * @param stackTrace  <code>false</code> to skip capturing the stack trace.
+	 */
+	public NegativeBalanceException(long credit, long balance, int scale, Transaction transaction,
+			boolean stackTrace) {
+		super(null, null, false, stackTrace);
 		this.credit = credit;
 		this.balance = balance;
+		this.scale = scale;
+		this.transaction = transaction;
+	}
+
+	/**
+	 * Get the transaction that was rejected.
+	 * 
+	 * @return The rejected transaction, or <code>null</code> if it is not known.
+	 */
+	public Transaction getTransaction() {
+		return transaction;
+	}
+
+	/**
+	 * Get the credit of the rejected transaction.
+	 * 
+	 * @return The credit of the transaction.
+	 */
+	public double getCredit() {
+		return Money.toMajorUnits(credit, scale);
+	}
+
+	/**
+	 * Get the balance on the bank account when the transaction was rejected.
+	 * 
+	 * @return The balance on the bank account.
+	 */
+	public double getBalance() {
+		return Money.toMajorUnits(balance, scale);
+	}
+
+	/**
+	 * Get the message of the exception. The message is only formatted when it
+	 * is asked for.
+	 * 
+	 * @return The message of the exception.
+	 */
+	@Override
+	public String getMessage() {
+		return toString();
 	}
 
 	@Override
 	public String toString() {
-		return String.format("Credit %.2f is bigger than balance %.2f! No values were changed.", credit, balance);
+		if (transaction != null) {
+			return String.format("Credit %s on %s is bigger than balance %s! No values were changed.",
+					Money.toString(credit, scale), transaction, Money.toString(balance, scale));
+		}
+
+		return String.format("Credit %s is bigger than balance %s! No values were changed.",
+				Money.toString(credit, scale), Money.toString(balance, scale));
 	}
 }
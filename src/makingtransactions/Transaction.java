@@ -7,9 +7,11 @@ package makingtransactions;
  * @version 1.0.4
  */
 public class Transaction {
-	private String transactionName;
-	private double debit, credit;
+	private String transactionName, currency;
+	private int scale = Money.DEFAULT_SCALE;
+	private long debit, credit;
 	private int transactionId;
+	private long timestamp = System.currentTimeMillis();
 
 	/**
 	 * Create a transaction with credit and debit.
@@ -25,6 +27,24 @@ public class Transaction {
 		setCredit(credit);
 	}
 
+	/**
+	 * Create a transaction with credit and debit in a currency. The amounts are
+	 * converted to the currency of the bank account when the transaction is
+	 * added to it.
+	 * 
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           How much money should be earned.
+	 * @param credit          How much money should be spent.
+	 * @param currency        The type of currency.
+	 */
+	public Transaction(String transactionName, int transactionId, double debit, double credit, String currency) {
+		setNameAndId(transactionName, transactionId);
+		setCurrency(currency);
+		setDebit(debit);
+		setCredit(credit);
+	}
+
 	/**
 	 * Create a transaction without any credit and debit.
 	 * 
@@ -59,7 +79,7 @@ public class Transaction {
 	 * @return The debit for the transaction.
 	 */
 	public double getDebit() {
-		return debit;
+		return Money.toMajorUnits(debit, getScale());
 	}
 
 	/**
@@ -69,6 +89,29 @@ public class Transaction {
 	 * @throws IllegalArgumentException If the debit is a negative number.
 	 */
 	public void setDebit(double debit) throws IllegalArgumentException {
+		if (debit >= 0) {
+			this.debit = Money.toMinorUnits(debit, getScale());
+		} else {
+			throw new IllegalArgumentException("A negative debit is not allowed!");
+		}
+	}
+
+	/**
+	 * Get the debit for the transaction in minor units (For example, cents).
+	 * 
+	 * @return The debit for the transaction in minor units.
+	 */
+	public long getDebitMinorUnits() {
+		return debit;
+	}
+
+	/**
+	 * Set the debit for the transaction in minor units (For example, cents).
+	 * 
+	 * @param debit The debit applied to the transaction in minor units.
+	 * @throws IllegalArgumentException If the debit is a negative number.
+	 */
+	public void setDebitMinorUnits(long debit) throws IllegalArgumentException {
 		if (debit >= 0) {
 			this.debit = debit;
 		} else {
@@ -82,9 +125,72 @@ public class Transaction {
 	 * @return The credit for the transaction.
 	 */
 	public double getCredit() {
+		return Money.toMajorUnits(credit, getScale());
+	}
+
+	/**
+	 * Get the credit for the transaction in minor units (For example, cents).
+	 * 
+	 * @return The credit for the transaction in minor units.
+	 */
+	public long getCreditMinorUnits() {
 		return credit;
 	}
 
+	/**
+	 * Set the credit for the transaction in minor units (For example, cents).
+	 * 
+	 * @param credit The credit applied to the transaction in minor units.
+	 * @throws IllegalArgumentException If the credit is a negative number.
+	 */
+	public void setCreditMinorUnits(long credit) throws IllegalArgumentException {
+		if (credit >= 0) {
+			this.credit = credit;
+		} else {
+			throw new IllegalArgumentException("A negative credit is not allowed!");
+		}
+	}
+
+	/**
+	 * Get the currency of the transaction.
+	 * 
+	 * @return The currency of the transaction, or <code>null</code> if it is in
+	 *         the currency of whichever bank account it is added to.
+	 */
+	public String getCurrency() {
+		return currency;
+	}
+
+	/**
+	 * Set the currency of the transaction. The debit and credit keep their
+	 * value in major units.
+	 * 
+	 * @param currency The type of currency, or <code>null</code> for the
+	 *                 currency of whichever bank account the transaction is
+	 *                 added to.
+	 * @throws ArithmeticException If the amounts cannot be stored with the
+	 *                             decimal places of the new currency.
+	 */
+	public void setCurrency(String currency) throws ArithmeticException {
+		int newScale = Money.scale(currency);
+		long newDebit = Money.rescale(debit, scale, newScale), newCredit = Money.rescale(credit, scale, newScale);
+
+		debit = newDebit;
+		credit = newCredit;
+		scale = newScale;
+		this.currency = currency;
+	}
+
+	/**
+	 * Get the scale (The number of decimal places) of the minor units used by
+	 * the transaction.
+	 * 
+	 * @return The scale of the transaction amounts.
+	 */
+	public int getScale() {
+		return scale;
+	}
+
 	/**
 	 * Set the name of the transaction.
 	 * 
@@ -111,12 +217,32 @@ public class Transaction {
 	 */
 	public void setCredit(double credit) throws IllegalArgumentException {
 		if (credit >= 0) {
-			this.credit = credit;
+			this.credit = Money.toMinorUnits(credit, getScale());
 		} else {
 			throw new IllegalArgumentException("A negative credit is not allowed!");
 		}
 	}
 
+	/**
+	 * Get the time of the transaction. By default, this is when the transaction
+	 * was created.
+	 * 
+	 * @return The time of the transaction in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Set the time of the transaction.
+	 * 
+	 * @param timestamp The time of the transaction in milliseconds since the
+	 *                  epoch.
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
 	/**
 	 * @hidden
 	 * @param transactionName Transaction name.
@@ -0,0 +1,350 @@
+package makingtransactions.bankaccounts;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A class for finding bank accounts by their institution, transit and account
+ * numbers. The three numbers are packed into one <code>long</code> key that is
+ * stored in an open-addressing hash table, so a lookup does not create any
+ * objects. Every <code>long</code> is the key of some account, so empty and
+ * removed slots are marked by what the slot holds instead of by its key.
+ * 
+ * Lookups never lock and can run at the same time as changes. The registry
+ * stays correct when the numbers of a registered account are changed with its
+ * setters.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class AccountRegistry {
+	/**
+	 * The biggest institution number that can be registered.
+	 */
+	public static final int MAX_INSTITUTION_NUMBER = (1 << 12) - 1;
+
+	/**
+	 * The biggest transit number that can be registered.
+	 */
+	public static final int MAX_TRANSIT_NUMBER = (1 << 20) - 1;
+
+	// Held by a slot whose account was removed, so lookups keep probing past it.
+	// A slot that was never used holds null.
+	private static final Object REMOVED = new Object();
+
+	private volatile Table table = new Table(16);
+	private int size, used;
+
+	/**
+	 * Pack the numbers of a bank account into one key. The account number is
+	 * treated as an unsigned number.
+	 * 
+	 * @param institutionNumber The institution number.
+	 * @param transitNumber     The transit number.
+	 * @param accountNumber     The account number.
+	 * @return The key of the account.
+	 * @throws IllegalArgumentException If the institution or transit number is
+	 *                                  out of range.
+	 */
+	public static long key(int institutionNumber, int transitNumber, int accountNumber)
+			throws IllegalArgumentException {
+		if (institutionNumber < 0 || institutionNumber > MAX_INSTITUTION_NUMBER) {
+			throw new IllegalArgumentException(
+					String.format("Institution number %d is not between 0 and %d!", institutionNumber,
+							MAX_INSTITUTION_NUMBER));
+		} else if (transitNumber < 0 || transitNumber > MAX_TRANSIT_NUMBER) {
+			throw new IllegalArgumentException(
+					String.format("Transit number %d is not between 0 and %d!", transitNumber, MAX_TRANSIT_NUMBER));
+		}
+
+		return (long) institutionNumber << 52 | (long) transitNumber << 32 | accountNumber & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Get the key of a bank account.
+	 * 
+	 * @param bankAccount The bank account.
+	 * @return The key of the account.
+	 * @throws IllegalArgumentException If the institution or transit number is
+	 *                                  out of range.
+	 */
+	public static long key(BankAccount bankAccount) throws IllegalArgumentException {
+		return key(bankAccount.getInstitutionNumber(), bankAccount.getTransitNumber(),
+				bankAccount.getAccountNumber());
+	}
+
+	/**
+	 * Find a bank account by its numbers.
+	 * 
+	 * @param institutionNumber The institution number.
+	 * @param transitNumber     The transit number.
+	 * @param accountNumber     The account number.
+	 * @return The bank account, or <code>null</code> if none is registered with
+	 *         those numbers.
+	 */
+	public BankAccount get(int institutionNumber, int transitNumber, int accountNumber) {
+		if (institutionNumber < 0 || institutionNumber > MAX_INSTITUTION_NUMBER || transitNumber < 0
+				|| transitNumber > MAX_TRANSIT_NUMBER) {
+			return null;
+		}
+
+		return get(key(institutionNumber, transitNumber, accountNumber));
+	}
+
+	/**
+	 * Find a bank account by its key.
+	 * 
+	 * @param key The key of the account.
+	 * @return The bank account, or <code>null</code> if none is registered with
+	 *         that key.
+	 */
+	public BankAccount get(long key) {
+		Table currentTable = table;
+		int mask = currentTable.keys.length() - 1;
+
+		for (int i = hash(key) & mask;; i = i + 1 & mask) {
+			Object slot = currentTable.accounts.get(i);
+
+			if (slot == null) {
+				return null;
+			} else if (slot != REMOVED && currentTable.keys.get(i) == key) {
+				// The slot may have been reused for another key while it was read.
+				return currentTable.accounts.get(i) == slot ? (BankAccount) slot : null;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of registered bank accounts.
+	 * 
+	 * @return The number of bank accounts.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Add a bank account to the registry.
+	 * 
+	 * @param bankAccount The bank account to be added.
+	 * @throws IllegalArgumentException If another account is registered with the
+	 *                                  same numbers, or the numbers are out of
+	 *                                  range.
+	 * @throws IllegalStateException    If the account is already in a registry.
+	 */
+	public synchronized void register(BankAccount bankAccount)
+			throws IllegalArgumentException, IllegalStateException {
+		if (bankAccount.registry != null) {
+			throw new IllegalStateException(String.format("%s is already in a registry!", bankAccount));
+		}
+
+		insert(key(bankAccount), bankAccount);
+		bankAccount.registry = this;
+	}
+
+	/**
+	 * Remove a bank account from the registry.
+	 * 
+	 * @param bankAccount The bank account to be removed.
+	 * @return <code>true</code> if the account was in this registry.
+	 */
+	public synchronized boolean unregister(BankAccount bankAccount) {
+		if (bankAccount.registry != this) {
+			return false;
+		}
+
+		delete(key(bankAccount));
+		bankAccount.registry = null;
+		return true;
+	}
+
+	/**
+	 * Get the bank accounts of an institution, ordered by their keys. This reads
+	 * the whole table.
+	 * 
+	 * @param institutionNumber The institution number.
+	 * @return An <code>ArrayList</code> of bank accounts.
+	 */
+	public ArrayList<BankAccount> getAccounts(int institutionNumber) {
+		return collect((long) institutionNumber << 52, 0xFFFL << 52);
+	}
+
+	/**
+	 * Get the bank accounts of a transit branch, ordered by their keys. This
+	 * reads the whole table.
+	 * 
+	 * @param institutionNumber The institution number.
+	 * @param transitNumber     The transit number.
+	 * @return An <code>ArrayList</code> of bank accounts.
+	 */
+	public ArrayList<BankAccount> getAccounts(int institutionNumber, int transitNumber) {
+		return collect((long) institutionNumber << 52 | (long) transitNumber << 32, 0xFFFFFFFFL << 32);
+	}
+
+	/**
+	 * Move a registered bank account to new numbers before its setter changes
+	 * them.
+	 * 
+	 * @hidden
+	 * @param bankAccount       The bank account being changed.
+	 * @param institutionNumber The new institution number.
+	 * @param transitNumber     The new transit number.
+	 * @param accountNumber     The new account number.
+	 * @throws IllegalArgumentException If another account is registered with the
+	 *                                  new numbers, or they are out of range.
+	 */
+	synchronized void move(BankAccount bankAccount, int institutionNumber, int transitNumber, int accountNumber)
+			throws IllegalArgumentException {
+		long oldKey = key(bankAccount), newKey = key(institutionNumber, transitNumber, accountNumber);
+
+		if (oldKey != newKey) {
+			insert(newKey, bankAccount);
+			delete(oldKey);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param key         The key of the account.
+	 * @param bankAccount The account to be stored.
+	 */
+	private void insert(long key, BankAccount bankAccount) {
+		if ((used + 1) * 4L > table.keys.length() * 3L) {
+			resize();
+		}
+
+		Table currentTable = table;
+		int mask = currentTable.keys.length() - 1, free = -1;
+
+		for (int i = hash(key) & mask;; i = i + 1 & mask) {
+			Object slot = currentTable.accounts.get(i);
+
+			if (slot == null) {
+				if (free < 0) {
+					free = i;
+					used++;
+				}
+
+				break;
+			} else if (slot == REMOVED) {
+				if (free < 0) {
+					free = i;
+				}
+			} else if (currentTable.keys.get(i) == key) {
+				throw new IllegalArgumentException(
+						String.format("%s has the same numbers as %s!", bankAccount, slot));
+			}
+		}
+
+		// The key is written before the account so that lookups that see the
+		// account also see its key.
+		currentTable.keys.set(free, key);
+		currentTable.accounts.set(free, bankAccount);
+		size++;
+	}
+
+	/**
+	 * @hidden
+	 * @param key The key of the account to be removed.
+	 */
+	private void delete(long key) {
+		Table currentTable = table;
+		int mask = currentTable.keys.length() - 1;
+
+		for (int i = hash(key) & mask;; i = i + 1 & mask) {
+			Object slot = currentTable.accounts.get(i);
+
+			if (slot == null) {
+				return;
+			} else if (slot != REMOVED && currentTable.keys.get(i) == key) {
+				currentTable.accounts.set(i, REMOVED);
+				size--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private void resize() {
+		Table oldTable = table;
+		int capacity = oldTable.keys.length();
+
+		if (size * 2L > capacity) {
+			capacity *= 2;
+		}
+
+		Table newTable = new Table(capacity);
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldTable.keys.length(); i++) {
+			Object slot = oldTable.accounts.get(i);
+
+			if (slot instanceof BankAccount) {
+				long key = oldTable.keys.get(i);
+				int j = hash(key) & mask;
+
+				while (newTable.accounts.get(j) != null) {
+					j = j + 1 & mask;
+				}
+
+				newTable.keys.set(j, key);
+				newTable.accounts.set(j, slot);
+			}
+		}
+
+		used = size;
+		table = newTable;
+	}
+
+	/**
+	 * @hidden
+	 * @param prefix The key bits that must match.
+	 * @param mask   The key bits to compare.
+	 * @return The matching accounts, ordered by their keys.
+	 */
+	private ArrayList<BankAccount> collect(long prefix, long mask) {
+		Table currentTable = table;
+		ArrayList<BankAccount> bankAccounts = new ArrayList<BankAccount>();
+
+		for (int i = 0; i < currentTable.keys.length(); i++) {
+			Object slot = currentTable.accounts.get(i);
+
+			if (slot instanceof BankAccount && (currentTable.keys.get(i) & mask) == prefix) {
+				bankAccounts.add((BankAccount) slot);
+			}
+		}
+
+		// Keys of institutions from 2048 up are negative, so they are compared as
+		// unsigned numbers.
+		bankAccounts.sort((first, second) -> Long.compareUnsigned(key(first), key(second)));
+		return bankAccounts;
+	}
+
+	/**
+	 * @hidden
+	 * @param key A packed key.
+	 * @return A well-mixed hash of the key.
+	 */
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ key >>> 32);
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Table {
+		private final AtomicLongArray keys;
+
+		// Each slot holds a BankAccount, REMOVED or null.
+		private final AtomicReferenceArray<Object> accounts;
+
+		private Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			accounts = new AtomicReferenceArray<Object>(capacity);
+		}
+	}
+}
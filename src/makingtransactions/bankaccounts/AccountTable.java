@@ -0,0 +1,196 @@
+package makingtransactions.bankaccounts;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A table outside of the Java heap that holds the balances and account numbers
+ * of many bank accounts. A bank account created with a table only keeps the
+ * number of its row, so a large population of accounts does not fill the heap
+ * with the objects that hold their balances, and the garbage collector never
+ * has to scan them.
+ * 
+ * Balances in the table are written and read in the same way as balances on
+ * the heap. Rows are handed out in order and are not reused, so
+ * a table lives as long as the accounts in it; its memory is released when the
+ * table and all of its accounts are no longer used.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class AccountTable {
+	private static final int ROW_SIZE = 32, BALANCE = 0, OPENING_BALANCE = 8, TRANSIT_NUMBER = 16,
+			INSTITUTION_NUMBER = 20, ACCOUNT_NUMBER = 24;
+	private static final int BLOCK_BITS = 16, BLOCK_ROWS = 1 << BLOCK_BITS;
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.nativeOrder());
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private final Object lock = new Object();
+	private volatile ByteBuffer[] blocks = new ByteBuffer[0];
+	private int rows;
+
+	/**
+	 * Get the number of rows that have been handed out.
+	 * 
+	 * @return The number of bank accounts created with the table.
+	 */
+	public int size() {
+		synchronized (lock) {
+			return rows;
+		}
+	}
+
+	/**
+	 * Get the number of bytes of memory outside of the heap used by the table.
+	 * 
+	 * @return The size of the table in bytes.
+	 */
+	public long getMemoryUsed() {
+		return (long) blocks.length * BLOCK_ROWS * ROW_SIZE;
+	}
+
+	/**
+	 * Hand out the next row, adding a block of rows when needed. Every field in
+	 * a new row is 0.
+	 * 
+	 * @hidden
+	 * @return The number of the new row.
+	 * @throws IllegalStateException If every row has been handed out.
+	 */
+	int allocate() throws IllegalStateException {
+		synchronized (lock) {
+			if (rows == Integer.MAX_VALUE) {
+				throw new IllegalStateException("The account table is full!");
+			}
+
+			if (rows >>> BLOCK_BITS == blocks.length) {
+				ByteBuffer[] newBlocks = Arrays.copyOf(blocks, blocks.length + 1);
+				newBlocks[blocks.length] = ByteBuffer.allocateDirect(BLOCK_ROWS * ROW_SIZE);
+				blocks = newBlocks;
+			}
+
+			return rows++;
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The balance word of the account.
+	 */
+	long getBalance(int row) {
+		return (long) LONGS.getVolatile(block(row), offset(row) + BALANCE);
+	}
+
+	/**
+	 * @hidden
+	 * @param row  The row of a bank account.
+	 * @param word The new balance word.
+	 */
+	void setBalance(int row, long word) {
+		LONGS.setVolatile(block(row), offset(row) + BALANCE, word);
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The opening balance of the account in minor units.
+	 */
+	long getOpeningBalance(int row) {
+		return (long) LONGS.getVolatile(block(row), offset(row) + OPENING_BALANCE);
+	}
+
+	/**
+	 * @hidden
+	 * @param row            The row of a bank account.
+	 * @param openingBalance The opening balance of the account in minor units.
+	 */
+	void setOpeningBalance(int row, long openingBalance) {
+		LONGS.setVolatile(block(row), offset(row) + OPENING_BALANCE, openingBalance);
+	}
+
+	/**
+	 * @hidden
+	 * @param row    The row of a bank account.
+	 * @param amount The amount to add to the opening balance in minor units.
+	 */
+	void addOpeningBalance(int row, long amount) {
+		LONGS.getAndAdd(block(row), offset(row) + OPENING_BALANCE, amount);
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The transit number of the account.
+	 */
+	int getTransitNumber(int row) {
+		return (int) INTS.getVolatile(block(row), offset(row) + TRANSIT_NUMBER);
+	}
+
+	/**
+	 * @hidden
+	 * @param row           The row of a bank account.
+	 * @param transitNumber The transit number of the account.
+	 */
+	void setTransitNumber(int row, int transitNumber) {
+		INTS.setVolatile(block(row), offset(row) + TRANSIT_NUMBER, transitNumber);
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The institution number of the account.
+	 */
+	int getInstitutionNumber(int row) {
+		return (int) INTS.getVolatile(block(row), offset(row) + INSTITUTION_NUMBER);
+	}
+
+	/**
+	 * @hidden
+	 * @param row               The row of a bank account.
+	 * @param institutionNumber The institution number of the account.
+	 */
+	void setInstitutionNumber(int row, int institutionNumber) {
+		INTS.setVolatile(block(row), offset(row) + INSTITUTION_NUMBER, institutionNumber);
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The account number of the account.
+	 */
+	int getAccountNumber(int row) {
+		return (int) INTS.getVolatile(block(row), offset(row) + ACCOUNT_NUMBER);
+	}
+
+	/**
+	 * @hidden
+	 * @param row           The row of a bank account.
+	 * @param accountNumber The account number of the account.
+	 */
+	void setAccountNumber(int row, int accountNumber) {
+		INTS.setVolatile(block(row), offset(row) + ACCOUNT_NUMBER, accountNumber);
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The block holding the row.
+	 */
+	private ByteBuffer block(int row) {
+		return blocks[row >>> BLOCK_BITS];
+	}
+
+	/**
+	 * @hidden
+	 * @param row The row of a bank account.
+	 * @return The position of the row in its block.
+	 */
+	private static int offset(int row) {
+		return (row & BLOCK_ROWS - 1) * ROW_SIZE;
+	}
+}
@@ -1,9 +1,22 @@
 package makingtransactions.bankaccounts;
 
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import makingtransactions.Money;
 import makingtransactions.NegativeBalanceException;
 import makingtransactions.Transaction;
+import makingtransactions.exchange.CurrencyConverter;
+import makingtransactions.ledgers.BalanceIndex;
+import makingtransactions.ledgers.ColumnarLedger;
+import makingtransactions.ledgers.Ledger;
+import makingtransactions.ledgers.LedgerView;
+import metrics.Metrics;
 
 /**
  * An abstract bank account class for creating different kinds of bank accounts.
@@ -12,12 +25,63 @@ import makingtransactions.Transaction;
  * @version 1.0.0
  */
 public abstract class BankAccount {
-	private double balance;
+	/**
+	 * The status returned by <code>tryAddTransaction</code> when the transaction
+	 * was added.
+	 */
+	public static final int POSTED = 0;
+
+	/**
+	 * The status returned by <code>tryAddTransaction</code> when the credit on
+	 * the transaction is bigger than the account balance.
+	 */
+	public static final int INSUFFICIENT_FUNDS = 1;
+
+	/**
+	 * The biggest balance that a bank account can hold, in minor units.
+	 */
+	public static final long MAX_BALANCE_MINOR_UNITS = (1L << 52) - 1;
+
+	private static final int SLOT_SHIFT = 52;
+
+	// The low 52 bits hold the balance in minor units, and the high 12 bits hold
+	// the slot of its currency in the CurrencyTotals counting the account (0 when
+	// it is not counted), so a posting always knows which total it changes.
+	// Every change to the word holds the posting lock, so it is written with a
+	// plain volatile write and read without locking. Both are null when the
+	// balances are kept in an AccountTable instead.
+	private final AtomicLong balance, openingBalance;
+	private final AccountTable table;
+	private final int row;
 	private String currency, accountName;
+	private int scale = Money.DEFAULT_SCALE;
+	private volatile boolean stacklessRejections;
+	private volatile CurrencyConverter currencyConverter;
 
+	// Only used when the numbers are kept on the heap.
 	private int transitNumber, institutionNumber, accountNumber;
 
-	private ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+	// Accounts share one empty ledger until their first transaction, so an
+	// account that is never posted to does not hold a ledger of its own.
+	private static final Ledger NO_TRANSACTIONS = new ColumnarLedger();
+	private static final BalanceIndex NO_BALANCE_INDEX = new BalanceIndex(NO_TRANSACTIONS);
+	static final PostingListener[] NO_POSTING_LISTENERS = new PostingListener[0];
+	static final long[] NO_TICKETS = new long[0];
+
+	private volatile Ledger transactions = NO_TRANSACTIONS;
+	private volatile BalanceIndex balanceIndex = NO_BALANCE_INDEX;
+	private volatile PostingListener[] postingListeners = NO_POSTING_LISTENERS;
+
+	static volatile Metrics metrics = Metrics.NONE;
+
+	private static final AtomicLong nextSerialNumber = new AtomicLong();
+	final long serialNumber = nextSerialNumber.getAndIncrement();
+
+	// Held while a transaction changes the balance and takes its place in the
+	// ledger, so the ledger is always in the order that the balance changed.
+	final ReentrantLock postingLock = new ReentrantLock();
+	volatile AccountRegistry registry;
+	volatile CurrencyTotals totals;
 
 	/**
 	 * Create a bank account with a balance.
@@ -31,12 +95,8 @@ public abstract class BankAccount {
 	 */
 	public BankAccount(double balance, String accountName, String currency, int transitNumber, int institutionNumber,
 			int accountNumber) {
-		setAccountName(accountName);
+		this(null, accountName, currency, transitNumber, institutionNumber, accountNumber);
 		setBalance(balance);
-		setCurrency(currency);
-		setTransitNumber(transitNumber);
-		setInstitutionNumber(institutionNumber);
-		setAccountNumber(accountNumber);
 	}
 
 	/**
@@ -50,6 +110,58 @@ public abstract class BankAccount {
 	 */
 	public BankAccount(String accountName, String currency, int transitNumber, int institutionNumber,
 			int accountNumber) {
+		this(null, accountName, currency, transitNumber, institutionNumber, accountNumber);
+	}
+
+	/**
+	 * Create a bank account with a balance that is kept in an AccountTable.
+	 * When <code>table</code> is <code>null</code>, the balance is kept on the
+	 * heap.
+	 * 
+	 * @param table             The table holding the balance and numbers of the
+	 *                          account.
+	 * @param balance           The balance of the account.
+	 * @param accountName       The name of the account.
+	 * @param currency          The type of currency.
+	 * @param transitNumber     The transit number.
+	 * @param institutionNumber The institution number.
+	 * @param accountNumber     The account number.
+	 * @throws IllegalStateException If the table is full.
+	 */
+	public BankAccount(AccountTable table, double balance, String accountName, String currency, int transitNumber,
+			int institutionNumber, int accountNumber) throws IllegalStateException {
+		this(table, accountName, currency, transitNumber, institutionNumber, accountNumber);
+		setBalance(balance);
+	}
+
+	/**
+	 * Create a bank account without a balance that is kept in an AccountTable.
+	 * When <code>table</code> is <code>null</code>, the balance is kept on the
+	 * heap.
+	 * 
+	 * @param table             The table holding the balance and numbers of the
+	 *                          account.
+	 * @param accountName       The name of the account.
+	 * @param currency          The type of currency.
+	 * @param transitNumber     The transit number.
+	 * @param institutionNumber The institution number.
+	 * @param accountNumber     The account number.
+	 * @throws IllegalStateException If the table is full.
+	 */
+	public BankAccount(AccountTable table, String accountName, String currency, int transitNumber,
+			int institutionNumber, int accountNumber) throws IllegalStateException {
+		this.table = table;
+
+		if (table == null) {
+			balance = new AtomicLong();
+			openingBalance = new AtomicLong();
+			row = -1;
+		} else {
+			balance = null;
+			openingBalance = null;
+			row = table.allocate();
+		}
+
 		setAccountName(accountName);
 		setCurrency(currency);
 		setTransitNumber(transitNumber);
@@ -63,7 +175,16 @@ public abstract class BankAccount {
 	 * @return The balance of the account.
 	 */
 	public double getBalance() {
-		return balance;
+		return Money.toMajorUnits(amount(balanceWord()), scale);
+	}
+
+	/**
+	 * Get the balance of the bank account in minor units (For example, cents).
+	 * 
+	 * @return The balance of the account in minor units.
+	 */
+	public long getBalanceMinorUnits() {
+		return amount(balanceWord());
 	}
 
 	/**
@@ -72,15 +193,116 @@ public abstract class BankAccount {
 	 * @param balance The balance of the account.
 	 * @throws IllegalArgumentException If attempting to create a negative
 	 *                                  balance.
+	 * @throws ArithmeticException      If the balance is bigger than
+	 *                                  {@link #MAX_BALANCE_MINOR_UNITS}.
 	 */
-	public void setBalance(double balance) throws IllegalArgumentException {
+	public void setBalance(double balance) throws IllegalArgumentException, ArithmeticException {
 		if (balance >= 0) {
-			this.balance = balance;
+			setBalanceMinorUnits(Money.toMinorUnits(balance, scale));
 		} else {
 			throw new IllegalArgumentException("A negative balance is not allowed!");
 		}
 	}
 
+	/**
+	 * Set the balance of the bank account in minor units (For example, cents).
+	 * The change is not a transaction, so it moves the opening balance by the
+	 * same amount.
+	 * 
+	 * @param balance The balance of the account in minor units.
+	 * @throws IllegalArgumentException If attempting to create a negative
+	 *                                  balance.
+	 * @throws ArithmeticException      If the balance is bigger than
+	 *                                  {@link #MAX_BALANCE_MINOR_UNITS}.
+	 */
+	public void setBalanceMinorUnits(long balance) throws IllegalArgumentException, ArithmeticException {
+		if (balance < 0) {
+			throw new IllegalArgumentException("A negative balance is not allowed!");
+		}
+
+		checkBalance(balance);
+		postingLock.lock();
+
+		try {
+			long current = replaceAmount(balance);
+			addOpeningBalance(balance - amount(current));
+			count(current, balance - amount(current));
+		} finally {
+			postingLock.unlock();
+		}
+	}
+
+	/**
+	 * Get the opening balance of the bank account. This is the balance before
+	 * the first transaction in the ledger.
+	 * 
+	 * @return The opening balance of the account.
+	 */
+	public double getOpeningBalance() {
+		return Money.toMajorUnits(getOpeningBalanceMinorUnits(), scale);
+	}
+
+	/**
+	 * Get the opening balance of the bank account in minor units (For example,
+	 * cents).
+	 * 
+	 * @return The opening balance of the account in minor units.
+	 */
+	public long getOpeningBalanceMinorUnits() {
+		return table == null ? openingBalance.get() : table.getOpeningBalance(row);
+	}
+
+	/**
+	 * Get the balance of the bank account right after a transaction was added.
+	 * 
+	 * @param index The position of the transaction in the ledger.
+	 * @return The balance after the transaction.
+	 * @throws IndexOutOfBoundsException If there is no transaction at the
+	 *                                   position.
+	 */
+	public double getBalanceAt(int index) throws IndexOutOfBoundsException {
+		return Money.toMajorUnits(getBalanceMinorUnitsAt(index), scale);
+	}
+
+	/**
+	 * Get the balance of the bank account in minor units right after a
+	 * transaction was added. This reads at most a few dozen transactions from
+	 * the ledger.
+	 * 
+	 * @param index The position of the transaction in the ledger.
+	 * @return The balance after the transaction in minor units.
+	 * @throws IndexOutOfBoundsException If there is no transaction at the
+	 *                                   position.
+	 */
+	public long getBalanceMinorUnitsAt(int index) throws IndexOutOfBoundsException {
+		Objects.checkIndex(index, transactions.size());
+		return getOpeningBalanceMinorUnits() + balanceIndex.netBefore(index + 1);
+	}
+
+	/**
+	 * Get the balance of the bank account at a point in time.
+	 * 
+	 * @param timestamp The time in milliseconds since the epoch.
+	 * @return The balance after every transaction up to the time.
+	 */
+	public double getBalanceAsOf(long timestamp) {
+		return Money.toMajorUnits(getBalanceMinorUnitsAsOf(timestamp), scale);
+	}
+
+	/**
+	 * Get the balance of the bank account in minor units at a point in time.
+	 * The ledger is expected to be in time order; the first transaction that is
+	 * later than the time ends the search.
+	 * 
+	 * @param timestamp The time in milliseconds since the epoch.
+	 * @return The balance after every transaction up to the time, in minor
+	 *         units.
+	 */
+	public long getBalanceMinorUnitsAsOf(long timestamp) {
+		BalanceIndex currentIndex = balanceIndex;
+		return getOpeningBalanceMinorUnits() + currentIndex.netBefore(currentIndex.countUpTo(timestamp));
+	}
+
 	/**
 	 * Get the currency on the bank account.
 	 * 
@@ -91,14 +313,70 @@ public abstract class BankAccount {
 	}
 
 	/**
-	 * Set the currency on the bank account.
+	 * Set the currency on the bank account. The balance is converted to the
+	 * minor units of the new currency.
 	 * 
 	 * @param currency The type of currency.
+	 * @throws IllegalStateException If the new currency has a different number
+	 *                               of decimal places and transactions have
+	 *                               already been added.
+	 * @throws ArithmeticException   If the balance cannot be stored with the
+	 *                               decimal places of the new currency.
 	 */
-	public void setCurrency(String currency) {
+	public void setCurrency(String currency) throws IllegalStateException, ArithmeticException {
+		// The posting lock is taken first, as postings do, and keeps the balance
+		// from changing while it is converted.
+		postingLock.lock();
+
+		try {
+			convertTo(currency);
+		} finally {
+			postingLock.unlock();
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param currency The type of currency.
+	 * @throws IllegalStateException If the new currency has a different number
+	 *                               of decimal places and transactions have
+	 *                               already been added.
+	 * @throws ArithmeticException   If the balance cannot be stored with the
+	 *                               decimal places of the new currency.
+	 */
+	private synchronized void convertTo(String currency) throws IllegalStateException, ArithmeticException {
+		int newScale = Money.scale(currency);
+
+		if (newScale != scale && transactions.size() != 0) {
+			throw new IllegalStateException("The number of decimal places cannot change after transactions were added!");
+		}
+
+		// The balance leaves the total of the old currency in the same step that
+		// postings see the new one.
+		long current = balanceWord(), amount = Money.rescale(amount(current), scale, newScale);
+		int newSlot = slot(current) == 0 ? 0 : totals.slot(currency);
+		setBalanceWord(word(newSlot, amount));
+
+		if (newSlot != 0) {
+			totals.add(slot(current), -amount(current));
+			totals.add(newSlot, amount);
+		}
+
+		setOpeningBalanceMinorUnits(Money.rescale(getOpeningBalanceMinorUnits(), scale, newScale));
+		scale = newScale;
 		this.currency = currency;
 	}
 
+	/**
+	 * Get the scale (The number of decimal places) of the currency on the bank
+	 * account.
+	 * 
+	 * @return The scale of the currency.
+	 */
+	public int getScale() {
+		return scale;
+	}
+
 	/**
 	 * Get the name of the bank account.
 	 * 
@@ -118,31 +396,766 @@ public abstract class BankAccount {
 	}
 
 	/**
-	 * Get an ArrayList of transactions.
+	 * Get a read-only list of transactions. The list is not copied, so it also
+	 * shows transactions that are added later.
+	 * 
+	 * @return A list of Transaction instances/objects. Each Transaction is
+	 *         created from the ledger when it is read.
+	 */
+	public LedgerView getTransactions() {
+		return new LedgerView(transactions, currency);
+	}
+
+	/**
+	 * Replace the empty ledger of the bank account with one that already holds
+	 * its transactions, such as when the account is loaded from a file. The
+	 * balance is not changed.
+	 * 
+	 * @param ledger         The ledger holding the transactions of the account,
+	 *                       in the minor units of the account currency.
+	 * @param openingBalance The balance before the first transaction in the
+	 *                       ledger, in minor units.
+	 * @throws IllegalStateException If transactions were already added to the
+	 *                               account.
+	 */
+	public synchronized void restoreLedger(Ledger ledger, long openingBalance) throws IllegalStateException {
+		if (transactions.size() != 0) {
+			throw new IllegalStateException("Only a bank account without transactions can have its ledger restored!");
+		}
+
+		balanceIndex = new BalanceIndex(ledger);
+		transactions = ledger;
+		setOpeningBalanceMinorUnits(openingBalance);
+	}
+
+	/**
+	 * Add a transaction to the bank account. This is safe to call from multiple
+	 * threads at once: the balance is checked and updated in one atomic step,
+	 * and the transaction is added to the ledger in the same step, so the
+	 * ledger is always in the order that the balance changed.
 	 * 
-	 * @return An ArrayList of Transaction instances/objects.
+	 * @param transaction The transaction to be added.
+	 * @throws NegativeBalanceException If the credit on the transaction is bigger
+	 *                                  than the account balance.
+	 * @throws ArithmeticException      If the amounts cannot be stored with the
+	 *                                  decimal places of the account currency.
+	 * @throws IllegalArgumentException If the transaction is in another currency
+	 *                                  that cannot be converted.
 	 */
-	public ArrayList<Transaction> getTransactions() {
-		return transactions;
+	public void addTransaction(Transaction transaction)
+			throws NegativeBalanceException, ArithmeticException, IllegalArgumentException {
+		long credit = toAccountCurrency(transaction.getCreditMinorUnits(), transaction);
+		long debit = toAccountCurrency(transaction.getDebitMinorUnits(), transaction);
+
+		post(transaction.getTransactionName(), transaction.getTransactionId(), debit, credit,
+				transaction.getTimestamp(), transaction);
 	}
 
 	/**
-	 * Add a transaction to the bank account.
+	 * Add a transaction to the bank account and get the balance that it left.
+	 * Unlike calling getBalance afterwards, the balance does not include
+	 * postings made by other threads since.
 	 * 
 	 * @param transaction The transaction to be added.
+	 * @return The balance right after the transaction was added.
 	 * @throws NegativeBalanceException If the credit on the transaction is bigger
 	 *                                  than the account balance.
+	 * @throws ArithmeticException      If the amounts cannot be stored with the
+	 *                                  decimal places of the account currency.
+	 * @throws IllegalArgumentException If the transaction is in another currency
+	 *                                  that cannot be converted.
+	 */
+	public double addTransactionAndGetBalance(Transaction transaction)
+			throws NegativeBalanceException, ArithmeticException, IllegalArgumentException {
+		long credit = toAccountCurrency(transaction.getCreditMinorUnits(), transaction);
+		long debit = toAccountCurrency(transaction.getDebitMinorUnits(), transaction);
+		long balance = post(transaction.getTransactionName(), transaction.getTransactionId(), debit, credit,
+				transaction.getTimestamp(), transaction);
+
+		return Money.toMajorUnits(balance, scale);
+	}
+
+	/**
+	 * Add a transaction to the bank account without creating a Transaction
+	 * instance/object. The amounts are in the minor units of the account
+	 * currency.
+	 * 
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           How much money should be earned, in minor units.
+	 * @param credit          How much money should be spent, in minor units.
+	 * @throws NegativeBalanceException If the credit is bigger than the account
+	 *                                  balance.
+	 * @throws IllegalArgumentException If the debit or credit is a negative
+	 *                                  number.
+	 */
+	public void addTransaction(String transactionName, int transactionId, long debit, long credit)
+			throws NegativeBalanceException, IllegalArgumentException {
+		addTransaction(transactionName, transactionId, debit, credit, System.currentTimeMillis());
+	}
+
+	/**
+	 * Add a transaction that happened at a given time to the bank account
+	 * without creating a Transaction instance/object. The amounts are in the
+	 * minor units of the account currency.
+	 * 
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           How much money should be earned, in minor units.
+	 * @param credit          How much money should be spent, in minor units.
+	 * @param timestamp       The time of the transaction in milliseconds since
+	 *                        the epoch.
+	 * @throws NegativeBalanceException If the credit is bigger than the account
+	 *                                  balance.
+	 * @throws IllegalArgumentException If the debit or credit is a negative
+	 *                                  number.
+	 */
+	public void addTransaction(String transactionName, int transactionId, long debit, long credit, long timestamp)
+			throws NegativeBalanceException, IllegalArgumentException {
+		if (debit < 0 || credit < 0) {
+			throw new IllegalArgumentException("A negative debit or credit is not allowed!");
+		}
+
+		post(transactionName, transactionId, debit, credit, timestamp, null);
+	}
+
+	/**
+	 * Try to add a transaction to the bank account without throwing an
+	 * exception when the balance is too low.
+	 * 
+	 * @param transaction The transaction to be added.
+	 * @return {@link #POSTED} if the transaction was added, or
+	 *         {@link #INSUFFICIENT_FUNDS} if its credit is bigger than the
+	 *         account balance.
+	 * @throws ArithmeticException      If the amounts cannot be stored with the
+	 *                                  decimal places of the account currency.
+	 * @throws IllegalArgumentException If the transaction is in another currency
+	 *                                  that cannot be converted.
+	 */
+	public int tryAddTransaction(Transaction transaction) throws ArithmeticException, IllegalArgumentException {
+		long credit = toAccountCurrency(transaction.getCreditMinorUnits(), transaction);
+		long debit = toAccountCurrency(transaction.getDebitMinorUnits(), transaction);
+
+		return tryPost(transaction.getTransactionName(), transaction.getTransactionId(), debit, credit,
+				transaction.getTimestamp()) < 0 ? POSTED : INSUFFICIENT_FUNDS;
+	}
+
+	/**
+	 * Try to add a transaction to the bank account without creating a
+	 * Transaction instance/object or throwing an exception when the balance is
+	 * too low. The amounts are in the minor units of the account currency.
+	 * 
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           How much money should be earned, in minor units.
+	 * @param credit          How much money should be spent, in minor units.
+	 * @return {@link #POSTED} if the transaction was added, or
+	 *         {@link #INSUFFICIENT_FUNDS} if the credit is bigger than the
+	 *         account balance.
+	 * @throws IllegalArgumentException If the debit or credit is a negative
+	 *                                  number.
+	 */
+	public int tryAddTransaction(String transactionName, int transactionId, long debit, long credit)
+			throws IllegalArgumentException {
+		return tryAddTransaction(transactionName, transactionId, debit, credit, System.currentTimeMillis());
+	}
+
+	/**
+	 * Try to add a transaction that happened at a given time to the bank account
+	 * without creating a Transaction instance/object or throwing an exception
+	 * when the balance is too low. The amounts are in the minor units of the
+	 * account currency.
+	 * 
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           How much money should be earned, in minor units.
+	 * @param credit          How much money should be spent, in minor units.
+	 * @param timestamp       The time of the transaction in milliseconds since
+	 *                        the epoch.
+	 * @return {@link #POSTED} if the transaction was added, or
+	 *         {@link #INSUFFICIENT_FUNDS} if the credit is bigger than the
+	 *         account balance.
+	 * @throws IllegalArgumentException If the debit or credit is a negative
+	 *                                  number.
+	 */
+	public int tryAddTransaction(String transactionName, int transactionId, long debit, long credit, long timestamp)
+			throws IllegalArgumentException {
+		if (debit < 0 || credit < 0) {
+			throw new IllegalArgumentException("A negative debit or credit is not allowed!");
+		}
+
+		return tryPost(transactionName, transactionId, debit, credit, timestamp) < 0 ? POSTED : INSUFFICIENT_FUNDS;
+	}
+
+	/**
+	 * Get the converter used for transactions in other currencies.
+	 * 
+	 * @return The currency converter, or <code>null</code> if there is none.
+	 */
+	public CurrencyConverter getCurrencyConverter() {
+		return currencyConverter;
+	}
+
+	/**
+	 * Set the converter used for transactions in other currencies. Without one,
+	 * only transactions in the account currency or without a currency can be
+	 * added.
+	 * 
+	 * @param currencyConverter The currency converter, or <code>null</code>.
+	 */
+	public void setCurrencyConverter(CurrencyConverter currencyConverter) {
+		this.currencyConverter = currencyConverter;
+	}
+
+	/**
+	 * Check to see if rejected transactions throw a NegativeBalanceException
+	 * without a stack trace.
+	 * 
+	 * @return <code>true</code> if rejections skip the stack trace.
+	 */
+	public boolean hasStacklessRejections() {
+		return stacklessRejections;
+	}
+
+	/**
+	 * Choose whether rejected transactions throw a NegativeBalanceException
+	 * without a stack trace. This makes declines much cheaper on accounts where
+	 * they are routine.
+	 * 
+	 * @param stacklessRejections <code>true</code> to skip the stack trace.
+	 */
+	public void setStacklessRejections(boolean stacklessRejections) {
+		this.stacklessRejections = stacklessRejections;
+	}
+
+	/**
+	 * @hidden
+	 * @param amount      An amount of the transaction in its minor units.
+	 * @param transaction The transaction being added.
+	 * @return The amount in minor units of the account currency.
+	 * @throws ArithmeticException      If the amount cannot be stored with the
+	 *                                  decimal places of the account currency.
+	 * @throws IllegalArgumentException If the transaction is in another currency
+	 *                                  that cannot be converted.
+	 */
+	private long toAccountCurrency(long amount, Transaction transaction)
+			throws ArithmeticException, IllegalArgumentException {
+		String transactionCurrency = transaction.getCurrency();
+
+		if (transactionCurrency == null || transactionCurrency.equals(currency)) {
+			return Money.rescale(amount, transaction.getScale(), scale);
+		}
+
+		CurrencyConverter currentConverter = currencyConverter;
+
+		if (currentConverter == null) {
+			throw new IllegalArgumentException(String.format("%s is in %s, but %s has no currency converter!",
+					transaction, transactionCurrency, this));
+		}
+
+		return currentConverter.convert(amount, transactionCurrency, currency);
+	}
+
+	/**
+	 * @hidden
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit in minor units.
+	 * @param credit          The credit in minor units.
+	 * @param timestamp       The time of the transaction.
+	 * @param transaction     The transaction being added, if there is one.
+	 * @return The balance in minor units right after the transaction was added.
+	 * @throws NegativeBalanceException If the credit is bigger than the account
+	 *                                  balance.
 	 */
-	public void addTransaction(Transaction transaction) throws NegativeBalanceException {
-		double credit = transaction.getCredit();
+	private long post(String transactionName, int transactionId, long debit, long credit, long timestamp,
+			Transaction transaction) throws NegativeBalanceException {
+		long result = tryPost(transactionName, transactionId, debit, credit, timestamp);
+
+		if (result >= 0) {
+			throw new NegativeBalanceException(credit, result, scale, transaction, !stacklessRejections);
+		}
+
+		return ~result;
+	}
+
+	/**
+	 * @hidden
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit in minor units.
+	 * @param credit          The credit in minor units.
+	 * @param timestamp       The time of the transaction.
+	 * @return The complement of the new balance if the transaction was added,
+	 *         which is always negative, or the balance that was too low for its
+	 *         credit.
+	 */
+	private long tryPost(String transactionName, int transactionId, long debit, long credit, long timestamp) {
+		Metrics currentMetrics = metrics;
+		long start = currentMetrics == Metrics.NONE ? 0 : startTiming(currentMetrics);
+		PostingListener[] currentListeners;
+		long[] tickets;
+		long current, updated;
+		postingLock.lock();
+
+		try {
+			current = balanceWord();
+
+			if (credit > amount(current)) {
+				if (currentMetrics != Metrics.NONE) {
+					currentMetrics.rejected(currency, credit, amount(current));
+				}
+
+				return amount(current);
+			}
+
+			updated = Math.addExact(amount(current) - credit, debit);
+			checkBalance(updated);
+			Ledger currentLedger = ledger();
+			currentLedger.reserve(1);
 
-		if (credit > balance) {
-			throw new NegativeBalanceException(credit, balance);
+			// The listeners are told before the balance changes, so a listener that
+			// throws leaves the account as it was.
+			currentListeners = postingListeners;
+			tickets = currentListeners.length == 0 ? NO_TICKETS : new long[currentListeners.length];
+
+			for (int i = 0; i < currentListeners.length; i++) {
+				tickets[i] = currentListeners[i].posted(this, transactionName, transactionId, debit, credit, timestamp);
+			}
+
+			// The ledger is appended to first, so a ledger that fails leaves the
+			// balance as it was.
+			currentLedger.append(transactionName, transactionId, debit, credit, timestamp);
+			current = replaceAmount(updated);
+			count(current, debit - credit);
+		} finally {
+			postingLock.unlock();
+		}
+
+		awaitPosted(currentListeners, tickets);
+
+		if (currentMetrics != Metrics.NONE) {
+			measure(currentMetrics, 1, start);
+		}
+
+		return ~updated;
+	}
+
+	/**
+	 * Add several transactions to the bank account at once. The balance is
+	 * checked for the whole batch in one pass, and either every transaction is
+	 * added or none of them are.
+	 * 
+	 * @param newTransactions The transactions to be added, in order.
+	 * @throws NegativeBalanceException If the credit on any transaction is bigger
+	 *                                  than the balance left by the transactions
+	 *                                  before it. Nothing is added.
+	 * @throws ArithmeticException      If the amounts cannot be stored with the
+	 *                                  decimal places of the account currency.
+	 * @throws IllegalArgumentException If a transaction is in another currency
+	 *                                  that cannot be converted.
+	 */
+	public void addTransactions(Collection<? extends Transaction> newTransactions)
+			throws NegativeBalanceException, ArithmeticException, IllegalArgumentException {
+		Metrics currentMetrics = metrics;
+		long start = currentMetrics == Metrics.NONE ? 0 : startTiming(currentMetrics);
+		int count = newTransactions.size(), i = 0;
+		Transaction[] batch = newTransactions.toArray(new Transaction[count]);
+		String[] names = new String[count];
+		int[] ids = new int[count];
+		long[] debits = new long[count], credits = new long[count], timestamps = new long[count];
+
+		for (Transaction transaction : batch) {
+			names[i] = transaction.getTransactionName();
+			ids[i] = transaction.getTransactionId();
+			debits[i] = toAccountCurrency(transaction.getDebitMinorUnits(), transaction);
+			credits[i] = toAccountCurrency(transaction.getCreditMinorUnits(), transaction);
+			timestamps[i] = transaction.getTimestamp();
+			i++;
+		}
+
+		PostingListener[] currentListeners;
+		long[] tickets;
+		postingLock.lock();
+
+		try {
+			long current = balanceWord(), updated = amount(current);
+
+			for (i = 0; i < count; i++) {
+				if (credits[i] > updated) {
+					if (currentMetrics != Metrics.NONE) {
+						currentMetrics.rejected(currency, credits[i], updated);
+					}
+
+					throw new NegativeBalanceException(credits[i], updated, scale, batch[i], !stacklessRejections);
+				}
+
+				updated = Math.addExact(updated - credits[i], debits[i]);
+				checkBalance(updated);
+			}
+
+			Ledger currentLedger = ledger();
+			currentLedger.reserve(count);
+			currentListeners = count == 0 ? NO_POSTING_LISTENERS : postingListeners;
+			tickets = currentListeners.length == 0 ? NO_TICKETS : new long[currentListeners.length];
+
+			// Each listener is told about the whole batch at once, so a journal
+			// writes it as one record that is replayed in full or not at all.
+			for (int l = 0; l < currentListeners.length; l++) {
+				tickets[l] = currentListeners[l].postedAll(this, names, ids, debits, credits, timestamps);
+			}
+
+			currentLedger.appendAll(names, ids, debits, credits, timestamps);
+			current = replaceAmount(updated);
+			count(current, updated - amount(current));
+		} finally {
+			postingLock.unlock();
+		}
+
+		awaitPosted(currentListeners, tickets);
+
+		if (currentMetrics != Metrics.NONE) {
+			measure(currentMetrics, count, start);
+		}
+	}
+
+	/**
+	 * Get the metrics that postings to every bank account are measured with.
+	 * 
+	 * @return The metrics, which are {@link Metrics#NONE} unless they were set.
+	 */
+	public static Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the metrics that postings to every bank account are measured with.
+	 * Postings skip all measurement while the metrics are {@link Metrics#NONE}.
+	 * 
+	 * @param metrics The metrics, or <code>null</code> for {@link Metrics#NONE}.
+	 */
+	public static void setMetrics(Metrics metrics) {
+		BankAccount.metrics = metrics == null ? Metrics.NONE : metrics;
+	}
+
+	/**
+	 * Add a listener that is told about every transaction added to the bank
+	 * account.
+	 * 
+	 * @param postingListener The listener to be added.
+	 */
+	public synchronized void addPostingListener(PostingListener postingListener) {
+		PostingListener[] currentListeners = postingListeners;
+		PostingListener[] newListeners = Arrays.copyOf(currentListeners, currentListeners.length + 1);
+		newListeners[currentListeners.length] = postingListener;
+		postingListeners = newListeners;
+	}
+
+	/**
+	 * Remove a listener from the bank account.
+	 * 
+	 * @param postingListener The listener to be removed.
+	 */
+	public synchronized void removePostingListener(PostingListener postingListener) {
+		PostingListener[] currentListeners = postingListeners;
+
+		for (int i = 0; i < currentListeners.length; i++) {
+			if (currentListeners[i] == postingListener) {
+				PostingListener[] newListeners = new PostingListener[currentListeners.length - 1];
+				System.arraycopy(currentListeners, 0, newListeners, 0, i);
+				System.arraycopy(currentListeners, i + 1, newListeners, i, newListeners.length - i);
+				postingListeners = newListeners;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Add an amount that was already checked to the balance. The posting lock
+	 * of the account must be held.
+	 * 
+	 * @hidden
+	 * @param amount The amount in minor units, which may be negative.
+	 */
+	void adjustBalance(long amount) {
+		long current = replaceAmount(amount(balanceWord()) + amount);
+		count(current, amount);
+	}
+
+	/**
+	 * Get the list of listeners that are told about transactions added to the
+	 * bank account.
+	 * 
+	 * @hidden
+	 * @return The listeners, which must not be changed.
+	 */
+	PostingListener[] postingListeners() {
+		return postingListeners;
+	}
+
+	/**
+	 * Tell listeners that the posting locks were released.
+	 * 
+	 * @hidden
+	 * @param currentListeners The listeners that were told about a posting.
+	 * @param tickets          The ticket each listener returned.
+	 */
+	static void awaitPosted(PostingListener[] currentListeners, long[] tickets) {
+		for (int i = 0; i < currentListeners.length; i++) {
+			currentListeners[i].awaitPosted(tickets[i]);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param amount A balance in minor units.
+	 * @throws ArithmeticException If the balance is too big.
+	 */
+	static void checkBalance(long amount) throws ArithmeticException {
+		if (amount > MAX_BALANCE_MINOR_UNITS) {
+			throw new ArithmeticException(String.format("A balance of %d minor units is too big!", amount));
+		}
+	}
+
+	/**
+	 * Replace the amount in the balance word and keep its slot. The posting
+	 * lock of the account must be held.
+	 * 
+	 * @hidden
+	 * @param amount The new balance in minor units.
+	 * @return The balance word that was replaced.
+	 */
+	private long replaceAmount(long amount) {
+		long current = balanceWord();
+		setBalanceWord(word(slot(current), amount));
+		return current;
+	}
+
+	/**
+	 * Start counting the balance of the bank account in a CurrencyTotals. The
+	 * posting lock of the account must be held.
+	 * 
+	 * @hidden
+	 * @param slot The slot of the account currency.
+	 */
+	void startCounting(int slot) {
+		long current = balanceWord();
+		setBalanceWord(word(slot, amount(current)));
+		totals.add(slot, amount(current));
+	}
+
+	/**
+	 * Stop counting the balance of the bank account in its CurrencyTotals. The
+	 * posting lock of the account must be held.
+	 * 
+	 * @hidden
+	 * @return <code>true</code> if the balance was being counted.
+	 */
+	boolean stopCounting() {
+		long current = balanceWord();
+
+		if (slot(current) == 0) {
+			return false;
+		}
+
+		setBalanceWord(word(0, amount(current)));
+		totals.add(slot(current), -amount(current));
+		return true;
+	}
+
+	/**
+	 * Check to see if the balance of the bank account is counted in its
+	 * CurrencyTotals.
+	 * 
+	 * @hidden
+	 * @return <code>true</code> if the balance is being counted.
+	 */
+	boolean isCounted() {
+		return slot(balanceWord()) != 0;
+	}
+
+	/**
+	 * @hidden
+	 * @return The balance word of the account.
+	 */
+	private long balanceWord() {
+		return table == null ? balance.get() : table.getBalance(row);
+	}
+
+	/**
+	 * @hidden
+	 * @param word The new balance word.
+	 */
+	private void setBalanceWord(long word) {
+		if (table == null) {
+			balance.set(word);
+		} else {
+			table.setBalance(row, word);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param openingBalance The opening balance in minor units.
+	 */
+	private void setOpeningBalanceMinorUnits(long openingBalance) {
+		if (table == null) {
+			this.openingBalance.set(openingBalance);
+		} else {
+			table.setOpeningBalance(row, openingBalance);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param amount The amount to add to the opening balance in minor units.
+	 */
+	private void addOpeningBalance(long amount) {
+		if (table == null) {
+			openingBalance.addAndGet(amount);
 		} else {
-			transactions.add(transaction);
-			balance += transaction.getDebit();
-			balance -= credit;
+			table.addOpeningBalance(row, amount);
+		}
+	}
+
+	/**
+	 * Add a change of the balance to the total of the currency that the balance
+	 * had when it was changed.
+	 * 
+	 * @hidden
+	 * @param word   The balance word that the change was applied to.
+	 * @param amount The change in minor units.
+	 */
+	private void count(long word, long amount) {
+		int slot = slot(word);
+
+		if (slot != 0 && amount != 0) {
+			totals.add(slot, amount);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param word A balance word.
+	 * @return The balance in minor units.
+	 */
+	private static long amount(long word) {
+		return word & MAX_BALANCE_MINOR_UNITS;
+	}
+
+	/**
+	 * @hidden
+	 * @param word A balance word.
+	 * @return The slot of the currency total, or 0.
+	 */
+	private static int slot(long word) {
+		return (int) (word >>> SLOT_SHIFT);
+	}
+
+	/**
+	 * @hidden
+	 * @param slot   The slot of the currency total, or 0.
+	 * @param amount The balance in minor units.
+	 * @return The balance word.
+	 * @throws ArithmeticException If the balance is too big.
+	 */
+	private static long word(int slot, long amount) throws ArithmeticException {
+		checkBalance(amount);
+		return (long) slot << SLOT_SHIFT | amount;
+	}
+
+	/**
+	 * @hidden
+	 * @param currentMetrics The metrics of the posting.
+	 * @return The start time of the posting in nanoseconds, or 0 if it is not
+	 *         sampled.
+	 */
+	static long startTiming(Metrics currentMetrics) {
+		return (ThreadLocalRandom.current().nextInt() & currentMetrics.getSampleInterval() - 1) == 0
+				? System.nanoTime() | 1
+				: 0;
+	}
+
+	/**
+	 * @hidden
+	 * @param currentMetrics The metrics of the posting.
+	 * @param count          The number of transactions that were added.
+	 * @param start          The start time of the posting, or 0 if it is not
+	 *                       sampled.
+	 */
+	void measure(Metrics currentMetrics, int count, long start) {
+		currentMetrics.posted(currency, count);
+
+		// The ledger size is only reported with the sampled postings.
+		if (start != 0) {
+			currentMetrics.postingLatency(currency, System.nanoTime() - start);
+			currentMetrics.ledgerSize(transactions.size());
+		}
+	}
+
+	/**
+	 * Make room in the ledger for transactions that are about to be recorded.
+	 * The posting lock of the account must be held.
+	 * 
+	 * @hidden
+	 * @param count The number of transactions.
+	 * @throws UncheckedIOException If the ledger could not make room.
+	 */
+	void reserveLedger(int count) throws UncheckedIOException {
+		ledger().reserve(count);
+	}
+
+	/**
+	 * Record a transaction in the ledger before its amounts are applied to the
+	 * balance. The posting lock of the account must be held, and the listeners
+	 * must already have been told.
+	 * 
+	 * @hidden
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit in minor units.
+	 * @param credit          The credit in minor units.
+	 * @param timestamp       The time of the transaction.
+	 */
+	void record(String transactionName, int transactionId, long debit, long credit, long timestamp) {
+		ledger().append(transactionName, transactionId, debit, credit, timestamp);
+	}
+
+	/**
+	 * Get the ledger that new transactions are added to, creating it for the
+	 * first transaction.
+	 * 
+	 * @hidden
+	 * @return The ledger of the account.
+	 */
+	private Ledger ledger() {
+		Ledger currentLedger = transactions;
+
+		if (currentLedger == NO_TRANSACTIONS) {
+			synchronized (this) {
+				if (transactions == NO_TRANSACTIONS) {
+					// The index is set first, so any thread that sees the new ledger also
+					// sees its index.
+					Ledger ledger = new ColumnarLedger();
+					balanceIndex = new BalanceIndex(ledger);
+					transactions = ledger;
+				}
+
+				currentLedger = transactions;
+			}
 		}
+
+		return currentLedger;
+	}
+
+	/**
+	 * Get the table holding the balance and numbers of the bank account.
+	 * 
+	 * @return The AccountTable of the account, or <code>null</code> if they are
+	 *         kept on the heap.
+	 */
+	public AccountTable getAccountTable() {
+		return table;
 	}
 
 	/**
@@ -151,16 +1164,29 @@ public abstract class BankAccount {
 	 * @return The transit number on the account.
 	 */
 	public int getTransitNumber() {
-		return transitNumber;
+		return table == null ? transitNumber : table.getTransitNumber(row);
 	}
 
 	/**
 	 * Set the transit number on the bank account.
 	 * 
 	 * @param transitNumber The transit number on the account.
+	 * @throws IllegalArgumentException If the account is in an AccountRegistry
+	 *                                  that already has an account with the new
+	 *                                  numbers.
 	 */
-	public void setTransitNumber(int transitNumber) {
-		this.transitNumber = transitNumber;
+	public void setTransitNumber(int transitNumber) throws IllegalArgumentException {
+		AccountRegistry currentRegistry = registry;
+
+		if (currentRegistry != null) {
+			currentRegistry.move(this, getInstitutionNumber(), transitNumber, getAccountNumber());
+		}
+
+		if (table == null) {
+			this.transitNumber = transitNumber;
+		} else {
+			table.setTransitNumber(row, transitNumber);
+		}
 	}
 
 	/**
@@ -169,16 +1195,29 @@ public abstract class BankAccount {
 	 * @return The institution number on the account.
 	 */
 	public int getInstitutionNumber() {
-		return institutionNumber;
+		return table == null ? institutionNumber : table.getInstitutionNumber(row);
 	}
 
 	/**
 	 * Set the institution number on the bank account.
 	 * 
 	 * @param institutionNumber The institution number on the account.
+	 * @throws IllegalArgumentException If the account is in an AccountRegistry
+	 *                                  that already has an account with the new
+	 *                                  numbers.
 	 */
-	public void setInstitutionNumber(int institutionNumber) {
-		this.institutionNumber = institutionNumber;
+	public void setInstitutionNumber(int institutionNumber) throws IllegalArgumentException {
+		AccountRegistry currentRegistry = registry;
+
+		if (currentRegistry != null) {
+			currentRegistry.move(this, institutionNumber, getTransitNumber(), getAccountNumber());
+		}
+
+		if (table == null) {
+			this.institutionNumber = institutionNumber;
+		} else {
+			table.setInstitutionNumber(row, institutionNumber);
+		}
 	}
 
 	/**
@@ -187,16 +1226,29 @@ public abstract class BankAccount {
 	 * @return The account number for the account.
 	 */
 	public int getAccountNumber() {
-		return accountNumber;
+		return table == null ? accountNumber : table.getAccountNumber(row);
 	}
 
 	/**
 	 * Set the account number for the bank account.
 	 * 
 	 * @param accountNumber The account number.
+	 * @throws IllegalArgumentException If the account is in an AccountRegistry
+	 *                                  that already has an account with the new
+	 *                                  numbers.
 	 */
-	public void setAccountNumber(int accountNumber) {
-		this.accountNumber = accountNumber;
+	public void setAccountNumber(int accountNumber) throws IllegalArgumentException {
+		AccountRegistry currentRegistry = registry;
+
+		if (currentRegistry != null) {
+			currentRegistry.move(this, getInstitutionNumber(), getTransitNumber(), accountNumber);
+		}
+
+		if (table == null) {
+			this.accountNumber = accountNumber;
+		} else {
+			table.setAccountNumber(row, accountNumber);
+		}
 	}
 
 	@Override
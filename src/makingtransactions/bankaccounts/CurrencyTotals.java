@@ -0,0 +1,159 @@
+package makingtransactions.bankaccounts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import makingtransactions.Money;
+
+/**
+ * A class that keeps the total balance of each currency across the bank
+ * accounts that it counts. The totals are changed by every transaction, transfer
+ * and new balance, so reading one never has to walk the accounts.
+ * 
+ * Each total is a striped counter, so postings from many threads rarely touch
+ * the same memory, and changing the currency of an account moves its balance
+ * from one total to the other in the same atomic step that postings see. A
+ * bank account can only ever be counted by one CurrencyTotals.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class CurrencyTotals {
+	/**
+	 * The biggest number of different currencies that can be counted.
+	 */
+	public static final int MAX_CURRENCIES = (1 << 12) - 1;
+
+	private final Object lock = new Object();
+	private volatile Map<String, LongAdder> totals = new HashMap<String, LongAdder>();
+	private volatile LongAdder[] adders = new LongAdder[0];
+	private final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+
+	/**
+	 * Start counting the balance of a bank account. The account stays counted
+	 * until it is detached.
+	 * 
+	 * @param bankAccount The bank account to be counted.
+	 * @throws IllegalStateException If the account is counted by another
+	 *                               CurrencyTotals, or there are too many
+	 *                               currencies.
+	 */
+	public void attach(BankAccount bankAccount) throws IllegalStateException {
+		// The posting lock is taken before the monitor, as setCurrency does.
+		bankAccount.postingLock.lock();
+
+		try {
+			synchronized (bankAccount) {
+				if (bankAccount.totals != null && bankAccount.totals != this) {
+					throw new IllegalStateException(
+							String.format("%s is already counted by other totals!", bankAccount));
+				} else if (!bankAccount.isCounted()) {
+					// The account must know its totals before any posting can see a slot.
+					bankAccount.totals = this;
+					bankAccount.startCounting(slot(bankAccount.getCurrency()));
+				}
+			}
+		} finally {
+			bankAccount.postingLock.unlock();
+		}
+	}
+
+	/**
+	 * Stop counting the balance of a bank account.
+	 * 
+	 * @param bankAccount The bank account to stop counting.
+	 * @return <code>true</code> if the account was counted by these totals.
+	 */
+	public boolean detach(BankAccount bankAccount) {
+		bankAccount.postingLock.lock();
+
+		try {
+			synchronized (bankAccount) {
+				return bankAccount.totals == this && bankAccount.stopCounting();
+			}
+		} finally {
+			bankAccount.postingLock.unlock();
+		}
+	}
+
+	/**
+	 * Get the currencies that have been counted.
+	 * 
+	 * @return A read-only set of currencies.
+	 */
+	public Set<String> getCurrencies() {
+		return Collections.unmodifiableSet(totals.keySet());
+	}
+
+	/**
+	 * Get the total balance of a currency.
+	 * 
+	 * @param currency The type of currency.
+	 * @return The total balance of the counted accounts with the currency.
+	 */
+	public double getTotal(String currency) {
+		return Money.toMajorUnits(getTotalMinorUnits(currency), Money.scale(currency));
+	}
+
+	/**
+	 * Get the total balance of a currency in minor units (For example, cents).
+	 * This does not lock and does not depend on the number of accounts.
+	 * 
+	 * @param currency The type of currency.
+	 * @return The total balance of the counted accounts with the currency in
+	 *         minor units, or 0 if no counted account has had the currency.
+	 */
+	public long getTotalMinorUnits(String currency) {
+		LongAdder total = totals.get(currency);
+		return total == null ? 0 : total.sum();
+	}
+
+	/**
+	 * Get the slot of a currency, creating its total if needed.
+	 * 
+	 * @hidden
+	 * @param currency The type of currency.
+	 * @return The slot of the currency, starting at 1.
+	 * @throws IllegalStateException If there are too many currencies.
+	 */
+	int slot(String currency) throws IllegalStateException {
+		synchronized (lock) {
+			Integer slot = slots.get(currency);
+
+			if (slot != null) {
+				return slot;
+			} else if (slots.size() == MAX_CURRENCIES) {
+				throw new IllegalStateException(
+						String.format("No more than %d currencies can be counted!", MAX_CURRENCIES));
+			}
+
+			LongAdder total = new LongAdder();
+			LongAdder[] newAdders = Arrays.copyOf(adders, adders.length + 1);
+			newAdders[adders.length] = total;
+			adders = newAdders;
+
+			// The map is copied so that readers never see it while it changes.
+			HashMap<String, LongAdder> newTotals = new HashMap<String, LongAdder>(totals);
+			newTotals.put(currency, total);
+			totals = newTotals;
+
+			slots.put(currency, newAdders.length);
+			return newAdders.length;
+		}
+	}
+
+	/**
+	 * Add an amount to the total in a slot.
+	 * 
+	 * @hidden
+	 * @param slot   The slot of the currency.
+	 * @param amount The amount in minor units, which may be negative.
+	 */
+	void add(int slot, long amount) {
+		adders[slot - 1].add(amount);
+	}
+}
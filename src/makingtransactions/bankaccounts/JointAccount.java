@@ -1,18 +1,31 @@
 package makingtransactions.bankaccounts;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import events.EventChannel;
+import events.LastHolderRemovalRejected;
+import events.UserNotInJointAccount;
 import userservice.User;
 
 /**
  * A bank account class for creating a joint account containing multiple
  * holders.
  * 
+ * The holders are kept copy-on-write: adding or removing a holder publishes a
+ * new immutable snapshot, so reading and checking the holders never locks or
+ * copies, even while they are being changed. The price is that each change
+ * copies every holder, so adding holders one at a time costs time that grows
+ * with the square of their number; addUsers adds many holders with one copy.
+ * 
  * @author Synthird
  * @version 1.0.2
  */
 public class JointAccount extends BankAccount {
-	private ArrayList<User> users = new ArrayList<User>();
+	private volatile Holders holders = Holders.NONE;
 
 	/**
 	 * Create a joint account with a balance.
@@ -48,46 +61,146 @@ public class JointAccount extends BankAccount {
 	}
 
 	/**
-	 * Get an <code>ArrayList</code> of users connected to the joint account.
+	 * Create a joint account with a balance that is kept in an AccountTable.
+	 * 
+	 * @param table             The table holding the balance and numbers of the
+	 *                          account, or <code>null</code> to keep them on the
+	 *                          heap.
+	 * @param balance           The balance of the account.
+	 * @param user              The first user to hold the account.
+	 * @param accountName       The name of the account.
+	 * @param currency          The type of currency.
+	 * @param transitNumber     The transit number.
+	 * @param institutionNumber The institution number.
+	 * @param accountNumber     The account number.
+	 * @throws IllegalStateException If the table is full.
+	 */
+	public JointAccount(AccountTable table, double balance, User user, String accountName, String currency,
+			int transitNumber, int institutionNumber, int accountNumber) throws IllegalStateException {
+		super(table, balance, accountName, currency, transitNumber, institutionNumber, accountNumber);
+		addUser(user);
+	}
+
+	/**
+	 * Get an <code>ArrayList</code> of users connected to the joint account, in
+	 * the order they were added.
 	 * 
 	 * @return An <code>ArrayList</code> of users connected to the joint account.
-	 *         This is
-	 *         not the <code>users</code> field of the JointAccount
-	 *         instance/object.
+	 *         It is a copy, so changes made to it do not change the account.
 	 */
 	public ArrayList<User> getUsers() {
-		ArrayList<User> usersClone = new ArrayList<User>();
-		usersClone.addAll(users);
-		return usersClone;
+		return new ArrayList<User>(holders.users);
 	}
 
 	/**
-	 * Connect a user to the joint account.
+	 * Get the users connected to the joint account, in the order they were
+	 * added. Unlike getUsers, nothing is copied.
+	 * 
+	 * @return An immutable snapshot of the users. It is shared rather than
+	 *         copied, and does not change when users are added or removed later.
+	 */
+	public List<User> getUserList() {
+		return holders.users;
+	}
+
+	/**
+	 * Connect a user to the joint account. This copies the holders, so use
+	 * addUsers to connect many users at once.
 	 * 
 	 * @param user The user to be added to the joint account.
 	 */
 	public void addUser(User user) {
-		if (!containsUser(user)) {
-			users.add(user);
+		int size;
+
+		synchronized (this) {
+			Holders currentHolders = holders;
+
+			if (currentHolders.contains(user)) {
+				return;
+			}
+
+			ArrayList<User> newUsers = new ArrayList<User>(currentHolders.users);
+			newUsers.add(user);
+			holders = new Holders(newUsers);
+			size = newUsers.size();
+		}
+
+		metrics.jointAccountSize(size);
+
+		if (!user.hasBankAccount(this)) {
 			user.addBankAccount(this);
 		}
 	}
 
 	/**
-	 * Remove a user from the joint account.
+	 * Connect several users to the joint account at once. The holders are
+	 * copied once for all of them, and users that already hold the account are
+	 * skipped.
+	 * 
+	 * @param users The users to be added to the joint account, in order.
+	 */
+	public void addUsers(Collection<? extends User> users) {
+		ArrayList<User> added = new ArrayList<User>(users.size());
+		int size;
+
+		synchronized (this) {
+			Holders currentHolders = holders;
+			HashSet<User> userSet = new HashSet<User>(currentHolders.userSet);
+			ArrayList<User> newUsers = new ArrayList<User>(currentHolders.users.size() + users.size());
+			newUsers.addAll(currentHolders.users);
+
+			for (User user : users) {
+				if (userSet.add(user)) {
+					newUsers.add(user);
+					added.add(user);
+				}
+			}
+
+			if (added.isEmpty()) {
+				return;
+			}
+
+			holders = new Holders(newUsers);
+			size = newUsers.size();
+		}
+
+		metrics.jointAccountSize(size);
+
+		for (User user : added) {
+			if (!user.hasBankAccount(this)) {
+				user.addBankAccount(this);
+			}
+		}
+	}
+
+	/**
+	 * Remove a user from the joint account. If the user does not hold the account
+	 * or is its only holder, nothing is removed and an event is published to the
+	 * default EventChannel.
 	 * 
 	 * @param user The user to be removed from the joint account.
 	 */
 	public void removeUser(User user) {
-		if (users.size() > 1) {
-			if (containsUser(user)) {
-				users.remove(user);
-				user.getBankAccounts().remove(this);
-			} else {
-				System.out.println(String.format("%s is not part of this joint account called %s", user, this));
+		synchronized (this) {
+			Holders currentHolders = holders;
+
+			if (currentHolders.users.size() <= 1) {
+				EventChannel.getDefault().publish(new LastHolderRemovalRejected(user, this));
+				return;
 			}
-		} else {
-			System.err.println("A joint account must have at least one user!");
+
+			if (!currentHolders.contains(user)) {
+				EventChannel.getDefault().publish(new UserNotInJointAccount(user, this));
+				return;
+			}
+
+			ArrayList<User> newUsers = new ArrayList<User>(currentHolders.users);
+			newUsers.remove(user);
+			holders = new Holders(newUsers);
+		}
+
+		if (user.hasBankAccount(this)) {
+			user.removeBankAccount(this);
 		}
 	}
 
@@ -99,6 +212,27 @@ public class JointAccount extends BankAccount {
 	 *         returns <code>false</code>.
 	 */
 	public boolean containsUser(User user) {
-		return users.contains(user);
+		return holders.contains(user);
+	}
+
+	/**
+	 * An immutable snapshot of the holders, with a hash set for checking them.
+	 * 
+	 * @hidden
+	 */
+	private static final class Holders {
+		private static final Holders NONE = new Holders(List.<User>of());
+
+		private final List<User> users;
+		private final Set<User> userSet;
+
+		private Holders(List<User> users) {
+			this.users = List.copyOf(users);
+			this.userSet = Set.copyOf(this.users);
+		}
+
+		private boolean contains(User user) {
+			return user != null && userSet.contains(user);
+		}
 	}
 }
@@ -0,0 +1,86 @@
+package makingtransactions.bankaccounts;
+
+/**
+ * An interface for being told about every transaction that is added to a bank
+ * account. Amounts are in the minor units of the bank account currency.
+ * 
+ * A listener is told in two steps. <code>posted</code>,
+ * <code>postedAll</code> and <code>transferred</code> are called after the transaction was checked but
+ * before any balance changes, while the posting locks of the accounts are
+ * held, so the calls for one account come in the order that its balance
+ * changes. If one of them throws, nothing is changed, but listeners that were
+ * told before it are not told that the transaction was dropped.
+ * <code>awaitPosted</code> is then called on the same thread once the locks
+ * were released, which is where a listener can wait without holding up other
+ * postings to the accounts.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public interface PostingListener {
+	/**
+	 * Called before a transaction is added to a bank account. This should not
+	 * block for long, since the posting lock of the account is held.
+	 * 
+	 * @param bankAccount     The bank account that the transaction is added to.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit in minor units.
+	 * @param credit          The credit in minor units.
+	 * @param timestamp       The time of the transaction in milliseconds since
+	 *                        the epoch.
+	 * @return A ticket that is passed to <code>awaitPosted</code>.
+	 */
+	long posted(BankAccount bankAccount, String transactionName, int transactionId, long debit, long credit,
+			long timestamp);
+
+	/**
+	 * Called once before a batch of transactions is added to a bank account,
+	 * for every transaction in it. This should not block for long, since the
+	 * posting lock of the account is held.
+	 * 
+	 * @param bankAccount      The bank account that the transactions are added
+	 *                         to.
+	 * @param transactionNames The name of each transaction.
+	 * @param transactionIds   The ID of each transaction.
+	 * @param debits           The debit of each transaction in minor units.
+	 * @param credits          The credit of each transaction in minor units.
+	 * @param timestamps       The time of each transaction in milliseconds since
+	 *                         the epoch.
+	 * @return A ticket that is passed to <code>awaitPosted</code>.
+	 */
+	long postedAll(BankAccount bankAccount, String[] transactionNames, int[] transactionIds, long[] debits,
+			long[] credits, long[] timestamps);
+
+	/**
+	 * Called once before a Transfer is applied, for all of its legs, if the
+	 * listener was added to at least one of its accounts. This should not block
+	 * for long, since the posting locks of every account in the transfer are
+	 * held.
+	 * 
+	 * @param transactionName The name of the transactions recorded on each
+	 *                        account.
+	 * @param transactionId   The ID of the transactions recorded on each
+	 *                        account.
+	 * @param timestamp       The time of the transfer in milliseconds since the
+	 *                        epoch.
+	 * @param from            The account that each leg takes money from.
+	 * @param to              The account that each leg gives money to.
+	 * @param amounts         The amount of each leg in minor units.
+	 * @return A ticket that is passed to <code>awaitPosted</code>.
+	 */
+	long transferred(String transactionName, int transactionId, long timestamp, BankAccount[] from, BankAccount[] to,
+			long[] amounts);
+
+	/**
+	 * Called after the balances were changed and the posting locks were
+	 * released, on the thread that added the transaction. The transaction was
+	 * added whatever happens here, so this should not throw.
+	 * 
+	 * @param ticket The last ticket returned to this thread by
+	 *               <code>posted</code>, <code>postedAll</code> or
+	 *               <code>transferred</code>.
+	 */
+	default void awaitPosted(long ticket) {
+	}
+}
@@ -45,6 +45,27 @@ public class SingleAccount extends BankAccount {
 		setUserHolder(userHolder);
 	}
 
+	/**
+	 * Create a single account with a balance that is kept in an AccountTable.
+	 * 
+	 * @param table             The table holding the balance and numbers of the
+	 *                          account, or <code>null</code> to keep them on the
+	 *                          heap.
+	 * @param balance           The balance of the account.
+	 * @param userHolder        The account holder.
+	 * @param accountName       The name of the account.
+	 * @param currency          The type of currency.
+	 * @param transitNumber     The transit number.
+	 * @param institutionNumber The institution number.
+	 * @param accountNumber     The account number.
+	 * @throws IllegalStateException If the table is full.
+	 */
+	public SingleAccount(AccountTable table, double balance, User userHolder, String accountName, String currency,
+			int transitNumber, int institutionNumber, int accountNumber) throws IllegalStateException {
+		super(table, balance, accountName, currency, transitNumber, institutionNumber, accountNumber);
+		setUserHolder(userHolder);
+	}
+
 	/**
 	 * Get the holder of the bank account.
 	 * 
@@ -64,7 +85,7 @@ public class SingleAccount extends BankAccount {
 			this.userHolder.removeBankAccount(this);
 		}
 
-		if (!userHolder.getBankAccounts().contains(this)) {
+		if (!userHolder.hasBankAccount(this)) {
 			this.userHolder = userHolder;
 			userHolder.addBankAccount(this);
 		}
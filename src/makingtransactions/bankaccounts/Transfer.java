@@ -0,0 +1,338 @@
+package makingtransactions.bankaccounts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+
+import makingtransactions.Money;
+import makingtransactions.NegativeBalanceException;
+import metrics.Metrics;
+
+/**
+ * A class for moving money between bank accounts. A transfer can have several
+ * legs, and either every leg is applied or none of them are.
+ * 
+ * Accounts are always locked in the same global order, so transfers running in
+ * opposite directions at the same time cannot deadlock. An account is locked
+ * with the same lock that its postings take, so transfers are atomic with
+ * respect to each other and to transactions added directly to the accounts.
+ * 
+ * The posting listeners of the accounts are told about the whole transfer at
+ * once, so a TransactionJournal writes it as a single record.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class Transfer {
+	private static final long WHEN_EXECUTED = Long.MIN_VALUE;
+
+	private final String transactionName;
+	private final int transactionId;
+	private final long timestamp;
+	private final ArrayList<Leg> legs = new ArrayList<Leg>();
+
+	/**
+	 * Create a transfer without any legs. Its transactions have the time that
+	 * it is executed.
+	 * 
+	 * @param transactionName The name of the transactions recorded on each
+	 *                        account.
+	 * @param transactionId   The ID of the transactions recorded on each
+	 *                        account.
+	 */
+	public Transfer(String transactionName, int transactionId) {
+		this(transactionName, transactionId, WHEN_EXECUTED);
+	}
+
+	/**
+	 * Create a transfer without any legs that happened at a given time.
+	 * 
+	 * @param transactionName The name of the transactions recorded on each
+	 *                        account.
+	 * @param transactionId   The ID of the transactions recorded on each
+	 *                        account.
+	 * @param timestamp       The time of the transactions in milliseconds since
+	 *                        the epoch.
+	 */
+	public Transfer(String transactionName, int transactionId, long timestamp) {
+		this.transactionName = transactionName;
+		this.transactionId = transactionId;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Move money from one bank account to another in a single step.
+	 * 
+	 * @param from   The account that the money is taken from.
+	 * @param to     The account that the money is given to.
+	 * @param amount How much money should be moved.
+	 * @throws NegativeBalanceException If the amount is bigger than the balance
+	 *                                  of <code>from</code>.
+	 * @throws IllegalArgumentException If the leg is not valid.
+	 * @throws ArithmeticException      If the amount does not fit in minor units
+	 *                                  or would make the balance of
+	 *                                  <code>to</code> too big.
+	 */
+	public static void transfer(BankAccount from, BankAccount to, double amount)
+			throws NegativeBalanceException, IllegalArgumentException, ArithmeticException {
+		new Transfer("Transfer", 0).addLeg(from, to, amount).execute();
+	}
+
+	/**
+	 * Add a leg to the transfer.
+	 * 
+	 * @param from   The account that the money is taken from.
+	 * @param to     The account that the money is given to.
+	 * @param amount How much money should be moved.
+	 * @return This transfer, so that legs can be chained.
+	 * @throws IllegalArgumentException If the amount is less than one minor
+	 *                                  unit, both accounts are the same or the
+	 *                                  accounts have different currencies.
+	 * @throws ArithmeticException      If the amount does not fit in a
+	 *                                  <code>long</code> of minor units.
+	 */
+	public Transfer addLeg(BankAccount from, BankAccount to, double amount)
+			throws IllegalArgumentException, ArithmeticException {
+		if (!(amount > 0)) {
+			throw new IllegalArgumentException("A transfer amount must be bigger than 0!");
+		}
+
+		long minorUnits = Money.toMinorUnits(amount, from.getScale());
+
+		if (minorUnits <= 0) {
+			throw new IllegalArgumentException(
+					String.format("A transfer amount of %s is less than one minor unit!", amount));
+		}
+
+		return addLegMinorUnits(from, to, minorUnits);
+	}
+
+	/**
+	 * Add a leg to the transfer with an amount in minor units (For example,
+	 * cents).
+	 * 
+	 * @param from       The account that the money is taken from.
+	 * @param to         The account that the money is given to.
+	 * @param minorUnits How much money should be moved, in minor units.
+	 * @return This transfer, so that legs can be chained.
+	 * @throws IllegalArgumentException If the amount is 0 or below, both accounts
+	 *                                  are the same or the accounts have
+	 *                                  different currencies.
+	 */
+	public Transfer addLegMinorUnits(BankAccount from, BankAccount to, long minorUnits)
+			throws IllegalArgumentException {
+		if (from == to) {
+			throw new IllegalArgumentException("A transfer needs two different bank accounts!");
+		} else if (!Objects.equals(from.getCurrency(), to.getCurrency())) {
+			throw new IllegalArgumentException(
+					String.format("%s and %s do not have the same currency!", from, to));
+		} else if (minorUnits <= 0) {
+			throw new IllegalArgumentException("A transfer amount must be bigger than 0!");
+		}
+
+		legs.add(new Leg(from, to, minorUnits));
+		return this;
+	}
+
+	/**
+	 * Apply every leg of the transfer. An account may pass on money that it
+	 * receives in the same transfer.
+	 * 
+	 * @throws IllegalArgumentException If the accounts of a leg no longer have
+	 *                                  the same currency. No values were
+	 *                                  changed.
+	 * @throws NegativeBalanceException If a leg would make the balance of an
+	 *                                  account negative. No values were changed.
+	 * @throws ArithmeticException      If a leg would make the balance of an
+	 *                                  account bigger than
+	 *                                  {@link BankAccount#MAX_BALANCE_MINOR_UNITS}.
+	 *                                  No values were changed.
+	 */
+	public void execute() throws IllegalArgumentException, NegativeBalanceException, ArithmeticException {
+		Metrics currentMetrics = BankAccount.metrics;
+		long start = currentMetrics == Metrics.NONE ? 0 : BankAccount.startTiming(currentMetrics);
+		IdentityHashMap<BankAccount, Integer> positions = new IdentityHashMap<BankAccount, Integer>();
+		ArrayList<BankAccount> accountList = new ArrayList<BankAccount>();
+
+		for (Leg leg : legs) {
+			for (BankAccount account : new BankAccount[] { leg.from, leg.to }) {
+				if (!positions.containsKey(account)) {
+					positions.put(account, positions.size());
+					accountList.add(account);
+				}
+			}
+		}
+
+		// The serial number never changes, unlike the account number triple, so
+		// every transfer agrees on the locking order.
+		BankAccount[] accounts = accountList.toArray(new BankAccount[0]);
+		Arrays.sort(accounts, Comparator.comparingLong(account -> account.serialNumber));
+
+		long[] changes = new long[accounts.length];
+		int[] entries = new int[accounts.length];
+
+		for (int i = 0; i < accounts.length; i++) {
+			positions.put(accounts[i], i);
+		}
+
+		for (Leg leg : legs) {
+			int fromPosition = positions.get(leg.from), toPosition = positions.get(leg.to);
+			changes[fromPosition] = Math.subtractExact(changes[fromPosition], leg.amount);
+			changes[toPosition] = Math.addExact(changes[toPosition], leg.amount);
+			entries[fromPosition]++;
+			entries[toPosition]++;
+		}
+
+		long time = timestamp == WHEN_EXECUTED ? System.currentTimeMillis() : timestamp;
+		PostingListener[] listeners;
+		long[] tickets;
+		int locked = 0;
+
+		try {
+			for (BankAccount account : accounts) {
+				account.postingLock.lock();
+				locked++;
+			}
+
+			check(accounts, changes, currentMetrics);
+
+			for (int i = 0; i < accounts.length; i++) {
+				accounts[i].reserveLedger(entries[i]);
+			}
+
+			// The listeners are told before anything changes.
+			listeners = listeners(accounts);
+			tickets = listeners.length == 0 ? BankAccount.NO_TICKETS : tell(listeners, time);
+
+			// Room was made in the ledgers before the listeners were told, and the
+			// balances only change once every ledger holds its transactions.
+			for (Leg leg : legs) {
+				leg.from.record(transactionName, transactionId, 0, leg.amount, time);
+				leg.to.record(transactionName, transactionId, leg.amount, 0, time);
+			}
+
+			for (int i = 0; i < accounts.length; i++) {
+				accounts[i].adjustBalance(changes[i]);
+			}
+		} finally {
+			while (locked > 0) {
+				accounts[--locked].postingLock.unlock();
+			}
+		}
+
+		BankAccount.awaitPosted(listeners, tickets);
+
+		if (currentMetrics != Metrics.NONE) {
+			// A sampled transfer is timed once, in the currency of its first account.
+			for (int i = 0; i < accounts.length; i++) {
+				accounts[i].measure(currentMetrics, entries[i], i == 0 ? start : 0);
+			}
+		}
+	}
+
+	/**
+	 * Check that the accounts of every leg still have the same currency and that
+	 * every account can take its share of the transfer. Every change to a
+	 * currency or a balance holds the posting lock, so the values that are
+	 * checked are the ones the changes are applied to.
+	 * 
+	 * @hidden
+	 * @param accounts       The locked accounts.
+	 * @param changes        The change to the balance of each account.
+	 * @param currentMetrics The metrics that a rejection is counted in.
+	 * @throws IllegalArgumentException If the accounts of a leg have different
+	 *                                  currencies.
+	 * @throws NegativeBalanceException If an account cannot pay its share.
+	 * @throws ArithmeticException      If an account cannot hold its share.
+	 */
+	private void check(BankAccount[] accounts, long[] changes, Metrics currentMetrics)
+			throws IllegalArgumentException, NegativeBalanceException, ArithmeticException {
+		// A currency may have been changed since the leg was added.
+		for (Leg leg : legs) {
+			if (!Objects.equals(leg.from.getCurrency(), leg.to.getCurrency())) {
+				throw new IllegalArgumentException(
+						String.format("%s and %s do not have the same currency!", leg.from, leg.to));
+			}
+		}
+
+		for (int i = 0; i < accounts.length; i++) {
+			long balance = accounts[i].getBalanceMinorUnits(), updated = balance + changes[i];
+
+			if (updated < 0) {
+				if (currentMetrics != Metrics.NONE) {
+					currentMetrics.rejected(accounts[i].getCurrency(), -changes[i], balance);
+				}
+
+				throw new NegativeBalanceException(-changes[i], balance, accounts[i].getScale(), null,
+						!accounts[i].hasStacklessRejections());
+			}
+
+			BankAccount.checkBalance(updated);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param accounts The accounts in the transfer.
+	 * @return The listeners of the accounts, with each listener once.
+	 */
+	private static PostingListener[] listeners(BankAccount[] accounts) {
+		Set<PostingListener> listeners = null;
+
+		for (BankAccount account : accounts) {
+			PostingListener[] accountListeners = account.postingListeners();
+
+			if (accountListeners.length != 0) {
+				if (listeners == null) {
+					listeners = Collections.newSetFromMap(new IdentityHashMap<PostingListener, Boolean>());
+				}
+
+				Collections.addAll(listeners, accountListeners);
+			}
+		}
+
+		return listeners == null ? BankAccount.NO_POSTING_LISTENERS : listeners.toArray(new PostingListener[0]);
+	}
+
+	/**
+	 * @hidden
+	 * @param listeners The listeners of the accounts in the transfer.
+	 * @param time      The time of the transfer.
+	 * @return The ticket of each listener.
+	 */
+	private long[] tell(PostingListener[] listeners, long time) {
+		BankAccount[] from = new BankAccount[legs.size()], to = new BankAccount[legs.size()];
+		long[] amounts = new long[legs.size()], tickets = new long[listeners.length];
+
+		for (int i = 0; i < from.length; i++) {
+			Leg leg = legs.get(i);
+			from[i] = leg.from;
+			to[i] = leg.to;
+			amounts[i] = leg.amount;
+		}
+
+		for (int i = 0; i < listeners.length; i++) {
+			tickets[i] = listeners[i].transferred(transactionName, transactionId, time, from, to, amounts);
+		}
+
+		return tickets;
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Leg {
+		private final BankAccount from, to;
+		private final long amount;
+
+		private Leg(BankAccount from, BankAccount to, long amount) {
+			this.from = from;
+			this.to = to;
+			this.amount = amount;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package makingtransactions.exchange;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+import makingtransactions.Money;
+
+/**
+ * A class for converting amounts of minor units between currencies with a
+ * table of exchange rates. The table can be swapped for a new one at any time
+ * without stopping conversions, which always use one whole table.
+ * 
+ * Recently used currency pairs are kept in a small cache, so converting an
+ * amount does not create any objects unless it is too big for
+ * <code>long</code> arithmetic.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class CurrencyConverter {
+	private static final int CACHE_SIZE = 16;
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = Money.rescale(1, 0, i);
+		}
+	}
+
+	private final AtomicReference<ExchangeRates> exchangeRates;
+
+	// Entries are immutable, so a thread that reads an old entry only misses.
+	private final Pair[] cache = new Pair[CACHE_SIZE];
+
+	/**
+	 * Create a converter with a table of exchange rates.
+	 * 
+	 * @param exchangeRates The table of exchange rates.
+	 */
+	public CurrencyConverter(ExchangeRates exchangeRates) {
+		this.exchangeRates = new AtomicReference<ExchangeRates>(exchangeRates);
+	}
+
+	/**
+	 * Create a converter with the exchange rates in a file.
+	 * 
+	 * @param file The rate file.
+	 * @throws IOException If the file cannot be read or has a line that is not
+	 *                     a rate.
+	 */
+	public CurrencyConverter(Path file) throws IOException {
+		this(ExchangeRates.load(file));
+	}
+
+	/**
+	 * Get the table of exchange rates being used.
+	 * 
+	 * @return The table of exchange rates.
+	 */
+	public ExchangeRates getExchangeRates() {
+		return exchangeRates.get();
+	}
+
+	/**
+	 * Replace the table of exchange rates.
+	 * 
+	 * @param exchangeRates The new table of exchange rates.
+	 */
+	public void setExchangeRates(ExchangeRates exchangeRates) {
+		this.exchangeRates.set(exchangeRates);
+	}
+
+	/**
+	 * Replace the table of exchange rates with the rates in a file.
+	 * 
+	 * @param file The rate file.
+	 * @throws IOException If the file cannot be read or has a line that is not
+	 *                     a rate. The old rates are kept.
+	 */
+	public void reload(Path file) throws IOException {
+		setExchangeRates(ExchangeRates.load(file));
+	}
+
+	/**
+	 * Add or change one rate. The other rates in the table are kept, even if
+	 * they are changed at the same time.
+	 * 
+	 * @param from The currency being converted from.
+	 * @param to   The currency being converted to.
+	 * @param rate How many units of <code>to</code> one unit of
+	 *             <code>from</code> is worth.
+	 * @throws IllegalArgumentException If the rate is not valid.
+	 */
+	public void setRate(String from, String to, BigDecimal rate) throws IllegalArgumentException {
+		exchangeRates.updateAndGet(current -> current.withRate(from, to, rate));
+	}
+
+	/**
+	 * Convert an amount of minor units from one currency to another, rounding
+	 * half to even.
+	 * 
+	 * @param amount The amount in minor units of <code>from</code>.
+	 * @param from   The currency of the amount.
+	 * @param to     The currency to convert to.
+	 * @return The amount in minor units of <code>to</code>.
+	 * @throws IllegalArgumentException If there is no rate between the
+	 *                                  currencies.
+	 * @throws ArithmeticException      If the result is too big to be stored.
+	 */
+	public long convert(long amount, String from, String to) throws IllegalArgumentException, ArithmeticException {
+		Pair pair = pair(from, to);
+
+		if (amount == 0) {
+			return 0;
+		}
+
+		int exponent = pair.toScale - pair.fromScale - ExchangeRates.RATE_SCALE;
+		long product = amount * pair.rate;
+
+		// The fast path is taken when the product fits in a long.
+		if (Math.multiplyHigh(amount, pair.rate) == product >> 63 && amount >= 0
+				&& Math.abs(exponent) < POWERS_OF_TEN.length) {
+			return exponent >= 0 ? Math.multiplyExact(product, POWERS_OF_TEN[exponent])
+					: ExchangeRates.divideRounded(product, POWERS_OF_TEN[-exponent]);
+		}
+
+		return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(pair.rate)).scaleByPowerOfTen(exponent)
+				.setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+	}
+
+	/**
+	 * @hidden
+	 * @param from The currency being converted from.
+	 * @param to   The currency being converted to.
+	 * @return The cached pair for the current table.
+	 * @throws IllegalArgumentException If there is no rate between the
+	 *                                  currencies.
+	 */
+	private Pair pair(String from, String to) throws IllegalArgumentException {
+		ExchangeRates currentRates = exchangeRates.get();
+		int slot = (31 * Objects.hashCode(from) + Objects.hashCode(to)) & CACHE_SIZE - 1;
+		Pair pair = cache[slot];
+
+		if (pair != null && pair.exchangeRates == currentRates && Objects.equals(pair.from, from)
+				&& Objects.equals(pair.to, to)) {
+			return pair;
+		}
+
+		long rate = currentRates.rate(from, to);
+
+		if (rate == 0) {
+			throw new IllegalArgumentException(String.format("There is no exchange rate from %s to %s!", from, to));
+		}
+
+		pair = new Pair(currentRates, from, to, rate);
+		cache[slot] = pair;
+		return pair;
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Pair {
+		private final ExchangeRates exchangeRates;
+		private final String from, to;
+		private final long rate;
+		private final int fromScale, toScale;
+
+		private Pair(ExchangeRates exchangeRates, String from, String to, long rate) {
+			this.exchangeRates = exchangeRates;
+			this.from = from;
+			this.to = to;
+			this.rate = rate;
+			fromScale = Money.scale(from);
+			toScale = Money.scale(to);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package makingtransactions.exchange;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable table of exchange rates. A rate is how many units of one
+ * currency are worth one unit of another, stored as a fixed-point number with
+ * {@link #RATE_SCALE} decimal places. When only one direction of a pair is
+ * known, the other direction uses its inverse.
+ * 
+ * A rate file has one rate per line, such as <code>USD EUR 0.9214</code>.
+ * Blank lines and lines starting with <code>#</code> are ignored.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class ExchangeRates {
+	/**
+	 * The number of decimal places that rates are stored with.
+	 */
+	public static final int RATE_SCALE = 9;
+
+	/**
+	 * A table without any rates.
+	 */
+	public static final ExchangeRates EMPTY = new ExchangeRates(new HashMap<String, Integer>(), new long[0]);
+
+	private static final long ONE_SQUARED = 1_000_000_000_000_000_000L;
+
+	private final HashMap<String, Integer> indexes;
+	private final long[] rates;
+
+	/**
+	 * @hidden
+	 * @param indexes The position of each currency.
+	 * @param rates   The rates of every pair, row by row, with 0 for unknown
+	 *                pairs.
+	 */
+	private ExchangeRates(HashMap<String, Integer> indexes, long[] rates) {
+		this.indexes = indexes;
+		this.rates = rates;
+	}
+
+	/**
+	 * Load a table of exchange rates from a file.
+	 * 
+	 * @param file The rate file.
+	 * @return The rates in the file.
+	 * @throws IOException If the file cannot be read or has a line that is not
+	 *                     a rate.
+	 */
+	public static ExchangeRates load(Path file) throws IOException {
+		ExchangeRates exchangeRates = EMPTY;
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split("\\s+");
+
+				try {
+					if (fields.length != 3) {
+						throw new IllegalArgumentException("A rate needs two currencies and a number!");
+					}
+
+					exchangeRates = exchangeRates.withRate(fields[0], fields[1], new BigDecimal(fields[2]));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("Line %d of %s is not a rate!", lineNumber, file), e);
+				}
+			}
+		}
+
+		return exchangeRates;
+	}
+
+	/**
+	 * Get a copy of the table with one rate added or changed.
+	 * 
+	 * @param from The currency being converted from.
+	 * @param to   The currency being converted to.
+	 * @param rate How many units of <code>to</code> one unit of
+	 *             <code>from</code> is worth.
+	 * @return A new table with the rate.
+	 * @throws IllegalArgumentException If the rate is not positive, is too big
+	 *                                  or both currencies are the same.
+	 */
+	public ExchangeRates withRate(String from, String to, BigDecimal rate) throws IllegalArgumentException {
+		if (Objects.equals(from, to)) {
+			throw new IllegalArgumentException(String.format("%s cannot have a rate to itself!", from));
+		}
+
+		long scaledRate;
+
+		try {
+			scaledRate = rate.setScale(RATE_SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(String.format("The rate %s is too big!", rate), e);
+		}
+
+		if (scaledRate <= 0) {
+			throw new IllegalArgumentException(String.format("The rate %s must be bigger than 0!", rate));
+		}
+
+		HashMap<String, Integer> newIndexes = new HashMap<String, Integer>(indexes);
+		newIndexes.putIfAbsent(from, newIndexes.size());
+		newIndexes.putIfAbsent(to, newIndexes.size());
+
+		int oldSize = indexes.size(), newSize = newIndexes.size();
+		long[] newRates = new long[newSize * newSize];
+
+		for (int row = 0; row < oldSize; row++) {
+			System.arraycopy(rates, row * oldSize, newRates, row * newSize, oldSize);
+		}
+
+		newRates[newIndexes.get(from) * newSize + newIndexes.get(to)] = scaledRate;
+		return new ExchangeRates(newIndexes, newRates);
+	}
+
+	/**
+	 * Get the currencies that have rates.
+	 * 
+	 * @return A read-only set of currencies.
+	 */
+	public Set<String> getCurrencies() {
+		return Collections.unmodifiableSet(indexes.keySet());
+	}
+
+	/**
+	 * Get the exchange rate between two currencies.
+	 * 
+	 * @param from The currency being converted from.
+	 * @param to   The currency being converted to.
+	 * @return How many units of <code>to</code> one unit of <code>from</code>
+	 *         is worth.
+	 * @throws IllegalArgumentException If there is no rate between the
+	 *                                  currencies.
+	 */
+	public BigDecimal getRate(String from, String to) throws IllegalArgumentException {
+		long rate = rate(from, to);
+
+		if (rate == 0) {
+			throw new IllegalArgumentException(String.format("There is no exchange rate from %s to %s!", from, to));
+		}
+
+		return BigDecimal.valueOf(rate, RATE_SCALE);
+	}
+
+	/**
+	 * Find the rate between two currencies without creating any objects.
+	 * 
+	 * @hidden
+	 * @param from The currency being converted from.
+	 * @param to   The currency being converted to.
+	 * @return The rate with {@link #RATE_SCALE} decimal places, or 0 if it is
+	 *         not known.
+	 */
+	long rate(String from, String to) {
+		Integer fromIndex = indexes.get(from), toIndex = indexes.get(to);
+
+		if (fromIndex == null || toIndex == null) {
+			return 0;
+		}
+
+		int size = indexes.size();
+		long rate = rates[fromIndex * size + toIndex];
+
+		if (rate != 0) {
+			return rate;
+		}
+
+		long inverse = rates[toIndex * size + fromIndex];
+		return inverse == 0 ? 0 : divideRounded(ONE_SQUARED, inverse);
+	}
+
+	/**
+	 * Divide two positive numbers, rounding half to even.
+	 * 
+	 * @hidden
+	 * @param dividend The number being divided.
+	 * @param divisor  The number to divide by.
+	 * @return The rounded quotient.
+	 */
+	static long divideRounded(long dividend, long divisor) {
+		long quotient = dividend / divisor, remainder = dividend % divisor;
+
+		if (remainder > divisor - remainder || remainder == divisor - remainder && (quotient & 1) != 0) {
+			quotient++;
+		}
+
+		return quotient;
+	}
+
+	@Override
+	public String toString() {
+		String[] currencies = indexes.keySet().toArray(new String[0]);
+		Arrays.sort(currencies);
+		return Arrays.toString(currencies);
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * A package for converting amounts of money between currencies.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package makingtransactions.exchange;
@@ -0,0 +1,142 @@
+package makingtransactions.ledgers;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A running-balance index over a ledger. Every few transactions, a checkpoint
+ * stores the sum of the debits minus the credits before it, so the net change
+ * up to any position is found from the nearest checkpoint instead of from the
+ * start of the ledger.
+ * 
+ * Checkpoints are built the first time a query reaches them and are kept for
+ * later queries, so only new transactions are ever summed again.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class BalanceIndex {
+	/**
+	 * The number of transactions between checkpoints when none is given.
+	 */
+	public static final int DEFAULT_INTERVAL = 64;
+
+	private final Ledger ledger;
+	private final int interval;
+
+	// Checkpoint k covers the transactions before position k * interval.
+	private long[] nets = new long[16], latestTimestamps = new long[16];
+	private int checkpoints = 1;
+
+	/**
+	 * Create an index over a ledger with the default checkpoint interval.
+	 * 
+	 * @param ledger The ledger to be indexed.
+	 */
+	public BalanceIndex(Ledger ledger) {
+		this(ledger, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Create an index over a ledger.
+	 * 
+	 * @param ledger   The ledger to be indexed.
+	 * @param interval The number of transactions between checkpoints.
+	 * @throws IllegalArgumentException If the interval is not positive.
+	 */
+	public BalanceIndex(Ledger ledger, int interval) throws IllegalArgumentException {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("The checkpoint interval must be bigger than 0!");
+		}
+
+		this.ledger = ledger;
+		this.interval = interval;
+		latestTimestamps[0] = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Get the debits minus the credits of the first transactions in the ledger.
+	 * 
+	 * @param count The number of transactions to be summed.
+	 * @return The net change in minor units.
+	 * @throws IndexOutOfBoundsException If the count is negative or bigger than
+	 *                                   the size of the ledger.
+	 */
+	public synchronized long netBefore(int count) throws IndexOutOfBoundsException {
+		Objects.checkIndex(count, ledger.size() + 1);
+		extend(count);
+
+		int checkpoint = count / interval;
+		long net = nets[checkpoint];
+
+		for (int i = checkpoint * interval; i < count; i++) {
+			net += ledger.getDebit(i) - ledger.getCredit(i);
+		}
+
+		return net;
+	}
+
+	/**
+	 * Get the number of transactions at the start of the ledger that happened
+	 * at or before a time. Transactions are expected to be in time order; the
+	 * first one that is later than the time ends the count.
+	 * 
+	 * @param timestamp The time in milliseconds since the epoch.
+	 * @return The number of transactions.
+	 */
+	public synchronized int countUpTo(long timestamp) {
+		int size = ledger.size();
+		extend(size);
+
+		// The latest timestamps only grow, so the first checkpoint that has seen a
+		// later transaction is found by a binary search.
+		int low = 1, high = checkpoints;
+
+		while (low < high) {
+			int middle = low + high >>> 1;
+
+			if (latestTimestamps[middle] > timestamp) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+
+		int end = Math.min(low * interval, size);
+
+		for (int i = (low - 1) * interval; i < end; i++) {
+			if (ledger.getTimestamp(i) > timestamp) {
+				return i;
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * @hidden
+	 * @param count The number of transactions that a query needs.
+	 */
+	private void extend(int count) {
+		int needed = count / interval + 1;
+
+		if (needed > nets.length) {
+			int length = Math.max(needed, nets.length * 2);
+			nets = Arrays.copyOf(nets, length);
+			latestTimestamps = Arrays.copyOf(latestTimestamps, length);
+		}
+
+		while (checkpoints < needed) {
+			long net = nets[checkpoints - 1], latestTimestamp = latestTimestamps[checkpoints - 1];
+
+			for (int i = (checkpoints - 1) * interval, end = i + interval; i < end; i++) {
+				net += ledger.getDebit(i) - ledger.getCredit(i);
+				latestTimestamp = Math.max(latestTimestamp, ledger.getTimestamp(i));
+			}
+
+			nets[checkpoints] = net;
+			latestTimestamps[checkpoints] = latestTimestamp;
+			checkpoints++;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package makingtransactions.ledgers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ledger that stores each field of its transactions in its own primitive
+ * array instead of keeping a Transaction instance/object per entry. The
+ * arrays grow in chunks that double in size, so a small ledger stays small,
+ * and transaction names are stored once in a dictionary.
+ * 
+ * Transactions can be appended from multiple threads at once without locking.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class ColumnarLedger implements Ledger {
+	private static final int FIRST_CHUNK_BITS = 4, FIRST_CHUNK_SIZE = 1 << FIRST_CHUNK_BITS;
+	private static final VarHandle WRITTEN = MethodHandles.arrayElementVarHandle(byte[].class);
+
+	private final AtomicInteger reserved = new AtomicInteger(), size = new AtomicInteger();
+
+	private volatile Chunk[] chunks = new Chunk[32 - FIRST_CHUNK_BITS];
+
+	private final ConcurrentHashMap<String, Integer> nameIds = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] names = new String[4];
+	private int nameCount;
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public long getDebit(int index) {
+		return chunkAt(index).debits[offset(index)];
+	}
+
+	@Override
+	public long getCredit(int index) {
+		return chunkAt(index).credits[offset(index)];
+	}
+
+	@Override
+	public int getTransactionId(int index) {
+		return chunkAt(index).transactionIds[offset(index)];
+	}
+
+	@Override
+	public String getTransactionName(int index) {
+		int nameId = chunkAt(index).nameIds[offset(index)];
+		return nameId < 0 ? null : names[nameId];
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		return chunkAt(index).timestamps[offset(index)];
+	}
+
+	@Override
+	public void append(String transactionName, int transactionId, long debit, long credit, long timestamp) {
+		int index = reserved.getAndIncrement();
+		Chunk chunk = chunkFor(index);
+		int offset = offset(index);
+
+		chunk.debits[offset] = debit;
+		chunk.credits[offset] = credit;
+		chunk.timestamps[offset] = timestamp;
+		chunk.transactionIds[offset] = transactionId;
+		chunk.nameIds[offset] = nameId(transactionName);
+		WRITTEN.setVolatile(chunk.written, offset, (byte) 1);
+
+		publish();
+	}
+
+	@Override
+	public void appendAll(String[] transactionNames, int[] transactionIds, long[] debits, long[] credits,
+			long[] timestamps) {
+		int count = debits.length;
+
+		if (count == 0) {
+			return;
+		}
+
+		int first = reserved.getAndAdd(count);
+		Chunk chunk = null;
+
+		for (int i = 0; i < count; i++) {
+			int index = first + i, offset = offset(index);
+
+			if (chunk == null || offset == 0) {
+				chunk = chunkFor(index);
+			}
+
+			chunk.debits[offset] = debits[i];
+			chunk.credits[offset] = credits[i];
+			chunk.timestamps[offset] = timestamps[i];
+			chunk.transactionIds[offset] = transactionIds[i];
+			chunk.nameIds[offset] = nameId(transactionNames[i]);
+
+			// The first entry is marked last so that the whole batch is published at once.
+			if (i != 0) {
+				WRITTEN.setVolatile(chunk.written, offset, (byte) 1);
+			}
+		}
+
+		WRITTEN.setVolatile(chunkFor(first).written, offset(first), (byte) 1);
+		publish();
+	}
+
+	/**
+	 * @hidden
+	 * @param index The position of the transaction.
+	 * @return The chunk holding a published transaction.
+	 */
+	private Chunk chunkAt(int index) {
+		Objects.checkIndex(index, size.get());
+		return chunks[chunkIndex(index)];
+	}
+
+	/**
+	 * @hidden
+	 * @param index The reserved position of a transaction.
+	 * @return The chunk to write the transaction into, creating it if needed.
+	 */
+	private Chunk chunkFor(int index) {
+		int chunkIndex = chunkIndex(index);
+		Chunk[] currentChunks = chunks;
+
+		if (currentChunks[chunkIndex] != null) {
+			return currentChunks[chunkIndex];
+		}
+
+		synchronized (this) {
+			if (currentChunks[chunkIndex] == null) {
+				currentChunks[chunkIndex] = new Chunk(FIRST_CHUNK_SIZE << chunkIndex);
+			}
+
+			// Writing the volatile field again publishes the new chunk.
+			chunks = currentChunks;
+			return currentChunks[chunkIndex];
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param index The position of a transaction.
+	 * @return The chunk that holds the position.
+	 */
+	private static int chunkIndex(int index) {
+		return 31 - Integer.numberOfLeadingZeros(index + FIRST_CHUNK_SIZE) - FIRST_CHUNK_BITS;
+	}
+
+	/**
+	 * @hidden
+	 * @param index The position of a transaction.
+	 * @return The position inside its chunk.
+	 */
+	private static int offset(int index) {
+		int shifted = index + FIRST_CHUNK_SIZE;
+		return shifted - Integer.highestOneBit(shifted);
+	}
+
+	/**
+	 * Make written transactions visible up to the first one that is still being
+	 * written, so that readers never see a gap. A writer never waits for
+	 * another: whichever finishes last moves the size past both.
+	 * 
+	 * @hidden
+	 */
+	private void publish() {
+		int current;
+
+		while ((current = size.get()) < reserved.get() && isWritten(current)) {
+			int next = current + 1;
+
+			while (next < reserved.get() && isWritten(next)) {
+				next++;
+			}
+
+			size.compareAndSet(current, next);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param index The reserved position of a transaction.
+	 * @return <code>true</code> if the transaction has been fully written.
+	 */
+	private boolean isWritten(int index) {
+		Chunk chunk = chunks[chunkIndex(index)];
+		return chunk != null && (byte) WRITTEN.getVolatile(chunk.written, offset(index)) != 0;
+	}
+
+	/**
+	 * @hidden
+	 * @param transactionName The name of a transaction.
+	 * @return The position of the name in the dictionary, or -1 for
+	 *         <code>null</code>.
+	 */
+	private int nameId(String transactionName) {
+		if (transactionName == null) {
+			return -1;
+		}
+
+		Integer nameId = nameIds.get(transactionName);
+
+		if (nameId != null) {
+			return nameId;
+		}
+
+		synchronized (nameIds) {
+			nameId = nameIds.get(transactionName);
+
+			if (nameId == null) {
+				String[] currentNames = names;
+
+				if (nameCount == currentNames.length) {
+					currentNames = Arrays.copyOf(currentNames, nameCount * 2);
+				}
+
+				currentNames[nameCount] = transactionName;
+				names = currentNames;
+				nameId = nameCount++;
+				nameIds.put(transactionName, nameId);
+			}
+
+			return nameId;
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Chunk {
+		private final long[] debits, credits, timestamps;
+		private final int[] transactionIds, nameIds;
+		private final byte[] written;
+
+		private Chunk(int size) {
+			debits = new long[size];
+			credits = new long[size];
+			timestamps = new long[size];
+			transactionIds = new int[size];
+			nameIds = new int[size];
+			written = new byte[size];
+		}
+	}
+}
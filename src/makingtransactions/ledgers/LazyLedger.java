@@ -0,0 +1,104 @@
+package makingtransactions.ledgers;
+
+import java.util.function.Supplier;
+
+/**
+ * A ledger whose transactions are only loaded the first time they are read or
+ * added to. Until then, only the number of transactions is known.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class LazyLedger implements Ledger {
+	private final int size;
+	private final Supplier<? extends Ledger> loader;
+	private volatile Ledger ledger;
+
+	/**
+	 * Create a ledger that is loaded when it is first used.
+	 * 
+	 * @param size   The number of transactions that the loader will return.
+	 * @param loader The function that loads the transactions.
+	 */
+	public LazyLedger(int size, Supplier<? extends Ledger> loader) {
+		this.size = size;
+		this.loader = loader;
+	}
+
+	/**
+	 * Check to see if the transactions have been loaded.
+	 * 
+	 * @return <code>true</code> if the transactions have been loaded.
+	 */
+	public boolean isLoaded() {
+		return ledger != null;
+	}
+
+	@Override
+	public int size() {
+		Ledger currentLedger = ledger;
+		return currentLedger == null ? size : currentLedger.size();
+	}
+
+	@Override
+	public long getDebit(int index) {
+		return ledger().getDebit(index);
+	}
+
+	@Override
+	public long getCredit(int index) {
+		return ledger().getCredit(index);
+	}
+
+	@Override
+	public int getTransactionId(int index) {
+		return ledger().getTransactionId(index);
+	}
+
+	@Override
+	public String getTransactionName(int index) {
+		return ledger().getTransactionName(index);
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		return ledger().getTimestamp(index);
+	}
+
+	@Override
+	public void append(String transactionName, int transactionId, long debit, long credit, long timestamp) {
+		ledger().append(transactionName, transactionId, debit, credit, timestamp);
+	}
+
+	@Override
+	public void appendAll(String[] transactionNames, int[] transactionIds, long[] debits, long[] credits,
+			long[] timestamps) {
+		ledger().appendAll(transactionNames, transactionIds, debits, credits, timestamps);
+	}
+
+	@Override
+	public void reserve(int count) {
+		ledger().reserve(count);
+	}
+
+	/**
+	 * @hidden
+	 * @return The loaded ledger.
+	 */
+	private Ledger ledger() {
+		Ledger currentLedger = ledger;
+
+		if (currentLedger == null) {
+			synchronized (this) {
+				currentLedger = ledger;
+
+				if (currentLedger == null) {
+					currentLedger = loader.get();
+					ledger = currentLedger;
+				}
+			}
+		}
+
+		return currentLedger;
+	}
+}
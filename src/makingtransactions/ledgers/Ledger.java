@@ -0,0 +1,98 @@
+package makingtransactions.ledgers;
+
+import java.io.UncheckedIOException;
+
+/**
+ * An interface for storing the transactions added to a bank account. Amounts
+ * are stored in the minor units of the bank account currency.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public interface Ledger {
+	/**
+	 * Get the number of transactions in the ledger.
+	 * 
+	 * @return The number of transactions.
+	 */
+	int size();
+
+	/**
+	 * Get the debit of a transaction in minor units.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The debit of the transaction.
+	 */
+	long getDebit(int index);
+
+	/**
+	 * Get the credit of a transaction in minor units.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The credit of the transaction.
+	 */
+	long getCredit(int index);
+
+	/**
+	 * Get the ID of a transaction.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The ID of the transaction.
+	 */
+	int getTransactionId(int index);
+
+	/**
+	 * Get the name of a transaction.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The name of the transaction.
+	 */
+	String getTransactionName(int index);
+
+	/**
+	 * Get the time of a transaction.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The time of the transaction in milliseconds since the epoch.
+	 */
+	long getTimestamp(int index);
+
+	/**
+	 * Add a transaction to the end of the ledger.
+	 * 
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit in minor units.
+	 * @param credit          The credit in minor units.
+	 * @param timestamp       The time of the transaction in milliseconds since
+	 *                        the epoch.
+	 */
+	void append(String transactionName, int transactionId, long debit, long credit, long timestamp);
+
+	/**
+	 * Add several transactions to the end of the ledger. The transactions are
+	 * stored next to each other and become visible to readers at the same time.
+	 * 
+	 * @param transactionNames The names of the transactions.
+	 * @param transactionIds   The IDs of the transactions.
+	 * @param debits           The debits in minor units.
+	 * @param credits          The credits in minor units.
+	 * @param timestamps       The times of the transactions in milliseconds
+	 *                         since the epoch.
+	 */
+	void appendAll(String[] transactionNames, int[] transactionIds, long[] debits, long[] credits,
+			long[] timestamps);
+
+	/**
+	 * Make room for transactions that are about to be appended, so that
+	 * appending them does not have to write to disk where the ledger can avoid
+	 * it. A bank account calls this before anything is changed, so an error
+	 * leaves it as it was. Nothing needs to be done by a ledger that is kept in
+	 * memory.
+	 * 
+	 * @param count The number of transactions.
+	 * @throws UncheckedIOException If the ledger could not make room.
+	 */
+	default void reserve(int count) throws UncheckedIOException {
+	}
+}
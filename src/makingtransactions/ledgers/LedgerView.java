@@ -0,0 +1,116 @@
+package makingtransactions.ledgers;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import makingtransactions.Money;
+import makingtransactions.Transaction;
+
+/**
+ * A read-only list of the transactions in a ledger. A Transaction
+ * instance/object is only created when an element is read, and the primitive
+ * getters read the ledger without creating any.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class LedgerView extends AbstractList<Transaction> implements RandomAccess {
+	private final Ledger ledger;
+	private final String currency;
+	private final int scale;
+
+	/**
+	 * Create a view of a ledger.
+	 * 
+	 * @param ledger   The ledger to be viewed.
+	 * @param currency The currency of the ledger amounts.
+	 */
+	public LedgerView(Ledger ledger, String currency) {
+		this.ledger = ledger;
+		this.currency = currency;
+		scale = Money.scale(currency);
+	}
+
+	@Override
+	public Transaction get(int index) {
+		Transaction transaction = new Transaction(ledger.getTransactionName(index), ledger.getTransactionId(index));
+		transaction.setCurrency(currency);
+		transaction.setDebitMinorUnits(ledger.getDebit(index));
+		transaction.setCreditMinorUnits(ledger.getCredit(index));
+		transaction.setTimestamp(ledger.getTimestamp(index));
+		return transaction;
+	}
+
+	@Override
+	public int size() {
+		return ledger.size();
+	}
+
+	/**
+	 * Get the debit of a transaction in minor units.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The debit of the transaction.
+	 */
+	public long getDebitMinorUnits(int index) {
+		return ledger.getDebit(index);
+	}
+
+	/**
+	 * Get the credit of a transaction in minor units.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The credit of the transaction.
+	 */
+	public long getCreditMinorUnits(int index) {
+		return ledger.getCredit(index);
+	}
+
+	/**
+	 * Get the ID of a transaction.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The ID of the transaction.
+	 */
+	public int getTransactionId(int index) {
+		return ledger.getTransactionId(index);
+	}
+
+	/**
+	 * Get the name of a transaction.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The name of the transaction.
+	 */
+	public String getTransactionName(int index) {
+		return ledger.getTransactionName(index);
+	}
+
+	/**
+	 * Get the time of a transaction.
+	 * 
+	 * @param index The position of the transaction.
+	 * @return The time of the transaction in milliseconds since the epoch.
+	 */
+	public long getTimestamp(int index) {
+		return ledger.getTimestamp(index);
+	}
+
+	/**
+	 * Get the currency of the amounts in the view.
+	 * 
+	 * @return The currency of the amounts.
+	 */
+	public String getCurrency() {
+		return currency;
+	}
+
+	/**
+	 * Get the scale (The number of decimal places) of the amounts in the view.
+	 * 
+	 * @return The scale of the amounts.
+	 */
+	public int getScale() {
+		return scale;
+	}
+}
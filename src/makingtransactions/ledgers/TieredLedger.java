@@ -0,0 +1,378 @@
+package makingtransactions.ledgers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A ledger that keeps only its most recent transactions in memory. Older
+ * transactions are stored in pages that are compressed and appended to a file,
+ * and are read back a page at a time when they are asked for, so the memory
+ * used by the ledger stays the same however long the bank account lives.
+ * 
+ * The file only holds the pages that no longer fit in memory; it is replaced
+ * when the ledger is created and is not a way to save the ledger. Appends and
+ * reads are serialized by a lock.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class TieredLedger implements Ledger, Closeable {
+	/**
+	 * The number of transactions in a page when none is given.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1024;
+
+	private static final int CACHED_COLD_PAGES = 4, ENTRY_SIZE = 8 + 8 + 8 + 4 + 4;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final int pageSize;
+
+	// Page p is cold when p < coldPages, otherwise it is hotPages[p % length].
+	private final Page[] hotPages;
+	// Each cold page has its compressed and uncompressed lengths side by side.
+	private long[] coldPositions = new long[16];
+	private int[] coldLengths = new int[32];
+	private int coldPages;
+	private long fileSize;
+
+	private final Page[] coldCache = new Page[CACHED_COLD_PAGES];
+	private int nextCacheSlot;
+
+	private volatile int size;
+
+	/**
+	 * Create a ledger that keeps at least a number of recent transactions in
+	 * memory, with pages of the default size.
+	 * 
+	 * @param file            The file that older transactions are written to.
+	 * @param hotTransactions The number of recent transactions to keep in
+	 *                        memory.
+	 * @throws IOException If the file cannot be created.
+	 */
+	public TieredLedger(Path file, int hotTransactions) throws IOException {
+		this(file, hotTransactions, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Create a ledger that keeps at least a number of recent transactions in
+	 * memory.
+	 * 
+	 * @param file            The file that older transactions are written to.
+	 * @param hotTransactions The number of recent transactions to keep in
+	 *                        memory.
+	 * @param pageSize        The number of transactions in a page.
+	 * @throws IOException              If the file cannot be created.
+	 * @throws IllegalArgumentException If the page size is not positive.
+	 */
+	public TieredLedger(Path file, int hotTransactions, int pageSize) throws IOException, IllegalArgumentException {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("The page size must be bigger than 0!");
+		}
+
+		this.file = file;
+		this.pageSize = pageSize;
+
+		// One more page holds the transactions that are still being added.
+		hotPages = new Page[Math.max(1, (hotTransactions + pageSize - 1) / pageSize) + 1];
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized long getDebit(int index) {
+		return page(index).debits[index % pageSize];
+	}
+
+	@Override
+	public synchronized long getCredit(int index) {
+		return page(index).credits[index % pageSize];
+	}
+
+	@Override
+	public synchronized int getTransactionId(int index) {
+		return page(index).transactionIds[index % pageSize];
+	}
+
+	@Override
+	public synchronized String getTransactionName(int index) {
+		return page(index).names[index % pageSize];
+	}
+
+	@Override
+	public synchronized long getTimestamp(int index) {
+		return page(index).timestamps[index % pageSize];
+	}
+
+	/**
+	 * Get the number of pages that have been moved to the file.
+	 * 
+	 * @return The number of cold pages.
+	 */
+	public synchronized int getColdPages() {
+		return coldPages;
+	}
+
+	@Override
+	public synchronized void append(String transactionName, int transactionId, long debit, long credit,
+			long timestamp) {
+		write(size, transactionName, transactionId, debit, credit, timestamp);
+		size++;
+	}
+
+	@Override
+	public synchronized void appendAll(String[] transactionNames, int[] transactionIds, long[] debits,
+			long[] credits, long[] timestamps) {
+		int first = size;
+
+		for (int i = 0; i < debits.length; i++) {
+			write(first + i, transactionNames[i], transactionIds[i], debits[i], credits[i], timestamps[i]);
+		}
+
+		size = first + debits.length;
+	}
+
+	/**
+	 * Move full pages to the file until the pages that the transactions will be
+	 * written to fit in memory. A batch that needs more pages than are kept in
+	 * memory still moves some of its own pages to the file while it is
+	 * appended.
+	 */
+	@Override
+	public synchronized void reserve(int count) throws UncheckedIOException {
+		if (count <= 0) {
+			return;
+		}
+
+		int lastPage = (int) (((long) size + count - 1) / pageSize), fullPages = size / pageSize;
+
+		while (lastPage - coldPages >= hotPages.length && coldPages < fullPages) {
+			spill();
+		}
+	}
+
+	/**
+	 * Close the file. The transactions in memory can still be read.
+	 * 
+	 * @throws IOException If the file cannot be closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * @hidden
+	 * @param index           The position of the transaction.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit in minor units.
+	 * @param credit          The credit in minor units.
+	 * @param timestamp       The time of the transaction.
+	 */
+	private void write(int index, String transactionName, int transactionId, long debit, long credit,
+			long timestamp) {
+		int pageNumber = index / pageSize, offset = index % pageSize;
+
+		if (offset == 0) {
+			if (pageNumber - coldPages == hotPages.length) {
+				spill();
+			}
+
+			hotPages[pageNumber % hotPages.length] = new Page(pageSize);
+		}
+
+		Page page = hotPages[pageNumber % hotPages.length];
+		page.debits[offset] = debit;
+		page.credits[offset] = credit;
+		page.timestamps[offset] = timestamp;
+		page.transactionIds[offset] = transactionId;
+		page.names[offset] = transactionName;
+	}
+
+	/**
+	 * Compress the oldest page in memory and append it to the file.
+	 * 
+	 * @hidden
+	 */
+	private void spill() {
+		Page page = hotPages[coldPages % hotPages.length];
+		byte[][] names = new byte[pageSize][];
+		int rawLength = 0;
+
+		for (int i = 0; i < pageSize; i++) {
+			names[i] = page.names[i] == null ? null : page.names[i].getBytes(StandardCharsets.UTF_8);
+			rawLength += ENTRY_SIZE + (names[i] == null ? 0 : names[i].length);
+		}
+
+		ByteBuffer raw = ByteBuffer.allocate(rawLength);
+
+		for (int i = 0; i < pageSize; i++) {
+			raw.putLong(page.debits[i]).putLong(page.credits[i]).putLong(page.timestamps[i])
+					.putInt(page.transactionIds[i]).putInt(names[i] == null ? -1 : names[i].length);
+
+			if (names[i] != null) {
+				raw.put(names[i]);
+			}
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed = new byte[rawLength + 64];
+		int compressedLength = 0;
+
+		try {
+			deflater.setInput(raw.array());
+			deflater.finish();
+
+			while (!deflater.finished()) {
+				if (compressedLength == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+
+				compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, compressedLength);
+
+		try {
+			for (long position = fileSize; buffer.hasRemaining();) {
+				position += channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("A page cannot be written to %s!", file), e);
+		}
+
+		if (coldPages == coldPositions.length) {
+			coldPositions = Arrays.copyOf(coldPositions, coldPages * 2);
+			coldLengths = Arrays.copyOf(coldLengths, coldPages * 4);
+		}
+
+		coldPositions[coldPages] = fileSize;
+		coldLengths[coldPages * 2] = compressedLength;
+		coldLengths[coldPages * 2 + 1] = rawLength;
+		fileSize += compressedLength;
+		hotPages[coldPages % hotPages.length] = null;
+		coldPages++;
+	}
+
+	/**
+	 * @hidden
+	 * @param index The position of a transaction.
+	 * @return The page holding the transaction.
+	 */
+	private Page page(int index) {
+		Objects.checkIndex(index, size);
+		int pageNumber = index / pageSize;
+
+		if (pageNumber >= coldPages) {
+			return hotPages[pageNumber % hotPages.length];
+		}
+
+		for (Page page : coldCache) {
+			if (page != null && page.number == pageNumber) {
+				return page;
+			}
+		}
+
+		Page page = readColdPage(pageNumber);
+		coldCache[nextCacheSlot] = page;
+		nextCacheSlot = (nextCacheSlot + 1) % CACHED_COLD_PAGES;
+		return page;
+	}
+
+	/**
+	 * @hidden
+	 * @param pageNumber The number of a cold page.
+	 * @return The page read from the file.
+	 */
+	private Page readColdPage(int pageNumber) {
+		ByteBuffer compressed = ByteBuffer.allocate(coldLengths[pageNumber * 2]);
+		byte[] raw = new byte[coldLengths[pageNumber * 2 + 1]];
+		Inflater inflater = new Inflater();
+
+		try {
+			for (long position = coldPositions[pageNumber]; compressed.hasRemaining();) {
+				int read = channel.read(compressed, position);
+
+				if (read < 0) {
+					throw new IOException("The file ended in the middle of a page!");
+				}
+
+				position += read;
+			}
+
+			inflater.setInput(compressed.array());
+
+			for (int length = 0; length < raw.length;) {
+				int inflated = inflater.inflate(raw, length, raw.length - length);
+
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new DataFormatException("The page is shorter than it should be!");
+				}
+
+				length += inflated;
+			}
+		} catch (IOException | DataFormatException e) {
+			throw new UncheckedIOException(String.format("Page %d cannot be read from %s!", pageNumber, file),
+					e instanceof IOException ? (IOException) e : new IOException(e));
+		} finally {
+			inflater.end();
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(raw);
+		Page page = new Page(pageSize);
+		page.number = pageNumber;
+
+		for (int i = 0; i < pageSize; i++) {
+			page.debits[i] = buffer.getLong();
+			page.credits[i] = buffer.getLong();
+			page.timestamps[i] = buffer.getLong();
+			page.transactionIds[i] = buffer.getInt();
+			int nameLength = buffer.getInt();
+
+			if (nameLength >= 0) {
+				page.names[i] = new String(raw, buffer.position(), nameLength, StandardCharsets.UTF_8);
+				buffer.position(buffer.position() + nameLength);
+			}
+		}
+
+		return page;
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Page {
+		private final long[] debits, credits, timestamps;
+		private final int[] transactionIds;
+		private final String[] names;
+		private int number = -1;
+
+		private Page(int size) {
+			debits = new long[size];
+			credits = new long[size];
+			timestamps = new long[size];
+			transactionIds = new int[size];
+			names = new String[size];
+		}
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * A package of ledgers for storing the transactions of a bank account.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package makingtransactions.ledgers;
@@ -0,0 +1,156 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Metrics that are kept in memory like PostingMetrics and are also written to
+ * Java Flight Recorder as custom events, so they can be read with the other
+ * events of a recording. Sampled postings and rejections become events of their
+ * own, and the counters and gauges are written once a second for each currency.
+ * 
+ * Events cost nothing more than a check while no recording is running. The
+ * periodic event stays registered until the metrics are closed.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class JfrMetrics extends PostingMetrics implements AutoCloseable {
+	private final Runnable periodicHook = this::commitCounters;
+
+	/**
+	 * Create metrics that time one posting in every 64.
+	 */
+	public JfrMetrics() {
+		this(64);
+	}
+
+	/**
+	 * Create metrics that time one posting in every <code>sampleInterval</code>.
+	 * 
+	 * @param sampleInterval How many postings share one latency measurement.
+	 * @throws IllegalArgumentException If the interval is not a power of two.
+	 */
+	public JfrMetrics(int sampleInterval) throws IllegalArgumentException {
+		super(sampleInterval);
+		FlightRecorder.addPeriodicEvent(CountersEvent.class, periodicHook);
+	}
+
+	@Override
+	public void postingLatency(String currency, long nanos) {
+		super.postingLatency(currency, nanos);
+		PostingEvent event = new PostingEvent();
+
+		if (event.shouldCommit()) {
+			event.currency = currency;
+			event.latency = nanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void rejected(String currency, long credit, long balance) {
+		super.rejected(currency, credit, balance);
+		RejectionEvent event = new RejectionEvent();
+
+		if (event.shouldCommit()) {
+			event.currency = currency;
+			event.credit = credit;
+			event.balance = balance;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Stop writing the periodic event.
+	 */
+	@Override
+	public void close() {
+		FlightRecorder.removePeriodicEvent(periodicHook);
+	}
+
+	/**
+	 * @hidden
+	 */
+	private void commitCounters() {
+		for (String currency : getCurrencies()) {
+			CountersEvent event = new CountersEvent();
+			event.currency = currency;
+			event.postings = getPostings(currency);
+			event.rejections = getRejections(currency);
+			event.largestLedgerSize = getLargestLedgerSize();
+			event.largestJointAccountSize = getLargestJointAccountSize();
+			event.commit();
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	@Name("bankaccount.Posting")
+	@Label("Posting")
+	@Category("Bank Account")
+	@Description("A sampled posting to a bank account")
+	@StackTrace(false)
+	static final class PostingEvent extends Event {
+		@Label("Currency")
+		String currency;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+
+	/**
+	 * @hidden
+	 */
+	@Name("bankaccount.Rejection")
+	@Label("Rejection")
+	@Category("Bank Account")
+	@Description("A transaction whose credit was bigger than the balance")
+	static final class RejectionEvent extends Event {
+		@Label("Currency")
+		String currency;
+
+		@Label("Credit")
+		@Description("The credit in minor units")
+		long credit;
+
+		@Label("Balance")
+		@Description("The balance in minor units")
+		long balance;
+	}
+
+	/**
+	 * @hidden
+	 */
+	@Name("bankaccount.Counters")
+	@Label("Posting Counters")
+	@Category("Bank Account")
+	@Description("The posting counters of a currency and the largest ledger and joint account")
+	@Period("1 s")
+	@StackTrace(false)
+	static final class CountersEvent extends Event {
+		@Label("Currency")
+		String currency;
+
+		@Label("Postings")
+		long postings;
+
+		@Label("Rejections")
+		long rejections;
+
+		@Label("Largest Ledger Size")
+		int largestLedgerSize;
+
+		@Label("Largest Joint Account Size")
+		int largestJointAccountSize;
+	}
+}
@@ -0,0 +1,147 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, that
+ * can be recorded to from many threads at once without locking. Each power of
+ * two is split into 16 buckets, so a percentile is within about 6% of the true
+ * value, and the histogram always uses the same 8 KB however many values it
+ * holds.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+
+	/**
+	 * Record a value.
+	 * 
+	 * @param value The value to be recorded. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts.getAndIncrement(bucket(value));
+		count.getAndIncrement();
+		total.getAndAdd(value);
+
+		for (long currentMax = max.get(); value > currentMax; currentMax = max.get()) {
+			if (max.compareAndSet(currentMax, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 * 
+	 * @return The number of values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the biggest recorded value.
+	 * 
+	 * @return The biggest value, or 0 if none were recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the average of the recorded values.
+	 * 
+	 * @return The average, or 0 if none were recorded.
+	 */
+	public double getMean() {
+		long currentCount = count.get();
+		return currentCount == 0 ? 0 : (double) total.get() / currentCount;
+	}
+
+	/**
+	 * Get the value that a percentage of the recorded values are at or below.
+	 * 
+	 * @param percentile The percentage, from 0 to 100.
+	 * @return The highest value in the bucket holding the percentile, or 0 if
+	 *         none were recorded.
+	 * @throws IllegalArgumentException If the percentage is not between 0 and
+	 *                                  100.
+	 */
+	public long getValueAtPercentile(double percentile) throws IllegalArgumentException {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException(String.format("Percentile %s is not between 0 and 100!", percentile));
+		}
+
+		long[] snapshot = new long[BUCKETS];
+		long snapshotCount = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			snapshotCount += snapshot[i];
+		}
+
+		long target = Math.max(1, (long) Math.ceil(snapshotCount * percentile / 100)), seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+
+			if (seen >= target) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Remove every recorded value. Values recorded while this runs may be kept
+	 * or removed.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @hidden
+	 * @param value A non-negative value.
+	 * @return The bucket holding the value.
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+				+ (int) (value >>> exponent - SUB_BUCKET_BITS & SUB_BUCKETS - 1);
+	}
+
+	/**
+	 * @hidden
+	 * @param bucket A bucket.
+	 * @return The highest value that the bucket holds.
+	 */
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
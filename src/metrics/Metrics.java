@@ -0,0 +1,79 @@
+package metrics;
+
+/**
+ * An interface for being told about postings to bank accounts, their
+ * rejections, and the sizes of ledgers and joint accounts. Every method does
+ * nothing by default, so an implementation only overrides what it measures.
+ * 
+ * The methods are called on the posting threads, so they must be thread-safe
+ * and should return quickly. Timing a posting costs more than the posting
+ * itself on some machines, so only one posting in every
+ * {@link #getSampleInterval()} is timed; the counts are exact.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public interface Metrics {
+	/**
+	 * Metrics that measure nothing. Postings skip every measurement when these
+	 * are used.
+	 */
+	Metrics NONE = new Metrics() {
+	};
+
+	/**
+	 * Get how many postings share one latency measurement, on average.
+	 * 
+	 * @return A power of two; 1 times every posting.
+	 */
+	default int getSampleInterval() {
+		return 64;
+	}
+
+	/**
+	 * Called after transactions were added to a bank account.
+	 * 
+	 * @param currency     The currency of the bank account.
+	 * @param transactions The number of transactions that were added.
+	 */
+	default void posted(String currency, int transactions) {
+	}
+
+	/**
+	 * Called with the time taken by a sampled posting, from the start of its
+	 * balance check until it was in the ledger and every listener was told.
+	 * 
+	 * @param currency The currency of the bank account.
+	 * @param nanos    The time taken in nanoseconds.
+	 */
+	default void postingLatency(String currency, long nanos) {
+	}
+
+	/**
+	 * Called when a transaction was rejected because its credit was bigger than
+	 * the balance.
+	 * 
+	 * @param currency The currency of the bank account.
+	 * @param credit   The credit in minor units.
+	 * @param balance  The balance in minor units.
+	 */
+	default void rejected(String currency, long credit, long balance) {
+	}
+
+	/**
+	 * Called with the size of a ledger after transactions were added to it.
+	 * 
+	 * @param size The number of transactions in the ledger.
+	 */
+	default void ledgerSize(int size) {
+	}
+
+	/**
+	 * Called with the number of holders of a joint account after a user was
+	 * added to it.
+	 * 
+	 * @param holders The number of holders.
+	 */
+	default void jointAccountSize(int holders) {
+	}
+}
@@ -0,0 +1,177 @@
+package metrics;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics that are kept in memory: a latency histogram of the sampled
+ * postings, posting and rejection counters for each currency, and gauges of the
+ * largest ledger and joint account seen. Nothing on the posting path locks, so
+ * the metrics can be read while postings are being measured.
+ * 
+ * The counters are striped, so threads that post in the same currency at the
+ * same time mostly add to different cells, and reading a count adds up the
+ * cells. Postings to bank accounts without a currency are counted under the
+ * empty string.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class PostingMetrics implements Metrics {
+	private static final String NO_CURRENCY = "";
+
+	private final int sampleInterval;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final ConcurrentHashMap<String, LongAdder> postings = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentHashMap<String, LongAdder> rejections = new ConcurrentHashMap<String, LongAdder>();
+	private final AtomicInteger largestLedgerSize = new AtomicInteger(),
+			largestJointAccountSize = new AtomicInteger();
+
+	/**
+	 * Create metrics that time one posting in every 64.
+	 */
+	public PostingMetrics() {
+		this(64);
+	}
+
+	/**
+	 * Create metrics that time one posting in every <code>sampleInterval</code>.
+	 * 
+	 * @param sampleInterval How many postings share one latency measurement.
+	 * @throws IllegalArgumentException If the interval is not a power of two.
+	 */
+	public PostingMetrics(int sampleInterval) throws IllegalArgumentException {
+		if (sampleInterval <= 0 || Integer.bitCount(sampleInterval) != 1) {
+			throw new IllegalArgumentException(
+					String.format("Sample interval %d is not a power of two!", sampleInterval));
+		}
+
+		this.sampleInterval = sampleInterval;
+	}
+
+	@Override
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	@Override
+	public void posted(String currency, int transactions) {
+		counter(postings, currency).add(transactions);
+	}
+
+	@Override
+	public void postingLatency(String currency, long nanos) {
+		latencies.record(nanos);
+	}
+
+	@Override
+	public void rejected(String currency, long credit, long balance) {
+		counter(rejections, currency).increment();
+	}
+
+	@Override
+	public void ledgerSize(int size) {
+		raise(largestLedgerSize, size);
+	}
+
+	@Override
+	public void jointAccountSize(int holders) {
+		raise(largestJointAccountSize, holders);
+	}
+
+	/**
+	 * Get the histogram of the sampled posting latencies in nanoseconds.
+	 * 
+	 * @return The latency histogram.
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Get the currencies that have been posted or rejected in.
+	 * 
+	 * @return A new set of the currencies, in order.
+	 */
+	public Set<String> getCurrencies() {
+		TreeSet<String> currencies = new TreeSet<String>(postings.keySet());
+		currencies.addAll(rejections.keySet());
+		return currencies;
+	}
+
+	/**
+	 * Get the number of transactions added to accounts in a currency.
+	 * 
+	 * @param currency The currency, or null for bank accounts without one.
+	 * @return The number of postings.
+	 */
+	public long getPostings(String currency) {
+		LongAdder counter = postings.get(currency == null ? NO_CURRENCY : currency);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Get the number of transactions rejected by accounts in a currency.
+	 * 
+	 * @param currency The currency, or null for bank accounts without one.
+	 * @return The number of rejections.
+	 */
+	public long getRejections(String currency) {
+		LongAdder counter = rejections.get(currency == null ? NO_CURRENCY : currency);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Get the size of the largest ledger seen by a sampled posting.
+	 * 
+	 * @return The number of transactions in the largest ledger.
+	 */
+	public int getLargestLedgerSize() {
+		return largestLedgerSize.get();
+	}
+
+	/**
+	 * Get the number of holders of the largest joint account.
+	 * 
+	 * @return The number of holders.
+	 */
+	public int getLargestJointAccountSize() {
+		return largestJointAccountSize.get();
+	}
+
+	/**
+	 * @hidden
+	 * @param counters The counters of each currency.
+	 * @param currency The currency, or null for bank accounts without one.
+	 * @return The counter of the currency.
+	 */
+	private static LongAdder counter(ConcurrentHashMap<String, LongAdder> counters, String currency) {
+		String key = currency == null ? NO_CURRENCY : currency;
+		LongAdder counter = counters.get(key);
+
+		// Most postings find their counter, so the map is only locked for a new
+		// currency.
+		if (counter == null) {
+			counter = counters.computeIfAbsent(key, ignored -> new LongAdder());
+		}
+
+		return counter;
+	}
+
+	/**
+	 * @hidden
+	 * @param gauge The gauge.
+	 * @param value A value that the gauge is raised to if it is bigger.
+	 */
+	private static void raise(AtomicInteger gauge, int value) {
+		// Most calls do not raise the gauge, so it is only written when needed.
+		for (int current = gauge.get(); value > current; current = gauge.get()) {
+			if (gauge.compareAndSet(current, value)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,8 @@
+/**
+ * Classes for measuring how long postings take, how often they are rejected and
+ * how large ledgers and joint accounts grow.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package metrics;
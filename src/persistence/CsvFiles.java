@@ -0,0 +1,731 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import makingtransactions.bankaccounts.AccountRegistry;
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.bankaccounts.JointAccount;
+import makingtransactions.bankaccounts.SingleAccount;
+import makingtransactions.ledgers.ColumnarLedger;
+import makingtransactions.ledgers.LedgerView;
+import userservice.User;
+
+/**
+ * Import and export of users, their bank accounts and the transactions of those
+ * accounts as three CSV files in one directory. The files are streamed through
+ * a fixed buffer in both directions, so a file of any size is read and written
+ * in the same amount of memory apart from the ledgers being built, and numbers
+ * are read and written straight from their bytes without creating strings.
+ * 
+ * Amounts are written in minor units. Text is quoted as described in RFC 4180
+ * when needed; an empty field is <code>null</code> and a quoted empty field is
+ * an empty string. The email addresses, phone numbers and holders of a row are
+ * separated by semicolons, and null addresses and numbers are left out.
+ * Transactions refer to their account by its institution, transit and account
+ * numbers, so those must be unique.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class CsvFiles {
+	/**
+	 * The name of the file holding the users.
+	 */
+	public static final String USERS_FILE = "users.csv";
+
+	/**
+	 * The name of the file holding the bank accounts.
+	 */
+	public static final String ACCOUNTS_FILE = "accounts.csv";
+
+	/**
+	 * The name of the file holding the transactions.
+	 */
+	public static final String TRANSACTIONS_FILE = "transactions.csv";
+
+	private static final String USERS_HEADER = "user_id,name,age,email_addresses,phone_numbers";
+	private static final String ACCOUNTS_HEADER = "type,institution_number,transit_number,account_number,"
+			+ "account_name,currency,balance,opening_balance,holder_ids";
+	private static final String TRANSACTIONS_HEADER = "institution_number,transit_number,account_number,"
+			+ "transaction_id,debit,credit,timestamp,transaction_name";
+	private static final String SINGLE_ACCOUNT = "single", JOINT_ACCOUNT = "joint";
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte SEPARATOR = ',', LIST_SEPARATOR = ';', QUOTE = '"';
+
+	/**
+	 * @hidden
+	 */
+	private CsvFiles() {
+	}
+
+	/**
+	 * Write users, every bank account they hold, the other holders of those
+	 * accounts and all of their transactions to CSV files in a directory. User
+	 * IDs must be unique.
+	 * 
+	 * @param directory The directory to write the files to, which is created if
+	 *                  needed.
+	 * @param users     The users to be exported.
+	 * @throws IOException              If a file cannot be written.
+	 * @throws IllegalArgumentException If two users have the same ID, or an
+	 *                                  email address or phone number contains a
+	 *                                  semicolon.
+	 */
+	public static void write(Path directory, Collection<User> users) throws IOException, IllegalArgumentException {
+		LinkedHashSet<User> allUsers = new LinkedHashSet<User>(users);
+		LinkedHashSet<BankAccount> bankAccounts = new LinkedHashSet<BankAccount>();
+		Holdings.collect(allUsers, bankAccounts);
+		Files.createDirectories(directory);
+
+		try (Output output = new Output(directory.resolve(USERS_FILE))) {
+			output.putHeader(USERS_HEADER);
+
+			for (User user : allUsers) {
+				output.putLong(user.getUserId());
+				output.putString(user.getName());
+				output.putLong(user.getAge());
+				output.putList(user.getEmailAddresses());
+				output.putList(user.getPhoneNumbers());
+				output.endRow();
+			}
+		}
+
+		try (Output output = new Output(directory.resolve(ACCOUNTS_FILE))) {
+			output.putHeader(ACCOUNTS_HEADER);
+
+			for (BankAccount bankAccount : bankAccounts) {
+				output.putString(bankAccount instanceof JointAccount ? JOINT_ACCOUNT : SINGLE_ACCOUNT);
+				output.putLong(bankAccount.getInstitutionNumber());
+				output.putLong(bankAccount.getTransitNumber());
+				output.putLong(bankAccount.getAccountNumber());
+				output.putString(bankAccount.getAccountName());
+				output.putString(bankAccount.getCurrency());
+				output.putLong(bankAccount.getBalanceMinorUnits());
+				output.putLong(bankAccount.getOpeningBalanceMinorUnits());
+				output.putUserIds(Holdings.holders(bankAccount));
+				output.endRow();
+			}
+		}
+
+		try (Output output = new Output(directory.resolve(TRANSACTIONS_FILE))) {
+			output.putHeader(TRANSACTIONS_HEADER);
+
+			for (BankAccount bankAccount : bankAccounts) {
+				LedgerView transactions = bankAccount.getTransactions();
+				int institutionNumber = bankAccount.getInstitutionNumber(),
+						transitNumber = bankAccount.getTransitNumber(), accountNumber = bankAccount.getAccountNumber();
+
+				for (int i = 0, count = transactions.size(); i < count; i++) {
+					output.putLong(institutionNumber);
+					output.putLong(transitNumber);
+					output.putLong(accountNumber);
+					output.putLong(transactions.getTransactionId(i));
+					output.putLong(transactions.getDebitMinorUnits(i));
+					output.putLong(transactions.getCreditMinorUnits(i));
+					output.putLong(transactions.getTimestamp(i));
+					output.putString(transactions.getTransactionName(i));
+					output.endRow();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Import the users, bank accounts and transactions in the CSV files of a
+	 * directory. The balance of each account is the one in its row; the
+	 * transactions only fill in its ledger.
+	 * 
+	 * @param directory The directory holding the files.
+	 * @return An <code>ArrayList</code> of the imported users.
+	 * @throws IOException If a file cannot be read or a row is not valid.
+	 */
+	public static ArrayList<User> read(Path directory) throws IOException {
+		ArrayList<User> users = new ArrayList<User>();
+		HashMap<Integer, User> userIds = new HashMap<Integer, User>();
+
+		try (Input input = new Input(directory.resolve(USERS_FILE), USERS_HEADER)) {
+			while (input.nextRow()) {
+				int userId = input.getInt();
+				String name = input.getString(false);
+				User user = new User(name, input.getInt(), userId);
+
+				for (String emailAddress : input.getList()) {
+					user.addEmail(emailAddress);
+				}
+
+				for (String phoneNumber : input.getList()) {
+					user.addPhoneNumber(phoneNumber);
+				}
+
+				input.endRow();
+
+				if (userIds.put(userId, user) != null) {
+					throw input.error(String.format("repeats the user ID %d", userId));
+				}
+
+				users.add(user);
+			}
+		}
+
+		AccountRegistry registry = new AccountRegistry();
+		IdentityHashMap<BankAccount, Long> openingBalances = new IdentityHashMap<BankAccount, Long>();
+
+		try {
+			try (Input input = new Input(directory.resolve(ACCOUNTS_FILE), ACCOUNTS_HEADER)) {
+				while (input.nextRow()) {
+					String type = input.getString(false);
+					int institutionNumber = input.getInt(), transitNumber = input.getInt(),
+							accountNumber = input.getInt();
+					String accountName = input.getString(false), currency = input.getString(false);
+					long balance = input.getLong(), openingBalance = input.getLong();
+					int[] holderIds = input.getIds();
+					input.endRow();
+
+					if (holderIds.length == 0) {
+						throw input.error("has an account without holders");
+					}
+
+					User[] holders = new User[holderIds.length];
+
+					for (int i = 0; i < holders.length; i++) {
+						holders[i] = userIds.get(holderIds[i]);
+
+						if (holders[i] == null) {
+							throw input.error(String.format("refers to the unknown user ID %d", holderIds[i]));
+						}
+					}
+
+					BankAccount bankAccount;
+
+					try {
+						if (JOINT_ACCOUNT.equals(type)) {
+							JointAccount jointAccount = new JointAccount(holders[0], accountName, currency,
+									transitNumber, institutionNumber, accountNumber);
+
+							jointAccount.addUsers(Arrays.asList(holders).subList(1, holders.length));
+
+							bankAccount = jointAccount;
+						} else if (SINGLE_ACCOUNT.equals(type) && holders.length == 1) {
+							bankAccount = new SingleAccount(holders[0], accountName, currency, transitNumber,
+									institutionNumber, accountNumber);
+						} else {
+							throw input.error("does not have a single account with one holder or a joint account");
+						}
+
+						bankAccount.setBalanceMinorUnits(balance);
+						registry.register(bankAccount);
+					} catch (IllegalArgumentException | ArithmeticException e) {
+						throw input.error("has an account that cannot be imported", e);
+					}
+
+					openingBalances.put(bankAccount, openingBalance);
+				}
+			}
+
+			IdentityHashMap<BankAccount, ColumnarLedger> ledgers = new IdentityHashMap<BankAccount, ColumnarLedger>();
+
+			try (Input input = new Input(directory.resolve(TRANSACTIONS_FILE), TRANSACTIONS_HEADER)) {
+				BankAccount bankAccount = null;
+				ColumnarLedger ledger = null;
+
+				while (input.nextRow()) {
+					int institutionNumber = input.getInt(), transitNumber = input.getInt(),
+							accountNumber = input.getInt(), transactionId = input.getInt();
+					long debit = input.getLong(), credit = input.getLong(), timestamp = input.getLong();
+					String transactionName = input.getString(true);
+					input.endRow();
+
+					if (debit < 0 || credit < 0) {
+						throw input.error("has a negative amount");
+					}
+
+					// Transactions are usually grouped by account, so the last one
+					// found is checked first.
+					if (bankAccount == null || accountNumber != bankAccount.getAccountNumber()
+							|| transitNumber != bankAccount.getTransitNumber()
+							|| institutionNumber != bankAccount.getInstitutionNumber()) {
+						bankAccount = registry.get(institutionNumber, transitNumber, accountNumber);
+
+						if (bankAccount == null) {
+							throw input.error("refers to an unknown account");
+						}
+
+						ledger = ledgers.get(bankAccount);
+
+						if (ledger == null) {
+							ledger = new ColumnarLedger();
+							ledgers.put(bankAccount, ledger);
+						}
+					}
+
+					ledger.append(transactionName, transactionId, debit, credit, timestamp);
+				}
+			}
+
+			for (Map.Entry<BankAccount, ColumnarLedger> entry : ledgers.entrySet()) {
+				entry.getKey().restoreLedger(entry.getValue(), openingBalances.get(entry.getKey()));
+			}
+		} finally {
+			for (BankAccount bankAccount : openingBalances.keySet()) {
+				registry.unregister(bankAccount);
+			}
+		}
+
+		return users;
+	}
+
+	/**
+	 * Writes the rows of a CSV file through a fixed buffer.
+	 * 
+	 * @hidden
+	 */
+	private static final class Output implements Closeable {
+		private final FileChannel channel;
+		private final byte[] bytes = new byte[BUFFER_SIZE];
+		private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		private int position;
+		private boolean rowStarted;
+
+		private Output(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		private void putHeader(String header) throws IOException {
+			putAscii(header);
+			endRow();
+		}
+
+		private void putLong(long value) throws IOException {
+			separate();
+
+			if (value == Long.MIN_VALUE) {
+				putAscii(Long.toString(value));
+				return;
+			}
+
+			ensure(20);
+
+			if (value < 0) {
+				bytes[position++] = '-';
+				value = -value;
+			}
+
+			int end = position + digits(value);
+
+			for (int i = end - 1; i >= position; i--) {
+				bytes[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+
+			position = end;
+		}
+
+		private void putString(String value) throws IOException {
+			separate();
+
+			if (value == null) {
+				return;
+			}
+
+			boolean quoted = value.isEmpty();
+
+			for (int i = 0; i < value.length() && !quoted; i++) {
+				char c = value.charAt(i);
+				quoted = c == SEPARATOR || c == QUOTE || c == '\n' || c == '\r';
+			}
+
+			if (quoted) {
+				putByte(QUOTE);
+			}
+
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+
+				if (c >= 0x80) {
+					// Only text outside of ASCII is encoded through a new array.
+					for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+						putByte(b);
+
+						if (b == QUOTE) {
+							putByte(QUOTE);
+						}
+					}
+
+					break;
+				}
+
+				putByte((byte) c);
+
+				if (c == QUOTE) {
+					putByte(QUOTE);
+				}
+			}
+
+			if (quoted) {
+				putByte(QUOTE);
+			}
+		}
+
+		private void putList(List<String> values) throws IOException, IllegalArgumentException {
+			StringBuilder list = new StringBuilder();
+
+			// A null entry cannot be told apart from an empty list, so it is skipped.
+			for (String value : values) {
+				if (value == null) {
+					continue;
+				} else if (value.indexOf(LIST_SEPARATOR) >= 0) {
+					throw new IllegalArgumentException(
+							String.format("\"%s\" cannot be exported because it contains a semicolon!", value));
+				}
+
+				if (list.length() > 0) {
+					list.append(';');
+				}
+
+				list.append(value);
+			}
+
+			putString(list.length() == 0 ? null : list.toString());
+		}
+
+		private void putUserIds(List<User> users) throws IOException {
+			putLong(users.get(0).getUserId());
+
+			for (int i = 1; i < users.size(); i++) {
+				putByte(LIST_SEPARATOR);
+				rowStarted = false;
+				putLong(users.get(i).getUserId());
+			}
+		}
+
+		private void putAscii(String text) throws IOException {
+			for (int i = 0; i < text.length(); i++) {
+				putByte((byte) text.charAt(i));
+			}
+		}
+
+		private void endRow() throws IOException {
+			putByte((byte) '\n');
+			rowStarted = false;
+		}
+
+		private void separate() throws IOException {
+			if (rowStarted) {
+				putByte(SEPARATOR);
+			}
+
+			rowStarted = true;
+		}
+
+		private void putByte(byte b) throws IOException {
+			ensure(1);
+			bytes[position++] = b;
+		}
+
+		private void ensure(int count) throws IOException {
+			if (BUFFER_SIZE - position < count) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.clear().limit(position);
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			position = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+
+		private static int digits(long value) {
+			int digits = 1;
+
+			for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+				digits++;
+			}
+
+			return digits;
+		}
+	}
+
+	/**
+	 * Reads the rows of a CSV file through a fixed buffer. A whole row is kept in
+	 * the buffer while its fields are read, so a row cannot be longer than the
+	 * buffer.
+	 * 
+	 * @hidden
+	 */
+	private static final class Input implements Closeable {
+		private final Path file;
+		private final FileChannel channel;
+		private final byte[] bytes = new byte[BUFFER_SIZE], unquoted = new byte[BUFFER_SIZE];
+		private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		private final NameCache names = new NameCache();
+		private int limit, rowStart, rowEnd = -1, rowLimit, cursor;
+		private long line, nextLine = 1;
+		private boolean endOfFile;
+
+		private Input(Path file, String header) throws IOException {
+			this.file = file;
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+
+			try {
+				if (!nextRow() || !Arrays.equals(bytes, rowStart, rowLimit,
+						header.getBytes(StandardCharsets.US_ASCII), 0, header.length())) {
+					throw new IOException(String.format("%s does not start with the header \"%s\"!", file, header));
+				}
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		private boolean nextRow() throws IOException {
+			// Blank lines are skipped, and line counts the lines of the file, so a
+			// row with quoted line breaks moves it by more than one.
+			do {
+				int scan = rowStart = rowEnd + 1;
+				boolean quoted = false;
+				line = nextLine;
+
+				while (true) {
+					for (; scan < limit; scan++) {
+						byte b = bytes[scan];
+
+						if (b == QUOTE) {
+							quoted = !quoted;
+						} else if (b == '\n') {
+							if (!quoted) {
+								break;
+							}
+
+							nextLine++;
+						}
+					}
+
+					if (scan < limit) {
+						break;
+					} else if (endOfFile) {
+						if (rowStart >= limit) {
+							return false;
+						}
+
+						break;
+					}
+
+					// Move the part of the row that has been read to the start of the
+					// buffer and read more after it.
+					if (rowStart == 0 && limit == BUFFER_SIZE) {
+						throw error(String.format("is longer than %d bytes", BUFFER_SIZE));
+					}
+
+					System.arraycopy(bytes, rowStart, bytes, 0, limit - rowStart);
+					scan -= rowStart;
+					limit -= rowStart;
+					rowStart = 0;
+					buffer.clear().position(limit);
+					endOfFile = channel.read(buffer) < 0;
+					limit = buffer.position();
+				}
+
+				nextLine++;
+				rowEnd = scan;
+				rowLimit = rowEnd > rowStart && bytes[rowEnd - 1] == '\r' ? rowEnd - 1 : rowEnd;
+				cursor = rowStart;
+			} while (rowLimit == rowStart);
+
+			return true;
+		}
+
+		private long getLong() throws IOException {
+			int end = fieldEnd(), i = cursor;
+			boolean negative = i < end && bytes[i] == '-';
+
+			if (negative) {
+				i++;
+			}
+
+			if (i == end) {
+				throw error("has a missing number");
+			}
+
+			long value = 0;
+
+			for (; i < end; i++) {
+				int digit = bytes[i] - '0';
+
+				if (digit < 0 || digit > 9) {
+					throw error("has a field that is not a number");
+				} else if (value < (Long.MIN_VALUE + digit) / 10) {
+					throw error("has a number that is too big");
+				}
+
+				// The value is built as a negative number so that the smallest long
+				// can be read.
+				value = value * 10 - digit;
+			}
+
+			cursor = end + 1;
+
+			if (!negative && value == Long.MIN_VALUE) {
+				throw error("has a number that is too big");
+			}
+
+			return negative ? value : -value;
+		}
+
+		private int getInt() throws IOException {
+			long value = getLong();
+
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw error("has a number that is too big");
+			}
+
+			return (int) value;
+		}
+
+		private String getString(boolean cached) throws IOException {
+			checkField();
+
+			if (cursor == rowLimit || bytes[cursor] == SEPARATOR) {
+				cursor++;
+				return null;
+			} else if (bytes[cursor] != QUOTE) {
+				int start = cursor, end = fieldEnd();
+
+				for (int i = start; i < end; i++) {
+					if (bytes[i] == QUOTE) {
+						throw error("has a quote inside a field that is not quoted");
+					}
+				}
+
+				cursor = end + 1;
+				return cached ? names.name(bytes, start, end - start)
+						: new String(bytes, start, end - start, StandardCharsets.UTF_8);
+			}
+
+			int length = 0;
+
+			for (int i = cursor + 1;; i++) {
+				if (i >= rowLimit) {
+					throw error("has a quoted field without a closing quote");
+				} else if (bytes[i] != QUOTE) {
+					unquoted[length++] = bytes[i];
+				} else if (i + 1 < rowLimit && bytes[i + 1] == QUOTE) {
+					unquoted[length++] = QUOTE;
+					i++;
+				} else if (i + 1 == rowLimit || bytes[i + 1] == SEPARATOR) {
+					cursor = i + 2;
+					break;
+				} else {
+					throw error("has text after a closing quote");
+				}
+			}
+
+			return cached ? names.name(unquoted, 0, length) : new String(unquoted, 0, length, StandardCharsets.UTF_8);
+		}
+
+		private ArrayList<String> getList() throws IOException {
+			String value = getString(false);
+			return value == null ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(value.split(";", -1)));
+		}
+
+		private int[] getIds() throws IOException {
+			checkField();
+			int end = fieldEnd(), count = cursor == end ? 0 : 1;
+
+			for (int i = cursor; i < end; i++) {
+				if (bytes[i] == LIST_SEPARATOR) {
+					count++;
+				}
+			}
+
+			int[] ids = new int[count];
+			int fieldLimit = rowLimit;
+
+			// Each ID is read as its own field by ending the row at the field.
+			rowLimit = end;
+
+			try {
+				for (int i = 0; i < count; i++) {
+					int idEnd = cursor;
+
+					while (idEnd < end && bytes[idEnd] != LIST_SEPARATOR) {
+						idEnd++;
+					}
+
+					rowLimit = idEnd;
+					ids[i] = getInt();
+					rowLimit = end;
+				}
+			} finally {
+				rowLimit = fieldLimit;
+			}
+
+			cursor = end + 1;
+			return ids;
+		}
+
+		private void endRow() throws IOException {
+			if (cursor <= rowLimit) {
+				throw error("has too many fields");
+			}
+		}
+
+		private IOException error(String problem) {
+			return error(problem, null);
+		}
+
+		private IOException error(String problem, Throwable cause) {
+			return new IOException(String.format("Line %d of %s %s!", line, file, problem), cause);
+		}
+
+		private int fieldEnd() throws IOException {
+			checkField();
+			int end = cursor;
+
+			while (end < rowLimit && bytes[end] != SEPARATOR) {
+				end++;
+			}
+
+			return end;
+		}
+
+		private void checkField() throws IOException {
+			if (cursor > rowLimit) {
+				throw error("has too few fields");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.bankaccounts.JointAccount;
+import makingtransactions.bankaccounts.SingleAccount;
+import userservice.User;
+
+/**
+ * Finds the bank accounts and holders that a Snapshot or CSV export has to
+ * include for a group of users.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+final class Holdings {
+	/**
+	 * @hidden
+	 */
+	private Holdings() {
+	}
+
+	/**
+	 * Add every bank account held by the users, and every other holder of those
+	 * accounts, until nothing new is found.
+	 * 
+	 * @param allUsers     The users to start from, which the other holders are
+	 *                     added to.
+	 * @param bankAccounts The set that the bank accounts are added to.
+	 * @throws IllegalArgumentException If two users have the same ID.
+	 */
+	static void collect(LinkedHashSet<User> allUsers, LinkedHashSet<BankAccount> bankAccounts)
+			throws IllegalArgumentException {
+		ArrayList<User> pending = new ArrayList<User>(allUsers);
+
+		while (!pending.isEmpty()) {
+			User user = pending.remove(pending.size() - 1);
+
+			for (BankAccount bankAccount : user.getBankAccountSet()) {
+				if (bankAccounts.add(bankAccount)) {
+					for (User holder : holders(bankAccount)) {
+						if (allUsers.add(holder)) {
+							pending.add(holder);
+						}
+					}
+				}
+			}
+		}
+
+		HashMap<Integer, User> userIds = new HashMap<Integer, User>();
+
+		for (User user : allUsers) {
+			if (userIds.put(user.getUserId(), user) != null) {
+				throw new IllegalArgumentException(String.format("More than one user has the ID %d!", user.getUserId()));
+			}
+		}
+	}
+
+	/**
+	 * Get the holders of a bank account.
+	 * 
+	 * @param bankAccount A bank account.
+	 * @return The holders of the account.
+	 */
+	static List<User> holders(BankAccount bankAccount) {
+		if (bankAccount instanceof JointAccount) {
+			return ((JointAccount) bankAccount).getUserList();
+		}
+
+		ArrayList<User> holders = new ArrayList<User>();
+		holders.add(((SingleAccount) bankAccount).getUserHolder());
+		return holders;
+	}
+}
@@ -0,0 +1,50 @@
+package persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A small cache of the Strings created for UTF-8 names, so that a reader which
+ * sees the same transaction names over and over does not create a new String
+ * each time. Names are placed by an FNV-1a hash of their bytes, and a name
+ * replaces the one in its place when they differ.
+ * 
+ * A cache is not safe to use from several threads at once; each reader should
+ * have its own.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class NameCache {
+	private static final int SIZE = 1024;
+
+	private final String[] names = new String[SIZE];
+	private final byte[][] nameBytes = new byte[SIZE][];
+
+	/**
+	 * Get the String for a UTF-8 name, reusing the one created the last time
+	 * the same bytes were seen.
+	 * 
+	 * @param bytes  The array holding the name.
+	 * @param offset The position of the name in the array.
+	 * @param length The length of the name in bytes.
+	 * @return The name.
+	 */
+	public String name(byte[] bytes, int offset, int length) {
+		int hash = 0x811C9DC5;
+
+		for (int i = offset; i < offset + length; i++) {
+			hash = (hash ^ bytes[i]) * 0x01000193;
+		}
+
+		int index = hash & SIZE - 1;
+		byte[] cachedBytes = nameBytes[index];
+
+		if (cachedBytes == null || !Arrays.equals(cachedBytes, 0, cachedBytes.length, bytes, offset, offset + length)) {
+			nameBytes[index] = Arrays.copyOfRange(bytes, offset, offset + length);
+			names[index] = new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+
+		return names[index];
+	}
+}
@@ -0,0 +1,471 @@
+package persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.bankaccounts.JointAccount;
+import makingtransactions.bankaccounts.SingleAccount;
+import makingtransactions.ledgers.ColumnarLedger;
+import makingtransactions.ledgers.LazyLedger;
+import makingtransactions.ledgers.LedgerView;
+import userservice.User;
+
+/**
+ * A versioned binary file holding users, their bank accounts and the ledgers of
+ * those accounts. Loading a snapshot is much faster than replaying a journal:
+ * the file is read through memory-mapped buffers and each ledger is only
+ * decoded the first time it is used.
+ * 
+ * The file starts with the ledgers, followed by the users and accounts. A
+ * snapshot should be written while no transactions are being added, so that
+ * each balance matches its ledger. It is written to a temporary file that then
+ * replaces the old one, so a snapshot can be written over the file it was read
+ * from.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public final class Snapshot {
+	private static final int MAGIC = 0x4F4F4241, VERSION = 2, HEADER_SIZE = 16;
+	private static final byte SINGLE_ACCOUNT = 0, JOINT_ACCOUNT = 1;
+	private static final int WINDOW_SIZE = 1 << 28;
+
+	/**
+	 * @hidden
+	 */
+	private Snapshot() {
+	}
+
+	/**
+	 * Write users, every bank account they hold and the other holders of those
+	 * accounts to a snapshot file. User IDs must be unique. The file is only
+	 * replaced once the whole snapshot is on disk.
+	 * 
+	 * @param file  The file to be written.
+	 * @param users The users to be saved.
+	 * @throws IOException              If the file cannot be written.
+	 * @throws IllegalArgumentException If two users have the same ID.
+	 */
+	public static void write(Path file, Collection<User> users) throws IOException, IllegalArgumentException {
+		LinkedHashSet<User> allUsers = new LinkedHashSet<User>(users);
+		LinkedHashSet<BankAccount> bankAccounts = new LinkedHashSet<BankAccount>();
+		Holdings.collect(allUsers, bankAccounts);
+
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output output = new Output(channel, HEADER_SIZE);
+			IdentityHashMap<BankAccount, long[]> ledgerPositions = new IdentityHashMap<BankAccount, long[]>();
+
+			for (BankAccount bankAccount : bankAccounts) {
+				LedgerView transactions = bankAccount.getTransactions();
+				long start = output.position();
+				int count = transactions.size();
+
+				for (int i = 0; i < count; i++) {
+					output.putInt(transactions.getTransactionId(i));
+					output.putLong(transactions.getDebitMinorUnits(i));
+					output.putLong(transactions.getCreditMinorUnits(i));
+					output.putLong(transactions.getTimestamp(i));
+					output.putString(transactions.getTransactionName(i));
+				}
+
+				ledgerPositions.put(bankAccount, new long[] { start, output.position() - start, count });
+			}
+
+			long metadataPosition = output.position();
+			output.putInt(allUsers.size());
+
+			for (User user : allUsers) {
+				output.putInt(user.getUserId());
+				output.putInt(user.getAge());
+				output.putString(user.getName());
+				putStrings(output, user.getEmailAddresses());
+				putStrings(output, user.getPhoneNumbers());
+			}
+
+			output.putInt(bankAccounts.size());
+
+			for (BankAccount bankAccount : bankAccounts) {
+				List<User> holders = Holdings.holders(bankAccount);
+				long[] ledgerPosition = ledgerPositions.get(bankAccount);
+
+				output.putByte(bankAccount instanceof JointAccount ? JOINT_ACCOUNT : SINGLE_ACCOUNT);
+				output.putString(bankAccount.getAccountName());
+				output.putString(bankAccount.getCurrency());
+				output.putInt(bankAccount.getTransitNumber());
+				output.putInt(bankAccount.getInstitutionNumber());
+				output.putInt(bankAccount.getAccountNumber());
+				output.putLong(bankAccount.getBalanceMinorUnits());
+				output.putLong(bankAccount.getOpeningBalanceMinorUnits());
+				output.putInt(holders.size());
+
+				for (User holder : holders) {
+					output.putInt(holder.getUserId());
+				}
+
+				output.putLong(ledgerPosition[0]);
+				output.putLong(ledgerPosition[1]);
+				output.putInt((int) ledgerPosition[2]);
+			}
+
+			output.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(metadataPosition).flip();
+
+			while (header.hasRemaining()) {
+				channel.write(header, HEADER_SIZE - header.remaining());
+			}
+
+			channel.force(true);
+		}
+
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Load the users and bank accounts in a snapshot file. The file is mapped
+	 * into memory and closed before this returns. The ledgers are only decoded
+	 * from that mapping the first time each one is used, so they still come from
+	 * this file even if it was replaced in the meantime.
+	 * 
+	 * @param file The file to be read.
+	 * @return An <code>ArrayList</code> of the users in the snapshot.
+	 * @throws IOException If the file cannot be read or is not a snapshot.
+	 */
+	public static ArrayList<User> read(Path file) throws IOException {
+		MappedFile mappedFile;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			mappedFile = new MappedFile(file, channel);
+		}
+
+		Input header = new Input(mappedFile, 0);
+
+		if (mappedFile.size < HEADER_SIZE || header.getInt() != MAGIC) {
+			throw new IOException(String.format("%s is not a snapshot!", file));
+		} else if (header.getInt() != VERSION) {
+			throw new IOException(String.format("%s has an unsupported snapshot version!", file));
+		}
+
+		Input input = new Input(mappedFile, header.getLong());
+		int userCount = input.getInt();
+		ArrayList<User> users = new ArrayList<User>(userCount);
+		HashMap<Integer, User> userIds = new HashMap<Integer, User>();
+
+		for (int i = 0; i < userCount; i++) {
+			int userId = input.getInt(), age = input.getInt();
+			User user = new User(input.getString(), age, userId);
+
+			for (int j = input.getInt(); j > 0; j--) {
+				user.addEmail(input.getString());
+			}
+
+			for (int j = input.getInt(); j > 0; j--) {
+				user.addPhoneNumber(input.getString());
+			}
+
+			users.add(user);
+			userIds.put(userId, user);
+		}
+
+		for (int i = input.getInt(); i > 0; i--) {
+			byte type = input.getByte();
+			String accountName = input.getString(), currency = input.getString();
+			int transitNumber = input.getInt(), institutionNumber = input.getInt(), accountNumber = input.getInt();
+			long balance = input.getLong(), openingBalance = input.getLong();
+			User[] holders = new User[input.getInt()];
+
+			for (int j = 0; j < holders.length; j++) {
+				holders[j] = userIds.get(input.getInt());
+			}
+
+			BankAccount bankAccount;
+
+			if (type == JOINT_ACCOUNT) {
+				JointAccount jointAccount = new JointAccount(holders[0], accountName, currency, transitNumber,
+						institutionNumber, accountNumber);
+
+				jointAccount.addUsers(Arrays.asList(holders).subList(1, holders.length));
+
+				bankAccount = jointAccount;
+			} else {
+				bankAccount = new SingleAccount(holders[0], accountName, currency, transitNumber,
+						institutionNumber, accountNumber);
+			}
+
+			long ledgerPosition = input.getLong(), ledgerLength = input.getLong();
+			int ledgerSize = input.getInt();
+
+			bankAccount.setBalanceMinorUnits(balance);
+
+			if (ledgerSize > 0) {
+				bankAccount.restoreLedger(new LazyLedger(ledgerSize,
+						() -> mappedFile.loadLedger(ledgerPosition, ledgerLength, ledgerSize)), openingBalance);
+			}
+		}
+
+		return users;
+	}
+
+	/**
+	 * @hidden
+	 * @param output  The output to write to.
+	 * @param strings The strings to be written.
+	 * @throws IOException If the strings cannot be written.
+	 */
+	private static void putStrings(Output output, List<String> strings) throws IOException {
+		output.putInt(strings.size());
+
+		for (String string : strings) {
+			output.putString(string);
+		}
+	}
+
+	/**
+	 * A buffered writer for a file channel.
+	 * 
+	 * @hidden
+	 */
+	private static final class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+		private long flushedPosition;
+
+		private Output(FileChannel channel, long position) {
+			this.channel = channel;
+			this.flushedPosition = position;
+		}
+
+		private long position() {
+			return flushedPosition + buffer.position();
+		}
+
+		private void putByte(byte value) throws IOException {
+			ensure(1).put(value);
+		}
+
+		private void putInt(int value) throws IOException {
+			ensure(4).putInt(value);
+		}
+
+		private void putLong(long value) throws IOException {
+			ensure(8).putLong(value);
+		}
+
+		private void putString(String value) throws IOException {
+			if (value == null) {
+				putInt(-1);
+				return;
+			}
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+
+			if (bytes.length > buffer.capacity()) {
+				flush();
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+
+				while (large.hasRemaining()) {
+					flushedPosition += channel.write(large, flushedPosition);
+				}
+			} else {
+				ensure(bytes.length).put(bytes);
+			}
+		}
+
+		private ByteBuffer ensure(int size) throws IOException {
+			if (buffer.remaining() < size) {
+				flush();
+			}
+
+			return buffer;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+
+			while (buffer.hasRemaining()) {
+				flushedPosition += channel.write(buffer, flushedPosition);
+			}
+
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * A snapshot file mapped in windows, so that files bigger than one mapped
+	 * buffer can be read. A mapping stays valid after its file was closed or
+	 * replaced, so every lazy ledger of a snapshot reads the same windows
+	 * instead of keeping the file open. Reads do not move the windows'
+	 * positions, so ledgers can be loaded by several threads at once.
+	 * 
+	 * @hidden
+	 */
+	private static final class MappedFile {
+		private final Path file;
+		private final long size;
+		private final MappedByteBuffer[] windows;
+
+		private MappedFile(Path file, FileChannel channel) throws IOException {
+			this.file = file;
+			this.size = channel.size();
+			this.windows = new MappedByteBuffer[(int) ((size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+
+			for (int i = 0; i < windows.length; i++) {
+				long position = (long) i * WINDOW_SIZE;
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+			}
+		}
+
+		/**
+		 * @param position Where the ledger starts in the file.
+		 * @param length   The length of the ledger in bytes.
+		 * @param size     The number of transactions in the ledger.
+		 * @return The decoded ledger.
+		 */
+		private ColumnarLedger loadLedger(long position, long length, int size) {
+			try {
+				Input input = new Input(this, position);
+				String[] names = new String[size];
+				int[] ids = new int[size];
+				long[] debits = new long[size], credits = new long[size], timestamps = new long[size];
+
+				for (int i = 0; i < size; i++) {
+					ids[i] = input.getInt();
+					debits[i] = input.getLong();
+					credits[i] = input.getLong();
+					timestamps[i] = input.getLong();
+					names[i] = input.getString();
+				}
+
+				ColumnarLedger ledger = new ColumnarLedger();
+				ledger.appendAll(names, ids, debits, credits, timestamps);
+				return ledger;
+			} catch (IOException e) {
+				throw new UncheckedIOException(
+						String.format("The ledger at %d in %s cannot be read!", position, file), e);
+			}
+		}
+
+		private byte getByte(long position) throws IOException {
+			return window(position, 1).get((int) (position % WINDOW_SIZE));
+		}
+
+		private int getInt(long position) throws IOException {
+			MappedByteBuffer window = window(position, 4);
+			int index = (int) (position % WINDOW_SIZE);
+			return index + 4 <= window.limit() ? window.getInt(index)
+					: ByteBuffer.wrap(get(position, new byte[4])).getInt();
+		}
+
+		private long getLong(long position) throws IOException {
+			MappedByteBuffer window = window(position, 8);
+			int index = (int) (position % WINDOW_SIZE);
+			return index + 8 <= window.limit() ? window.getLong(index)
+					: ByteBuffer.wrap(get(position, new byte[8])).getLong();
+		}
+
+		/**
+		 * Copy bytes that may span several windows.
+		 * 
+		 * @param position Where the bytes start in the file.
+		 * @param bytes    The array to fill.
+		 * @return The filled array.
+		 * @throws IOException If the file ends before the last byte.
+		 */
+		private byte[] get(long position, byte[] bytes) throws IOException {
+			if (bytes.length > 0) {
+				window(position, bytes.length);
+			}
+
+			for (int copied = 0; copied < bytes.length;) {
+				long current = position + copied;
+				MappedByteBuffer window = windows[(int) (current / WINDOW_SIZE)];
+				int index = (int) (current % WINDOW_SIZE), count = Math.min(bytes.length - copied, window.limit() - index);
+
+				window.get(index, bytes, copied, count);
+				copied += count;
+			}
+
+			return bytes;
+		}
+
+		/**
+		 * @param position Where the read starts in the file.
+		 * @param length   The number of bytes to be read.
+		 * @return The window holding the first byte.
+		 * @throws IOException If the file ends before the last byte.
+		 */
+		private MappedByteBuffer window(long position, int length) throws IOException {
+			if (position < 0 || position > size - length) {
+				throw new IOException("The snapshot ends too early!");
+			}
+
+			return windows[(int) (position / WINDOW_SIZE)];
+		}
+	}
+
+	/**
+	 * A reader that keeps its own position in a mapped file.
+	 * 
+	 * @hidden
+	 */
+	private static final class Input {
+		private final MappedFile file;
+		private long position;
+
+		private Input(MappedFile file, long position) {
+			this.file = file;
+			this.position = position;
+		}
+
+		private byte getByte() throws IOException {
+			byte value = file.getByte(position);
+			position++;
+			return value;
+		}
+
+		private int getInt() throws IOException {
+			int value = file.getInt(position);
+			position += 4;
+			return value;
+		}
+
+		private long getLong() throws IOException {
+			long value = file.getLong(position);
+			position += 8;
+			return value;
+		}
+
+		private String getString() throws IOException {
+			int length = getInt();
+
+			if (length < 0) {
+				return null;
+			}
+
+			byte[] bytes = file.get(position, new byte[length]);
+			position += length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
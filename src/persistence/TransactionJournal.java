@@ -0,0 +1,779 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import events.EventChannel;
+import events.JournalWriteFailed;
+import makingtransactions.NegativeBalanceException;
+import makingtransactions.bankaccounts.AccountRegistry;
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.bankaccounts.PostingListener;
+import makingtransactions.bankaccounts.Transfer;
+
+/**
+ * An append-only journal that writes every transaction added to its bank
+ * accounts to segment files, so that balances and ledgers can be rebuilt after
+ * a restart.
+ * 
+ * Records are collected in memory and written by a background thread, which
+ * forces many records to disk with one <code>fsync</code> (A group commit). A
+ * group is written once it has enough records or its oldest record has waited
+ * for the latency bound. A new segment file is started when the current one
+ * reaches the size threshold.
+ * 
+ * A record takes its place in the journal while the posting lock of its
+ * account is held and before the balance changes, so the records of an account
+ * are in the order its balance changed, and a posting that cannot be journaled
+ * is not added. A batch of transactions added to one account with
+ * addTransactions is one record, and so is a Transfer with all of its legs. Waiting for the
+ * record to reach the disk happens after the lock was released. If a group
+ * cannot be written, its transactions have already been added, so the failure
+ * is published as a JournalWriteFailed event to the default EventChannel, and
+ * every later posting to a journaled account fails without being added.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class TransactionJournal implements PostingListener, Closeable {
+	private static final int RECORD_FIXED_SIZE = 8 + 4 + 8 + 8 + 8 + 4, BUFFER_SIZE = 1 << 20;
+
+	// The high byte of the size word marks the kind of record. A transfer holds
+	// its ID, timestamp and name, then the number of legs and the from key, to
+	// key and amount of each leg. A batch holds the key of its account and the
+	// number of transactions, then the ID, debit, credit, timestamp and name of
+	// each transaction.
+	private static final int SIZE_MASK = 0xFFFFFF, TRANSFER_RECORD = 1 << 24, BATCH_RECORD = 2 << 24;
+	private static final int TRANSFER_FIXED_SIZE = 4 + 8 + 4 + 4, LEG_SIZE = 8 + 8 + 8;
+	private static final int BATCH_FIXED_SIZE = 8 + 4, ENTRY_FIXED_SIZE = 4 + 8 + 8 + 8 + 4;
+	private static final String SEGMENT_PREFIX = "segment-", SEGMENT_SUFFIX = ".journal";
+
+	private final Path directory;
+	private final int groupSize;
+	private final long maxLatencyNanos, segmentSize;
+	private final boolean synchronous;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition work = lock.newCondition(), space = lock.newCondition(),
+			committed = lock.newCondition();
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE), flushing = ByteBuffer.allocate(BUFFER_SIZE);
+	private int activeCount;
+	private long appendedSequence, committedSequence, firstPendingNanos;
+	private boolean closed;
+	private IOException failure;
+
+	private FileChannel segment;
+	private int segmentNumber;
+	private final Thread flusher;
+
+	/**
+	 * Open a journal with a group size of 256 records, a latency bound of 5
+	 * milliseconds and 64 MiB segments. Every posting waits until its record is
+	 * on disk.
+	 * 
+	 * @param directory The directory holding the segment files.
+	 * @throws IOException If the directory cannot be read or created.
+	 */
+	public TransactionJournal(Path directory) throws IOException {
+		this(directory, 256, 5, 64L << 20, true);
+	}
+
+	/**
+	 * Open a journal.
+	 * 
+	 * @param directory        The directory holding the segment files.
+	 * @param groupSize        How many records are collected before they are
+	 *                         written without waiting for the latency bound.
+	 * @param maxLatencyMillis The longest time a record waits before it is
+	 *                         written.
+	 * @param segmentSize      The size in bytes after which a new segment file is
+	 *                         started.
+	 * @param synchronous      <code>true</code> if every posting should wait until
+	 *                         its record is on disk.
+	 * @throws IOException If the directory cannot be read or created.
+	 */
+	public TransactionJournal(Path directory, int groupSize, long maxLatencyMillis, long segmentSize,
+			boolean synchronous) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.groupSize = Math.max(1, groupSize);
+		this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+		this.segmentSize = segmentSize;
+		this.synchronous = synchronous;
+
+		ArrayList<Path> segments = segments(directory);
+
+		if (!segments.isEmpty()) {
+			segmentNumber = segmentNumber(segments.get(segments.size() - 1));
+		}
+
+		flusher = new Thread(this::flushLoop, "transaction-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Write every transaction added to a bank account from now on to the
+	 * journal.
+	 * 
+	 * @param bankAccount The bank account to be journaled.
+	 */
+	public void attach(BankAccount bankAccount) {
+		bankAccount.addPostingListener(this);
+	}
+
+	/**
+	 * Stop writing the transactions of a bank account to the journal.
+	 * 
+	 * @param bankAccount The bank account to stop journaling.
+	 */
+	public void detach(BankAccount bankAccount) {
+		bankAccount.removePostingListener(this);
+	}
+
+	/**
+	 * Add a record for a transaction to the journal without waiting for it to
+	 * be written.
+	 * 
+	 * @return The sequence number of the record.
+	 * @throws UncheckedIOException     If the journal failed to write to disk.
+	 * @throws IllegalStateException    If the journal is closed.
+	 * @throws IllegalArgumentException If the transaction name is too long for
+	 *                                  one record, or the account numbers are
+	 *                                  out of range.
+	 */
+	@Override
+	public long posted(BankAccount bankAccount, String transactionName, int transactionId, long debit,
+			long credit, long timestamp) throws UncheckedIOException, IllegalStateException, IllegalArgumentException {
+		long key = AccountRegistry.key(bankAccount);
+		byte[] name = encode(transactionName);
+		int payloadSize = checkSize(RECORD_FIXED_SIZE + (name == null ? 0 : name.length));
+
+		lock.lock();
+
+		try {
+			reserve(payloadSize + 8);
+
+			int start = active.position();
+			active.putInt(payloadSize).putLong(key).putInt(transactionId).putLong(debit).putLong(credit)
+					.putLong(timestamp);
+			putName(name);
+			return commitRecord(start, payloadSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add one record holding a batch of transactions to the journal without
+	 * waiting for it to be written. The whole batch is checked before anything
+	 * is written, so it is journaled in full or not at all.
+	 * 
+	 * @return The sequence number of the record.
+	 * @throws UncheckedIOException     If the journal failed to write to disk.
+	 * @throws IllegalStateException    If the journal is closed.
+	 * @throws IllegalArgumentException If the batch is too big for one record,
+	 *                                  or the account numbers are out of range.
+	 */
+	@Override
+	public long postedAll(BankAccount bankAccount, String[] transactionNames, int[] transactionIds, long[] debits,
+			long[] credits, long[] timestamps)
+			throws UncheckedIOException, IllegalStateException, IllegalArgumentException {
+		long key = AccountRegistry.key(bankAccount);
+		byte[][] names = new byte[transactionNames.length][];
+		long size = BATCH_FIXED_SIZE;
+
+		for (int i = 0; i < names.length; i++) {
+			names[i] = encode(transactionNames[i]);
+			size += ENTRY_FIXED_SIZE + (names[i] == null ? 0 : names[i].length);
+		}
+
+		int payloadSize = checkSize(size);
+		lock.lock();
+
+		try {
+			reserve(payloadSize + 8);
+
+			int start = active.position();
+			active.putInt(payloadSize | BATCH_RECORD).putLong(key).putInt(names.length);
+
+			for (int i = 0; i < names.length; i++) {
+				active.putInt(transactionIds[i]).putLong(debits[i]).putLong(credits[i]).putLong(timestamps[i]);
+				putName(names[i]);
+			}
+
+			return commitRecord(start, payloadSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add one record holding every leg of a transfer to the journal without waiting
+	 * for it to be written.
+	 * 
+	 * @return The sequence number of the record.
+	 * @throws UncheckedIOException     If the journal failed to write to disk.
+	 * @throws IllegalStateException    If the journal is closed.
+	 * @throws IllegalArgumentException If the transfer is too big for one
+	 *                                  record, or the account numbers are out of
+	 *                                  range.
+	 */
+	@Override
+	public long transferred(String transactionName, int transactionId, long timestamp, BankAccount[] from,
+			BankAccount[] to, long[] amounts) throws UncheckedIOException, IllegalStateException, IllegalArgumentException {
+		long[] fromKeys = new long[from.length], toKeys = new long[to.length];
+
+		for (int i = 0; i < from.length; i++) {
+			fromKeys[i] = AccountRegistry.key(from[i]);
+			toKeys[i] = AccountRegistry.key(to[i]);
+		}
+
+		byte[] name = encode(transactionName);
+		int payloadSize = checkSize(
+				TRANSFER_FIXED_SIZE + (name == null ? 0 : name.length) + (long) from.length * LEG_SIZE);
+
+		lock.lock();
+
+		try {
+			reserve(payloadSize + 8);
+
+			int start = active.position();
+			active.putInt(payloadSize | TRANSFER_RECORD).putInt(transactionId).putLong(timestamp);
+			putName(name);
+			active.putInt(from.length);
+
+			for (int i = 0; i < from.length; i++) {
+				active.putLong(fromKeys[i]).putLong(toKeys[i]).putLong(amounts[i]);
+			}
+
+			return commitRecord(start, payloadSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until a record is on disk if the journal is synchronous. If it could
+	 * not be written, the failure was already published as a
+	 * JournalWriteFailed event.
+	 */
+	@Override
+	public void awaitPosted(long ticket) {
+		if (!synchronous) {
+			return;
+		}
+
+		lock.lock();
+
+		try {
+			awaitCommit(ticket);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add records that are already encoded to the journal, taking the lock once
+	 * for all of them. A payload is the key of the account, the transaction ID,
+	 * the debit, credit and timestamp, the length of the UTF-8 name (-1 for no
+	 * name) and the name, from the position to the limit of its buffer. The
+	 * positions of the buffers are not changed.
+	 * 
+	 * @param payloads The buffers holding the records.
+	 * @param offset   The position of the first record in the array.
+	 * @param count    The number of records.
+	 * @throws UncheckedIOException     If the journal failed to write to disk.
+	 * @throws IllegalStateException    If the journal is closed.
+	 * @throws IllegalArgumentException If a record is too short or too long.
+	 */
+	public void appendAll(ByteBuffer[] payloads, int offset, int count)
+			throws UncheckedIOException, IllegalStateException, IllegalArgumentException {
+		if (count == 0) {
+			return;
+		}
+
+		lock.lock();
+
+		try {
+			long sequence = 0;
+
+			for (int i = offset; i < offset + count; i++) {
+				ByteBuffer payload = payloads[i];
+				int payloadSize = payload.remaining(), recordSize = payloadSize + 8;
+
+				if (payloadSize < RECORD_FIXED_SIZE || recordSize > BUFFER_SIZE / 2) {
+					throw new IllegalArgumentException(
+							String.format("A record of %d bytes cannot be journaled!", payloadSize));
+				}
+
+				reserve(recordSize);
+
+				int start = active.position();
+				active.putInt(payloadSize).put(start + 4, payload, payload.position(), payloadSize);
+				active.position(start + 4 + payloadSize);
+				sequence = commitRecord(start, payloadSize);
+			}
+
+			if (synchronous) {
+				awaitCommit(sequence);
+				checkWritten();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until every record added so far is on disk.
+	 * 
+	 * @throws UncheckedIOException  If the journal failed to write to disk.
+	 * @throws IllegalStateException If the journal is closed.
+	 */
+	public void sync() throws UncheckedIOException, IllegalStateException {
+		lock.lock();
+
+		try {
+			work.signal();
+			awaitCommit(appendedSequence);
+			checkWritten();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write the remaining records and close the journal.
+	 * 
+	 * @throws IOException If the last records could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+
+		try {
+			closed = true;
+			work.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (segment != null) {
+			segment.close();
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Rebuild balances and ledgers by adding every journaled transaction to the
+	 * registered bank accounts, in the order they were written. The accounts
+	 * must have the balances they had when journaling started, and the journal
+	 * should not be attached to them yet. A record that was only partly written
+	 * before a crash is skipped. Every account in a transfer must be
+	 * registered, since its legs are replayed together.
+	 * 
+	 * @param directory The directory holding the segment files.
+	 * @param registry  The registry used to find the bank accounts.
+	 * @return The number of transactions that were added.
+	 * @throws IOException If a segment cannot be read, or a record does not
+	 *                     match the registered accounts.
+	 */
+	public static long replay(Path directory, AccountRegistry registry) throws IOException {
+		CRC32 checksum = new CRC32();
+		long replayed = 0;
+
+		for (Path path : segments(directory)) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+				while (buffer.remaining() >= 4) {
+					int start = buffer.position(), header = buffer.getInt(), payloadSize = header & SIZE_MASK;
+					int kind = header & ~SIZE_MASK;
+
+					if (kind != 0 && kind != TRANSFER_RECORD && kind != BATCH_RECORD
+							|| payloadSize < (kind == TRANSFER_RECORD ? TRANSFER_FIXED_SIZE
+									: kind == BATCH_RECORD ? BATCH_FIXED_SIZE : RECORD_FIXED_SIZE)
+							|| buffer.remaining() < payloadSize + 4) {
+						break;
+					}
+
+					byte[] payload = new byte[payloadSize];
+					buffer.get(payload);
+					checksum.reset();
+					checksum.update(payload);
+
+					if (buffer.getInt() != (int) checksum.getValue()) {
+						break;
+					}
+
+					ByteBuffer record = ByteBuffer.wrap(payload);
+
+					if (kind == TRANSFER_RECORD) {
+						replayTransfer(path, start, record, registry);
+						replayed++;
+						continue;
+					} else if (kind == BATCH_RECORD) {
+						replayed += replayBatch(path, start, record, registry);
+						continue;
+					}
+
+					long key = record.getLong();
+					int transactionId = record.getInt();
+					long debit = record.getLong(), credit = record.getLong(), timestamp = record.getLong();
+					int nameLength = record.getInt();
+					String transactionName = nameLength < 0 ? null
+							: new String(payload, RECORD_FIXED_SIZE, nameLength, StandardCharsets.UTF_8);
+					BankAccount bankAccount = registry.get(key);
+
+					if (bankAccount == null) {
+						throw new IOException(String.format("%s has a record at %d for an unknown bank account!",
+								path, start));
+					}
+
+					try {
+						bankAccount.addTransaction(transactionName, transactionId, debit, credit, timestamp);
+					} catch (NegativeBalanceException e) {
+						throw new IOException(String.format("%s has a record at %d that does not match %s!", path,
+								start, bankAccount), e);
+					}
+
+					replayed++;
+				}
+			}
+		}
+
+		return replayed;
+	}
+
+	/**
+	 * @hidden
+	 * @param path     The segment file.
+	 * @param start    The position of the record in the file.
+	 * @param record   The payload of a batch record.
+	 * @param registry The registry used to find the bank accounts.
+	 * @return The number of transactions that were added.
+	 * @throws IOException If the record does not match the registered accounts.
+	 */
+	private static int replayBatch(Path path, int start, ByteBuffer record, AccountRegistry registry)
+			throws IOException {
+		BankAccount bankAccount = registry.get(record.getLong());
+		int count = record.getInt();
+
+		if (bankAccount == null) {
+			throw new IOException(String.format("%s has a batch at %d for an unknown bank account!", path, start));
+		}
+
+		// Every transaction left a balance of 0 or more when the batch was
+		// added, so adding them one at a time in order gives the same balance.
+		for (int i = 0; i < count; i++) {
+			int transactionId = record.getInt();
+			long debit = record.getLong(), credit = record.getLong(), timestamp = record.getLong();
+			int nameLength = record.getInt();
+			String transactionName = nameLength < 0 ? null
+					: new String(record.array(), record.position(), nameLength, StandardCharsets.UTF_8);
+			record.position(record.position() + Math.max(0, nameLength));
+
+			try {
+				bankAccount.addTransaction(transactionName, transactionId, debit, credit, timestamp);
+			} catch (NegativeBalanceException e) {
+				throw new IOException(String.format("%s has a batch at %d that does not match %s!", path, start,
+						bankAccount), e);
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @hidden
+	 * @param path     The segment file.
+	 * @param start    The position of the record in the file.
+	 * @param record   The payload of a transfer record.
+	 * @param registry The registry used to find the bank accounts.
+	 * @throws IOException If the record does not match the registered accounts.
+	 */
+	private static void replayTransfer(Path path, int start, ByteBuffer record, AccountRegistry registry)
+			throws IOException {
+		int transactionId = record.getInt();
+		long timestamp = record.getLong();
+		int nameLength = record.getInt();
+		String transactionName = nameLength < 0 ? null
+				: new String(record.array(), record.position(), nameLength, StandardCharsets.UTF_8);
+		record.position(record.position() + Math.max(0, nameLength));
+
+		Transfer transfer = new Transfer(transactionName, transactionId, timestamp);
+
+		for (int legs = record.getInt(); legs > 0; legs--) {
+			BankAccount from = registry.get(record.getLong()), to = registry.get(record.getLong());
+
+			if (from == null || to == null) {
+				throw new IOException(String.format("%s has a transfer at %d for an unknown bank account!", path,
+						start));
+			}
+
+			transfer.addLegMinorUnits(from, to, record.getLong());
+		}
+
+		try {
+			transfer.execute();
+		} catch (NegativeBalanceException e) {
+			throw new IOException(String.format("%s has a transfer at %d that does not match its accounts!", path,
+					start), e);
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private void flushLoop() {
+		lock.lock();
+
+		try {
+			while (true) {
+				while (activeCount == 0 && !closed) {
+					work.awaitUninterruptibly();
+				}
+
+				if (activeCount == 0) {
+					return;
+				}
+
+				long remaining;
+
+				while (activeCount < groupSize && !closed && active.position() < BUFFER_SIZE / 2
+						&& (remaining = firstPendingNanos + maxLatencyNanos - System.nanoTime()) > 0) {
+					try {
+						work.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						// The flusher only stops when the journal is closed.
+					}
+				}
+
+				ByteBuffer group = active;
+				active = flushing;
+				flushing = group;
+				activeCount = 0;
+
+				long groupSequence = appendedSequence, groupRecords = groupSequence - committedSequence;
+				IOException groupFailure = failure;
+				space.signalAll();
+				lock.unlock();
+
+				try {
+					// After a failure nothing more is written, so a replay never skips a
+					// group and applies the ones after it.
+					if (groupFailure == null) {
+						write(group);
+					}
+				} catch (IOException e) {
+					groupFailure = e;
+				} finally {
+					group.clear();
+				}
+
+				if (groupFailure != null) {
+					EventChannel.getDefault().publish(new JournalWriteFailed(directory, groupRecords, groupFailure));
+				}
+
+				lock.lock();
+				failure = groupFailure;
+				committedSequence = groupSequence;
+				committed.signalAll();
+			}
+		} finally {
+			committed.signalAll();
+			space.signalAll();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param group The records to be written.
+	 * @throws IOException If the records cannot be written.
+	 */
+	private void write(ByteBuffer group) throws IOException {
+		group.flip();
+
+		if (segment == null || segment.position() > 0 && segment.position() + group.remaining() > segmentSize) {
+			if (segment != null) {
+				segment.close();
+			}
+
+			segment = FileChannel.open(directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX,
+					++segmentNumber, SEGMENT_SUFFIX)), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		}
+
+		while (group.hasRemaining()) {
+			segment.write(group);
+		}
+
+		segment.force(false);
+	}
+
+	/**
+	 * Wait until the active buffer has room for a record.
+	 * 
+	 * @hidden
+	 * @param recordSize The size of the record with its length and checksum.
+	 */
+	private void reserve(int recordSize) {
+		while (active.remaining() < recordSize && !closed && failure == null) {
+			work.signal();
+			space.awaitUninterruptibly();
+		}
+
+		checkOpen();
+	}
+
+	/**
+	 * Add the checksum after a record that was put in the active buffer, and
+	 * wake the flusher when the record starts or fills a group.
+	 * 
+	 * @hidden
+	 * @param start       The position of the record in the active buffer.
+	 * @param payloadSize The size of the record without its length and checksum.
+	 * @return The sequence number of the record.
+	 */
+	private long commitRecord(int start, int payloadSize) {
+		crc.reset();
+		crc.update(active.array(), start + 4, payloadSize);
+		active.putInt((int) crc.getValue());
+
+		long sequence = ++appendedSequence;
+
+		if (activeCount++ == 0) {
+			firstPendingNanos = System.nanoTime();
+			work.signal();
+		} else if (activeCount >= groupSize) {
+			work.signal();
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * @hidden
+	 * @param sequence The sequence number of the last record to wait for.
+	 */
+	private void awaitCommit(long sequence) {
+		while (committedSequence < sequence && failure == null && flusher.isAlive()) {
+			committed.awaitUninterruptibly();
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @throws UncheckedIOException If the journal failed to write to disk.
+	 */
+	private void checkWritten() throws UncheckedIOException {
+		if (failure != null) {
+			throw new UncheckedIOException("The journal failed to write to disk!", failure);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param transactionName The name of a transaction.
+	 * @return The name in UTF-8, or <code>null</code>.
+	 */
+	private static byte[] encode(String transactionName) {
+		return transactionName == null ? null : transactionName.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @hidden
+	 * @param payloadSize The size of a record without its length and checksum.
+	 * @return The size.
+	 * @throws IllegalArgumentException If the record does not fit in a group.
+	 */
+	private static int checkSize(long payloadSize) throws IllegalArgumentException {
+		if (payloadSize + 8 > BUFFER_SIZE / 2) {
+			throw new IllegalArgumentException("The transaction is too big to be journaled!");
+		}
+
+		return (int) payloadSize;
+	}
+
+	/**
+	 * Put the length of a name and the name in the active buffer.
+	 * 
+	 * @hidden
+	 * @param name The name in UTF-8, or <code>null</code>.
+	 */
+	private void putName(byte[] name) {
+		active.putInt(name == null ? -1 : name.length);
+
+		if (name != null) {
+			active.put(name);
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private void checkOpen() {
+		if (failure != null) {
+			throw new UncheckedIOException("The journal failed to write to disk!", failure);
+		} else if (closed) {
+			throw new IllegalStateException("The journal is closed!");
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param directory The directory holding the segment files.
+	 * @return The segment files, oldest first.
+	 * @throws IOException If the directory cannot be read.
+	 */
+	private static ArrayList<Path> segments(Path directory) throws IOException {
+		ArrayList<Path> segments = new ArrayList<Path>();
+
+		if (Files.isDirectory(directory)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+					SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+				for (Path path : stream) {
+					segments.add(path);
+				}
+			}
+		}
+
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * @hidden
+	 * @param segment A segment file.
+	 * @return The number in the name of the segment file.
+	 */
+	private static int segmentNumber(Path segment) {
+		String fileName = segment.getFileName().toString();
+		return Integer.parseInt(
+				fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+	}
+}
@@ -0,0 +1,8 @@
+/**
+ * Classes for saving users, bank accounts and transactions to files and
+ * loading them back.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package persistence;
@@ -0,0 +1,406 @@
+package postingservice;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import makingtransactions.bankaccounts.AccountRegistry;
+import makingtransactions.bankaccounts.BankAccount;
+import persistence.NameCache;
+import persistence.TransactionJournal;
+
+/**
+ * A pipeline that adds a stream of encoded transactions to bank accounts. One
+ * thread publishes records into a ring of reusable slots, and a processing
+ * thread takes every record that is waiting as one batch and runs it through
+ * each stage in turn: decode, validate, post and journal. Nothing is created
+ * for a record once the ring and the transaction names have warmed up.
+ * 
+ * A record has the layout of a TransactionJournal record: the key of the
+ * account, the transaction ID, the debit, credit and timestamp in the minor
+ * units of the account currency, the length of the UTF-8 name (-1 for no
+ * name) and the name. A credit that is bigger than the balance is rejected
+ * without an exception, and records that cannot be decoded, name an unknown
+ * account or have negative amounts are counted as invalid. Only posted records
+ * are journaled, so the journal should not also be attached to the accounts.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class PostingPipeline implements AutoCloseable {
+	/**
+	 * The number of slots in the ring when none is given.
+	 */
+	public static final int DEFAULT_RING_SIZE = 1 << 16;
+
+	/**
+	 * The biggest record in bytes when no size is given.
+	 */
+	public static final int DEFAULT_MAX_RECORD_SIZE = 256;
+
+	private static final int RECORD_FIXED_SIZE = 8 + 4 + 8 + 8 + 8 + 4;
+	private static final int POSTED = 0, INSUFFICIENT_FUNDS = 1, INVALID = 2;
+	private static final int SPINS = 100, YIELDS = 100;
+	private static final long PARK_NANOS = 50_000;
+
+	private final AccountRegistry registry;
+	private final TransactionJournal journal;
+	private final Slot[] slots;
+	private final int mask, maxRecordSize;
+	private final ByteBuffer[] journalBatch;
+
+	// Sequences count records, so record s is in slot s & mask.
+	private final AtomicLong published = new AtomicLong(), processed = new AtomicLong();
+	private long nextSequence, processedLimit;
+
+	// Only the processing thread changes these, so they are never read half
+	// written.
+	private volatile long posted, rejected, invalid;
+	private volatile RuntimeException failure;
+	private volatile boolean closed;
+
+	private final NameCache names = new NameCache();
+	private final Thread processor;
+
+	/**
+	 * Start a pipeline with the default ring and record sizes.
+	 * 
+	 * @param registry The registry used to find the bank accounts.
+	 * @param journal  The journal that posted records are written to, or
+	 *                 <code>null</code> for none.
+	 */
+	public PostingPipeline(AccountRegistry registry, TransactionJournal journal) {
+		this(registry, journal, DEFAULT_RING_SIZE, DEFAULT_MAX_RECORD_SIZE);
+	}
+
+	/**
+	 * Start a pipeline.
+	 * 
+	 * @param registry      The registry used to find the bank accounts.
+	 * @param journal       The journal that posted records are written to, or
+	 *                      <code>null</code> for none.
+	 * @param ringSize      The number of slots in the ring, which must be a
+	 *                      power of two.
+	 * @param maxRecordSize The biggest record in bytes.
+	 * @throws IllegalArgumentException If the ring size is not a power of two or
+	 *                                  records would not fit a name.
+	 */
+	public PostingPipeline(AccountRegistry registry, TransactionJournal journal, int ringSize, int maxRecordSize)
+			throws IllegalArgumentException {
+		if (ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException(String.format("The ring size %d is not a power of two!", ringSize));
+		} else if (maxRecordSize < RECORD_FIXED_SIZE) {
+			throw new IllegalArgumentException(
+					String.format("Records must be allowed at least %d bytes!", RECORD_FIXED_SIZE));
+		}
+
+		this.registry = registry;
+		this.journal = journal;
+		this.maxRecordSize = maxRecordSize;
+		mask = ringSize - 1;
+		slots = new Slot[ringSize];
+		journalBatch = new ByteBuffer[ringSize];
+
+		for (int i = 0; i < ringSize; i++) {
+			slots[i] = new Slot(maxRecordSize);
+		}
+
+		processor = new Thread(this::processLoop, "posting-pipeline");
+		processor.setDaemon(true);
+		processor.start();
+	}
+
+	/**
+	 * Publish a record to the pipeline, waiting while the ring is full. The
+	 * record is copied from the position to the limit of the buffer, and the
+	 * position is not changed. Only one thread may publish.
+	 * 
+	 * @param record The encoded record.
+	 * @throws IllegalArgumentException If the record is bigger than the biggest
+	 *                                  record.
+	 * @throws IllegalStateException    If the pipeline is closed or has failed.
+	 */
+	public void publish(ByteBuffer record) throws IllegalArgumentException, IllegalStateException {
+		int length = record.remaining();
+
+		if (length > maxRecordSize) {
+			throw new IllegalArgumentException(
+					String.format("A record of %d bytes is bigger than %d bytes!", length, maxRecordSize));
+		}
+
+		checkOpen();
+
+		// The processed sequence is only read again when the cached one says the
+		// ring is full.
+		for (int idles = 0; nextSequence - processedLimit >= slots.length; idles++) {
+			processedLimit = processed.get();
+
+			if (nextSequence - processedLimit >= slots.length) {
+				checkOpen();
+				idle(idles);
+			}
+		}
+
+		ByteBuffer slotRecord = slots[(int) nextSequence & mask].record;
+		slotRecord.clear().put(0, record, record.position(), length).limit(length);
+		published.lazySet(++nextSequence);
+	}
+
+	/**
+	 * Wait until every published record has been processed.
+	 * 
+	 * @throws IllegalStateException If the pipeline has failed.
+	 */
+	public void flush() throws IllegalStateException {
+		for (int idles = 0; processed.get() < nextSequence; idles++) {
+			if (failure != null) {
+				break;
+			}
+
+			idle(idles);
+		}
+
+		if (failure != null) {
+			throw new IllegalStateException("The posting pipeline has failed!", failure);
+		}
+	}
+
+	/**
+	 * Get the number of records that were added to their accounts.
+	 * 
+	 * @return The number of posted records.
+	 */
+	public long getPosted() {
+		return posted;
+	}
+
+	/**
+	 * Get the number of records whose credit was bigger than the balance of
+	 * their account.
+	 * 
+	 * @return The number of rejected records.
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Get the number of records that could not be decoded, named an unknown
+	 * account or had amounts that cannot be added.
+	 * 
+	 * @return The number of invalid records.
+	 */
+	public long getInvalid() {
+		return invalid;
+	}
+
+	/**
+	 * Process the published records and stop the processing thread. The
+	 * journal is not closed.
+	 * 
+	 * @throws IllegalStateException If the pipeline has failed.
+	 */
+	@Override
+	public void close() throws IllegalStateException {
+		closed = true;
+
+		try {
+			processor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (failure != null) {
+			throw new IllegalStateException("The posting pipeline has failed!", failure);
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private void processLoop() {
+		long next = 0;
+
+		try {
+			for (int idles = 0;; idles++) {
+				long end = published.get();
+
+				if (end == next) {
+					if (closed && published.get() == next) {
+						return;
+					}
+
+					idle(idles);
+					continue;
+				}
+
+				for (long sequence = next; sequence < end; sequence++) {
+					decode(slots[(int) sequence & mask]);
+				}
+
+				for (long sequence = next; sequence < end; sequence++) {
+					validate(slots[(int) sequence & mask]);
+				}
+
+				long batchPosted = 0, batchRejected = 0;
+
+				for (long sequence = next; sequence < end; sequence++) {
+					int status = post(slots[(int) sequence & mask]);
+					batchPosted += status == POSTED ? 1 : 0;
+					batchRejected += status == INSUFFICIENT_FUNDS ? 1 : 0;
+				}
+
+				// The counters are written once for each batch.
+				posted += batchPosted;
+				rejected += batchRejected;
+				invalid += end - next - batchPosted - batchRejected;
+
+				journal(next, end);
+				processed.lazySet(end);
+				next = end;
+				idles = -1;
+			}
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Read the fields of a record into its slot.
+	 * 
+	 * @hidden
+	 * @param slot The slot holding the record.
+	 */
+	private void decode(Slot slot) {
+		ByteBuffer record = slot.record;
+		int length = record.limit();
+
+		if (length < RECORD_FIXED_SIZE) {
+			slot.status = INVALID;
+			return;
+		}
+
+		slot.key = record.getLong(0);
+		slot.transactionId = record.getInt(8);
+		slot.debit = record.getLong(12);
+		slot.credit = record.getLong(20);
+		slot.timestamp = record.getLong(28);
+		int nameLength = record.getInt(36), expected = length - RECORD_FIXED_SIZE;
+
+		if (nameLength < 0 ? nameLength != -1 || expected != 0 : nameLength != expected) {
+			slot.status = INVALID;
+			return;
+		}
+
+		slot.transactionName = nameLength < 0 ? null : names.name(record.array(), RECORD_FIXED_SIZE, nameLength);
+		slot.status = POSTED;
+	}
+
+	/**
+	 * Find the account of a record and check its amounts.
+	 * 
+	 * @hidden
+	 * @param slot The slot holding the record.
+	 */
+	private void validate(Slot slot) {
+		if (slot.status != INVALID) {
+			slot.bankAccount = registry.get(slot.key);
+
+			if (slot.bankAccount == null || slot.debit < 0 || slot.credit < 0) {
+				slot.status = INVALID;
+			}
+		}
+	}
+
+	/**
+	 * Add a record to its account.
+	 * 
+	 * @hidden
+	 * @param slot The slot holding the record.
+	 * @return The status of the record.
+	 */
+	private int post(Slot slot) {
+		if (slot.status != INVALID) {
+			try {
+				slot.status = slot.bankAccount.tryAddTransaction(slot.transactionName, slot.transactionId, slot.debit,
+						slot.credit, slot.timestamp) == BankAccount.POSTED ? POSTED : INSUFFICIENT_FUNDS;
+			} catch (ArithmeticException e) {
+				// The new balance would be too big to be stored.
+				slot.status = INVALID;
+			}
+		}
+
+		// The account is not kept, so the ring does not hold on to it.
+		slot.bankAccount = null;
+		return slot.status;
+	}
+
+	/**
+	 * Write the posted records of a batch to the journal with one call.
+	 * 
+	 * @hidden
+	 * @param start The sequence of the first record in the batch.
+	 * @param end   The sequence after the last record in the batch.
+	 */
+	private void journal(long start, long end) {
+		if (journal == null) {
+			return;
+		}
+
+		int count = 0;
+
+		for (long sequence = start; sequence < end; sequence++) {
+			Slot slot = slots[(int) sequence & mask];
+
+			if (slot.status == POSTED) {
+				journalBatch[count++] = slot.record;
+			}
+		}
+
+		journal.appendAll(journalBatch, 0, count);
+	}
+
+	/**
+	 * @hidden
+	 * @throws IllegalStateException If the pipeline is closed or has failed.
+	 */
+	private void checkOpen() throws IllegalStateException {
+		if (failure != null) {
+			throw new IllegalStateException("The posting pipeline has failed!", failure);
+		} else if (closed) {
+			throw new IllegalStateException("The posting pipeline is closed!");
+		}
+	}
+
+	/**
+	 * Wait a little, spinning at first, then yielding and then sleeping, so an
+	 * idle thread does not hold a processor for long.
+	 * 
+	 * @hidden
+	 * @param idles The number of times the thread has waited in a row.
+	 */
+	private static void idle(int idles) {
+		if (idles < SPINS) {
+			Thread.onSpinWait();
+		} else if (idles < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Slot {
+		private final ByteBuffer record;
+		private long key, debit, credit, timestamp;
+		private int transactionId, status;
+		private String transactionName;
+		private BankAccount bankAccount;
+
+		private Slot(int maxRecordSize) {
+			record = ByteBuffer.allocate(maxRecordSize);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package postingservice;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import makingtransactions.Transaction;
+import makingtransactions.bankaccounts.BankAccount;
+
+/**
+ * A class for adding transactions to bank accounts asynchronously. Submitting
+ * a transaction only puts it in the mailbox of its account and returns a
+ * future, so the caller never waits for another posting.
+ * 
+ * The transactions in one mailbox are added one at a time in the order that
+ * they were submitted, and different mailboxes are emptied in parallel. Each
+ * account posted to through the service keeps a small mailbox for as long as
+ * the service is used.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class PostingService implements AutoCloseable {
+	/**
+	 * The number of transactions that a mailbox adds before it lets other
+	 * mailboxes run.
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final ConcurrentHashMap<BankAccount, Mailbox> mailboxes = new ConcurrentHashMap<BankAccount, Mailbox>();
+
+	/**
+	 * Create a service that runs on virtual threads when the Java runtime has
+	 * them, or on a fork-join pool with one thread per processor when it does
+	 * not.
+	 */
+	public PostingService() {
+		this(newExecutor());
+	}
+
+	/**
+	 * Create a service that runs on an executor. The executor is not shut down
+	 * when the service is closed.
+	 * 
+	 * @param executor The executor that empties the mailboxes.
+	 */
+	public PostingService(Executor executor) {
+		this(executor, null);
+	}
+
+	/**
+	 * @hidden
+	 * @param ownExecutor The executor created by and shut down with the
+	 *                    service.
+	 */
+	private PostingService(ExecutorService ownExecutor) {
+		this(ownExecutor, ownExecutor);
+	}
+
+	/**
+	 * @hidden
+	 * @param executor    The executor that empties the mailboxes.
+	 * @param ownExecutor The executor to shut down with the service, or
+	 *                    <code>null</code>.
+	 */
+	private PostingService(Executor executor, ExecutorService ownExecutor) {
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+	}
+
+	/**
+	 * Submit a transaction to be added to a bank account.
+	 * 
+	 * @param bankAccount The bank account.
+	 * @param transaction The transaction to be added.
+	 * @return A future that completes with the balance of the account right
+	 *         after the transaction was added, or with the exception thrown by
+	 *         <code>addTransaction</code>, such as a NegativeBalanceException.
+	 */
+	public CompletableFuture<Double> submit(BankAccount bankAccount, Transaction transaction) {
+		Posting posting = new Posting(transaction);
+		Mailbox mailbox = mailboxes.get(bankAccount);
+
+		if (mailbox == null) {
+			mailbox = mailboxes.computeIfAbsent(bankAccount, Mailbox::new);
+		}
+
+		mailbox.add(posting);
+		return posting;
+	}
+
+	/**
+	 * Stop running postings on the executor that the service created. Postings
+	 * that were already submitted are still added, by the mailbox that is
+	 * running when the executor no longer takes new tasks. A service created
+	 * with an executor does not shut it down.
+	 */
+	@Override
+	public void close() {
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Create an executor with one virtual thread for each task. Virtual threads
+	 * are looked up by name so that the class library still runs on a Java
+	 * runtime without them.
+	 * 
+	 * @hidden
+	 * @return A virtual-thread executor, or an asynchronous fork-join pool.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private final class Mailbox implements Runnable {
+		private final BankAccount bankAccount;
+		private final ConcurrentLinkedQueue<Posting> postings = new ConcurrentLinkedQueue<Posting>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private Mailbox(BankAccount bankAccount) {
+			this.bankAccount = bankAccount;
+		}
+
+		/**
+		 * @hidden
+		 * @param posting The posting to be added after the ones before it.
+		 */
+		private void add(Posting posting) {
+			postings.add(posting);
+			schedule();
+		}
+
+		/**
+		 * Run the mailbox unless it is already running or waiting to run.
+		 * 
+		 * @hidden
+		 */
+		private void schedule() {
+			if (!postings.isEmpty() && scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// Nothing will empty the mailbox, so every waiting posting fails. The
+					// flag is cleared first, so a posting added meanwhile fails by itself.
+					scheduled.set(false);
+
+					for (Posting posting; (posting = postings.poll()) != null;) {
+						posting.completeExceptionally(e);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			for (;;) {
+				for (int i = 0; i < BATCH_SIZE; i++) {
+					Posting posting = postings.poll();
+
+					if (posting == null) {
+						break;
+					}
+
+					posting.post(bankAccount);
+				}
+
+				// A posting added after the last poll either sees the flag cleared and
+				// schedules the mailbox itself, or is seen here.
+				scheduled.set(false);
+
+				if (postings.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					return;
+				}
+
+				try {
+					executor.execute(this);
+					return;
+				} catch (RejectedExecutionException e) {
+					// The executor was shut down after these postings were submitted, so
+					// this thread keeps adding them until the mailbox is empty.
+				}
+			}
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Posting extends CompletableFuture<Double> {
+		private final Transaction transaction;
+
+		private Posting(Transaction transaction) {
+			this.transaction = transaction;
+		}
+
+		/**
+		 * @hidden
+		 * @param bankAccount The bank account that the transaction is added to.
+		 */
+		private void post(BankAccount bankAccount) {
+			// Even an Error completes the future, so that the mailbox keeps running
+			// and nobody waits for the posting forever.
+			try {
+				complete(bankAccount.addTransactionAndGetBalance(transaction));
+			} catch (Throwable e) {
+				completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * Classes for adding transactions to bank accounts without waiting for them.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package postingservice;
@@ -0,0 +1,158 @@
+package reconciliation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import makingtransactions.bankaccounts.BankAccount;
+import makingtransactions.ledgers.LedgerView;
+
+/**
+ * A class for checking that the balance of every bank account equals its
+ * opening balance plus the debits minus the credits in its ledger, and for
+ * totalling the balances of each currency.
+ * 
+ * The accounts are split into fork-join tasks that are summed in parallel.
+ * Amounts are added as exact minor units, so the result does not depend on how
+ * the work was split. Accounts should be reconciled while no transactions are
+ * being added, or accounts that are being changed may be reported.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class Reconciler {
+	/**
+	 * The number of transactions below which a task is not split any further.
+	 */
+	private static final long SPLIT_THRESHOLD = 1 << 14;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create a reconciler that runs on the common fork-join pool.
+	 */
+	public Reconciler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a reconciler that runs on a fork-join pool.
+	 * 
+	 * @param pool The pool that runs the tasks.
+	 */
+	public Reconciler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Reconcile bank accounts.
+	 * 
+	 * @param bankAccounts The bank accounts to be checked.
+	 * @return A report of the mismatches and the total of each currency.
+	 * @throws ArithmeticException If a total is too big to be stored.
+	 */
+	public ReconciliationReport reconcile(Collection<? extends BankAccount> bankAccounts)
+			throws ArithmeticException {
+		BankAccount[] accounts = bankAccounts.toArray(new BankAccount[0]);
+		Result result = pool.invoke(new Task(accounts, 0, accounts.length));
+		return new ReconciliationReport(accounts.length, result.mismatches, result.totals);
+	}
+
+	/**
+	 * @hidden
+	 * @param bankAccount The account to be checked.
+	 * @param result      The result that the account is added to.
+	 */
+	private static void reconcile(BankAccount bankAccount, Result result) {
+		LedgerView transactions = bankAccount.getTransactions();
+		long expected = bankAccount.getOpeningBalanceMinorUnits();
+
+		for (int i = 0, size = transactions.size(); i < size; i++) {
+			expected = Math.addExact(expected,
+					transactions.getDebitMinorUnits(i) - transactions.getCreditMinorUnits(i));
+		}
+
+		long balance = bankAccount.getBalanceMinorUnits();
+
+		if (expected != balance) {
+			result.mismatches.add(new ReconciliationReport.Mismatch(bankAccount, expected, balance));
+		}
+
+		result.totals.merge(bankAccount.getCurrency(), balance, Math::addExact);
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Task extends RecursiveTask<Result> {
+		private static final long serialVersionUID = 1L;
+
+		private final BankAccount[] accounts;
+		private final int start, end;
+
+		private Task(BankAccount[] accounts, int start, int end) {
+			this.accounts = accounts;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Result compute() {
+			if (end - start > 1 && work() > SPLIT_THRESHOLD) {
+				int middle = start + end >>> 1;
+				Task left = new Task(accounts, start, middle);
+				left.fork();
+				Result right = new Task(accounts, middle, end).compute();
+				return left.join().merge(right);
+			}
+
+			Result result = new Result();
+
+			for (int i = start; i < end; i++) {
+				reconcile(accounts[i], result);
+			}
+
+			return result;
+		}
+
+		/**
+		 * Estimate the work in the range without reading more than the threshold
+		 * allows.
+		 * 
+		 * @hidden
+		 * @return The number of transactions and accounts in the range, or more
+		 *         than the threshold.
+		 */
+		private long work() {
+			long work = 0;
+
+			for (int i = start; i < end && work <= SPLIT_THRESHOLD; i++) {
+				work += accounts[i].getTransactions().size() + 1;
+			}
+
+			return work;
+		}
+	}
+
+	/**
+	 * @hidden
+	 */
+	private static final class Result {
+		private final ArrayList<ReconciliationReport.Mismatch> mismatches =
+				new ArrayList<ReconciliationReport.Mismatch>();
+		private final HashMap<String, Long> totals = new HashMap<String, Long>();
+
+		private Result merge(Result other) {
+			mismatches.addAll(other.mismatches);
+
+			for (Map.Entry<String, Long> total : other.totals.entrySet()) {
+				totals.merge(total.getKey(), total.getValue(), Math::addExact);
+			}
+
+			return this;
+		}
+	}
+}
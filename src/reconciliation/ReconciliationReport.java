@@ -0,0 +1,158 @@
+package reconciliation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import makingtransactions.Money;
+import makingtransactions.bankaccounts.BankAccount;
+
+/**
+ * The result of reconciling bank accounts: the accounts whose balance does not
+ * match their ledger, and the total balance of each currency.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class ReconciliationReport {
+	private final int accountCount;
+	private final List<Mismatch> mismatches;
+	private final Map<String, Long> totals;
+
+	/**
+	 * Create a report.
+	 * 
+	 * @param accountCount The number of bank accounts that were checked.
+	 * @param mismatches   The accounts whose balance does not match their
+	 *                     ledger.
+	 * @param totals       The total balance of each currency in minor units.
+	 */
+	public ReconciliationReport(int accountCount, List<Mismatch> mismatches, Map<String, Long> totals) {
+		this.accountCount = accountCount;
+		this.mismatches = Collections.unmodifiableList(mismatches);
+		this.totals = Collections.unmodifiableMap(totals);
+	}
+
+	/**
+	 * Get the number of bank accounts that were checked.
+	 * 
+	 * @return The number of accounts.
+	 */
+	public int getAccountCount() {
+		return accountCount;
+	}
+
+	/**
+	 * Check to see if every balance matched its ledger.
+	 * 
+	 * @return <code>true</code> if there were no mismatches.
+	 */
+	public boolean isBalanced() {
+		return mismatches.isEmpty();
+	}
+
+	/**
+	 * Get the bank accounts whose balance does not match their ledger.
+	 * 
+	 * @return A read-only list of mismatches.
+	 */
+	public List<Mismatch> getMismatches() {
+		return mismatches;
+	}
+
+	/**
+	 * Get the currencies held by the bank accounts that were checked.
+	 * 
+	 * @return A read-only set of currencies.
+	 */
+	public Set<String> getCurrencies() {
+		return totals.keySet();
+	}
+
+	/**
+	 * Get the total balance of a currency.
+	 * 
+	 * @param currency The type of currency.
+	 * @return The total balance of every account with the currency.
+	 */
+	public double getTotal(String currency) {
+		return Money.toMajorUnits(getTotalMinorUnits(currency), Money.scale(currency));
+	}
+
+	/**
+	 * Get the total balance of a currency in minor units (For example, cents).
+	 * 
+	 * @param currency The type of currency.
+	 * @return The total balance of every account with the currency in minor
+	 *         units, or 0 if no account has the currency.
+	 */
+	public long getTotalMinorUnits(String currency) {
+		return totals.getOrDefault(currency, 0L);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d accounts, %d mismatches, totals %s", accountCount, mismatches.size(), totals);
+	}
+
+	/**
+	 * A bank account whose balance does not match its opening balance plus the
+	 * debits minus the credits in its ledger.
+	 * 
+	 * @author Synthird
+	 * @version 1.0.0
+	 */
+	public static final class Mismatch {
+		private final BankAccount bankAccount;
+		private final long expectedBalance, balance;
+
+		/**
+		 * Create a mismatch.
+		 * 
+		 * @param bankAccount     The bank account that does not match.
+		 * @param expectedBalance The balance computed from the ledger in minor
+		 *                        units.
+		 * @param balance         The balance of the account in minor units.
+		 */
+		public Mismatch(BankAccount bankAccount, long expectedBalance, long balance) {
+			this.bankAccount = bankAccount;
+			this.expectedBalance = expectedBalance;
+			this.balance = balance;
+		}
+
+		/**
+		 * Get the bank account that does not match.
+		 * 
+		 * @return The bank account.
+		 */
+		public BankAccount getBankAccount() {
+			return bankAccount;
+		}
+
+		/**
+		 * Get the balance computed from the ledger in minor units.
+		 * 
+		 * @return The expected balance.
+		 */
+		public long getExpectedBalanceMinorUnits() {
+			return expectedBalance;
+		}
+
+		/**
+		 * Get the balance of the account in minor units.
+		 * 
+		 * @return The actual balance.
+		 */
+		public long getBalanceMinorUnits() {
+			return balance;
+		}
+
+		@Override
+		public String toString() {
+			int scale = bankAccount.getScale();
+			return String.format("%s has a balance of %s but its ledger adds up to %s!", bankAccount,
+					Money.toString(balance, scale), Money.toString(expectedBalance, scale));
+		}
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * Classes for checking that the balances of bank accounts match their ledgers.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package reconciliation;
@@ -0,0 +1,983 @@
+package scheduling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import events.EventChannel;
+import events.ScheduledTransactionFailed;
+import makingtransactions.bankaccounts.AccountRegistry;
+import makingtransactions.bankaccounts.BankAccount;
+
+/**
+ * A scheduler for recurring transactions, such as standing orders, direct
+ * debits and interest, that adds each transaction to its bank account when it
+ * is due. Time only moves forward when {@link #advanceTo(long)} is called, so
+ * the scheduler can be driven by a timer or replayed after a restart.
+ * 
+ * Schedules are kept in a hierarchical timing wheel of eight levels with 256
+ * slots each, where every level counts ticks 256 times slower than the one
+ * below. Adding or cancelling a schedule takes constant time however many are
+ * waiting, and all the schedules due in the same tick fire as one batch. A
+ * schedule in a higher level only moves down when its slot comes up, and
+ * stretches of empty slots are skipped, so a clock that is far behind catches
+ * up quickly. The schedules themselves are kept in pages of columns, so
+ * millions of them cost about 60 bytes each, adding more never copies the ones
+ * already there and nothing is created when they fire.
+ * 
+ * A transaction whose credit is bigger than the balance is retried after the
+ * retry backoff, then after twice that and so on. Once it has failed more than
+ * the maximum number of retries it is given up, a ScheduledTransactionFailed
+ * event is published to the default EventChannel, and the schedule waits for
+ * its next occurrence. A transaction that cannot be added for any other
+ * reason, such as a closed journal, counts as a failed attempt in the same
+ * way, and the error is thrown once every due transaction was tried.
+ * 
+ * The state of the scheduler can be saved to a file and loaded after a
+ * restart. Occurrences that were missed while the scheduler was stopped fire
+ * on the next advance, so it should be saved after every advance.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class TransactionScheduler {
+	/**
+	 * The length of a tick in milliseconds when none is given.
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 1000;
+
+	/**
+	 * The time before the first retry in milliseconds when none is given.
+	 */
+	public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+	/**
+	 * The number of retries when none is given.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	private static final int MAGIC = 0x4F4F4253, VERSION = 1;
+	private static final int SLOT_BITS = 8, SLOTS = 1 << SLOT_BITS, SLOT_MASK = SLOTS - 1, LEVELS = 8;
+	private static final int PAGE_BITS = 14, PAGE_SIZE = 1 << PAGE_BITS, PAGE_MASK = PAGE_SIZE - 1;
+	private static final int MAX_RETRIES = 30, NONE = -1;
+	private static final byte FREE = 0, FIXED = 1, INTEREST = 2, CANCELLED = 3;
+
+	private final long tickMillis, retryBackoffMillis;
+	private final int maxRetries;
+	private long currentTick, posted, failed, abandoned;
+
+	// The first error thrown by a posting during the current advance.
+	private RuntimeException postingError;
+
+	// The heads of the slot lists, with a bit for every slot that is not empty.
+	private final int[] slotHeads = new int[LEVELS * SLOTS];
+	private final long[] occupied = new long[LEVELS * SLOTS / 64];
+	private int readyHead = NONE, freeHead = NONE, nextUnused, size;
+
+	// The entry of a schedule is its ID, and is kept in page ID >>> PAGE_BITS.
+	private Page[] pages = new Page[16];
+
+	/**
+	 * Create a scheduler with the default tick, retry backoff and number of
+	 * retries.
+	 * 
+	 * @param startTime The time to start from in milliseconds since the epoch.
+	 */
+	public TransactionScheduler(long startTime) {
+		this(startTime, DEFAULT_TICK_MILLIS, DEFAULT_RETRY_BACKOFF_MILLIS, DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 * Create a scheduler.
+	 * 
+	 * @param startTime          The time to start from in milliseconds since
+	 *                           the epoch.
+	 * @param tickMillis         The length of a tick in milliseconds. Schedules
+	 *                           fire on the first tick at or after their time.
+	 * @param retryBackoffMillis The time before the first retry in milliseconds.
+	 * @param maxRetries         The number of times a failed transaction is
+	 *                           retried before it is given up.
+	 * @throws IllegalArgumentException If the start time or retry backoff is
+	 *                                  negative, the tick is not positive or
+	 *                                  the number of retries is not between 0
+	 *                                  and 30.
+	 */
+	public TransactionScheduler(long startTime, long tickMillis, long retryBackoffMillis, int maxRetries)
+			throws IllegalArgumentException {
+		if (startTime < 0) {
+			throw new IllegalArgumentException(String.format("The start time %d is negative!", startTime));
+		} else if (tickMillis <= 0) {
+			throw new IllegalArgumentException(String.format("The tick %d is not positive!", tickMillis));
+		} else if (retryBackoffMillis < 0) {
+			throw new IllegalArgumentException(
+					String.format("The retry backoff %d is negative!", retryBackoffMillis));
+		} else if (maxRetries < 0 || maxRetries > MAX_RETRIES) {
+			throw new IllegalArgumentException(
+					String.format("The number of retries %d is not between 0 and %d!", maxRetries, MAX_RETRIES));
+		}
+
+		this.tickMillis = tickMillis;
+		this.retryBackoffMillis = retryBackoffMillis;
+		this.maxRetries = maxRetries;
+		currentTick = startTime / tickMillis;
+		Arrays.fill(slotHeads, NONE);
+	}
+
+	/**
+	 * Schedule a transaction that is added to a bank account every period. The
+	 * amounts are in the minor units of the account currency.
+	 * 
+	 * @param bankAccount     The bank account.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           How much money should be earned, in minor units.
+	 * @param credit          How much money should be spent, in minor units.
+	 * @param firstTime       The time of the first transaction in milliseconds
+	 *                        since the epoch.
+	 * @param periodMillis    The time between transactions in milliseconds.
+	 * @return The ID of the schedule.
+	 * @throws IllegalArgumentException If there is no bank account, the debit or
+	 *                                  credit is a negative number, the first
+	 *                                  time is negative or the period is not
+	 *                                  positive.
+	 */
+	public synchronized int schedule(BankAccount bankAccount, String transactionName, int transactionId, long debit,
+			long credit, long firstTime, long periodMillis) throws IllegalArgumentException {
+		if (debit < 0 || credit < 0) {
+			throw new IllegalArgumentException("A negative debit or credit is not allowed!");
+		}
+
+		return add(bankAccount, FIXED, transactionName, transactionId, debit, credit, firstTime, periodMillis);
+	}
+
+	/**
+	 * Schedule interest that is added to a bank account every period. Each time,
+	 * the account earns the rate times its balance, rounded down to a minor unit.
+	 * 
+	 * @param bankAccount     The bank account.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param rate            The interest rate for one period, such as 0.001
+	 *                        for 0.1%.
+	 * @param firstTime       The time of the first transaction in milliseconds
+	 *                        since the epoch.
+	 * @param periodMillis    The time between transactions in milliseconds.
+	 * @return The ID of the schedule.
+	 * @throws IllegalArgumentException If there is no bank account, the rate is
+	 *                                  negative or not a number, the first time
+	 *                                  is negative or the period is not
+	 *                                  positive.
+	 */
+	public synchronized int scheduleInterest(BankAccount bankAccount, String transactionName, int transactionId,
+			double rate, long firstTime, long periodMillis) throws IllegalArgumentException {
+		if (!(rate >= 0) || Double.isInfinite(rate)) {
+			throw new IllegalArgumentException(String.format("The interest rate %s is not allowed!", rate));
+		}
+
+		return add(bankAccount, INTEREST, transactionName, transactionId, Double.doubleToRawLongBits(rate), 0,
+				firstTime, periodMillis);
+	}
+
+	/**
+	 * Stop a schedule. Its ID may be given to a new schedule later.
+	 * 
+	 * @param scheduleId The ID of the schedule.
+	 * @return <code>true</code> if the schedule was stopped, or
+	 *         <code>false</code> if there is no such schedule.
+	 */
+	public synchronized boolean cancel(int scheduleId) {
+		if (!isScheduled(scheduleId)) {
+			return false;
+		}
+
+		// The entry stays in its slot until the wheel reaches it.
+		Page page = pages[scheduleId >>> PAGE_BITS];
+		int i = scheduleId & PAGE_MASK;
+		page.kinds[i] = CANCELLED;
+		page.bankAccounts[i] = null;
+		page.transactionNames[i] = null;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Check to see if a schedule exists.
+	 * 
+	 * @param scheduleId The ID of the schedule.
+	 * @return <code>true</code> if the schedule exists and has not been
+	 *         cancelled.
+	 */
+	public synchronized boolean isScheduled(int scheduleId) {
+		if (scheduleId < 0 || scheduleId >= nextUnused) {
+			return false;
+		}
+
+		byte kind = pages[scheduleId >>> PAGE_BITS].kinds[scheduleId & PAGE_MASK];
+		return kind == FIXED || kind == INTEREST;
+	}
+
+	/**
+	 * Get the time that the next transaction of a schedule is due. A transaction
+	 * that is being retried keeps the time it was first due.
+	 * 
+	 * @param scheduleId The ID of the schedule.
+	 * @return The time in milliseconds since the epoch.
+	 * @throws IllegalArgumentException If there is no such schedule.
+	 */
+	public synchronized long getDueTime(int scheduleId) throws IllegalArgumentException {
+		checkScheduled(scheduleId);
+		return pages[scheduleId >>> PAGE_BITS].dueTimes[scheduleId & PAGE_MASK];
+	}
+
+	/**
+	 * Get the number of times the next transaction of a schedule has failed.
+	 * 
+	 * @param scheduleId The ID of the schedule.
+	 * @return The number of failed attempts, which is 0 unless the transaction
+	 *         is being retried.
+	 * @throws IllegalArgumentException If there is no such schedule.
+	 */
+	public synchronized int getAttempts(int scheduleId) throws IllegalArgumentException {
+		checkScheduled(scheduleId);
+		return pages[scheduleId >>> PAGE_BITS].attempts[scheduleId & PAGE_MASK];
+	}
+
+	/**
+	 * Get the number of schedules.
+	 * 
+	 * @return The number of schedules that have not been cancelled.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Get the time that the scheduler has been advanced to, rounded down to a
+	 * tick.
+	 * 
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public synchronized long getTime() {
+		return currentTick * tickMillis;
+	}
+
+	/**
+	 * Get the number of scheduled transactions that were added to their
+	 * accounts.
+	 * 
+	 * @return The number of posted transactions.
+	 */
+	public synchronized long getPosted() {
+		return posted;
+	}
+
+	/**
+	 * Get the number of times a scheduled transaction failed because its credit
+	 * was bigger than the balance or the balance would have become too big.
+	 * 
+	 * @return The number of failed attempts.
+	 */
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Get the number of scheduled transactions that were given up after their
+	 * last retry failed.
+	 * 
+	 * @return The number of transactions given up.
+	 */
+	public synchronized long getAbandoned() {
+		return abandoned;
+	}
+
+	/**
+	 * Move the scheduler forward in time and add every transaction that is due
+	 * by then to its account. Transactions are added with the given time as
+	 * their timestamp. A time before the current time of the scheduler only
+	 * fires the schedules that are already due.
+	 * 
+	 * @param time The new time in milliseconds since the epoch.
+	 * @return The number of transactions that were tried.
+	 * @throws RuntimeException The first error thrown while adding a
+	 *                          transaction, once the scheduler has reached the
+	 *                          new time. The transactions that failed are
+	 *                          retried like those with too little money.
+	 */
+	public synchronized int advanceTo(long time) throws RuntimeException {
+		postingError = null;
+		long targetTick = Math.floorDiv(time, tickMillis);
+		int tried = fireReady(time);
+
+		while (currentTick < targetTick) {
+			long tick = nextOccupiedTick(currentTick);
+
+			if (tick > targetTick) {
+				currentTick = targetTick;
+				break;
+			}
+
+			currentTick = tick;
+
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if ((tick & (1L << level * SLOT_BITS) - 1) == 0) {
+					cascade(level, digit(tick, level));
+				}
+			}
+
+			int head = take(0, digit(tick, 0));
+
+			while (head != NONE) {
+				int entry = head;
+				head = pages[entry >>> PAGE_BITS].next[entry & PAGE_MASK];
+				push(entry);
+			}
+
+			tried += fireReady(time);
+		}
+
+		RuntimeException error = postingError;
+		postingError = null;
+
+		if (error != null) {
+			throw error;
+		}
+
+		return tried;
+	}
+
+	/**
+	 * Save the schedules and the state of the scheduler to a file. The file is
+	 * written next to the old one and then moved over it, so a crash while
+	 * saving leaves the old file as it was.
+	 * 
+	 * @param file The file to be written.
+	 * @throws IOException              If the file cannot be written.
+	 * @throws IllegalArgumentException If a scheduled account has a transit or
+	 *                                  institution number that is out of range.
+	 */
+	public synchronized void save(Path file) throws IOException, IllegalArgumentException {
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		HashMap<String, Integer> nameIndexes = new HashMap<String, Integer>();
+		ArrayList<String> names = new ArrayList<String>();
+
+		for (int entry = 0; entry < nextUnused; entry++) {
+			String name = pages[entry >>> PAGE_BITS].transactionNames[entry & PAGE_MASK];
+
+			if (name != null && nameIndexes.putIfAbsent(name, names.size()) == null) {
+				names.add(name);
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output output = new Output(channel);
+			output.putInt(MAGIC);
+			output.putInt(VERSION);
+			output.putLong(tickMillis);
+			output.putLong(retryBackoffMillis);
+			output.putInt(maxRetries);
+			output.putLong(currentTick);
+			output.putLong(posted);
+			output.putLong(failed);
+			output.putLong(abandoned);
+			output.putInt(names.size());
+
+			for (String name : names) {
+				output.putString(name);
+			}
+
+			output.putInt(size);
+
+			for (int entry = 0; entry < nextUnused; entry++) {
+				if (isScheduled(entry)) {
+					Page page = pages[entry >>> PAGE_BITS];
+					int i = entry & PAGE_MASK;
+					String name = page.transactionNames[i];
+					output.putInt(entry);
+					output.putLong(AccountRegistry.key(page.bankAccounts[i]));
+					output.putByte(page.kinds[i]);
+					output.putInt(name == null ? NONE : nameIndexes.get(name));
+					output.putInt(page.transactionIds[i]);
+					output.putLong(page.debits[i]);
+					output.putLong(page.credits[i]);
+					output.putLong(page.dueTimes[i]);
+					output.putLong(page.periods[i]);
+					output.putByte(page.attempts[i]);
+				}
+			}
+
+			output.flush();
+			channel.force(true);
+		}
+
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Load a scheduler that was saved to a file. Schedules keep their IDs, and
+	 * their accounts are found by their numbers.
+	 * 
+	 * @param file     The file to be read.
+	 * @param registry The registry holding the scheduled accounts.
+	 * @return The scheduler.
+	 * @throws IOException If the file cannot be read, is not a saved scheduler or
+	 *                     has a schedule for an account that is not in the
+	 *                     registry.
+	 */
+	public static TransactionScheduler load(Path file, AccountRegistry registry) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Input input = new Input(channel);
+
+			if (input.getInt() != MAGIC) {
+				throw new IOException(String.format("%s is not a saved scheduler!", file));
+			} else if (input.getInt() != VERSION) {
+				throw new IOException(String.format("%s has an unsupported scheduler version!", file));
+			}
+
+			long tickMillis = input.getLong(), retryBackoffMillis = input.getLong();
+			int maxRetries = input.getInt();
+			long currentTick = input.getLong();
+			TransactionScheduler scheduler = new TransactionScheduler(0, tickMillis, retryBackoffMillis, maxRetries);
+			scheduler.currentTick = currentTick;
+			scheduler.posted = input.getLong();
+			scheduler.failed = input.getLong();
+			scheduler.abandoned = input.getLong();
+			String[] names = new String[input.getInt()];
+
+			for (int i = 0; i < names.length; i++) {
+				names[i] = input.getString();
+			}
+
+			for (int i = input.getInt(); i > 0; i--) {
+				int scheduleId = input.getInt();
+				long key = input.getLong();
+				BankAccount bankAccount = registry.get(key);
+
+				if (bankAccount == null) {
+					throw new IOException(String.format("Schedule %d in %s is for an unknown account!", scheduleId,
+							file));
+				}
+
+				byte kind = input.getByte();
+				int nameIndex = input.getInt();
+				int transactionId = input.getInt();
+				long debit = input.getLong(), credit = input.getLong(), dueTime = input.getLong(),
+						period = input.getLong();
+				byte attemptCount = input.getByte();
+
+				if (nameIndex >= names.length) {
+					throw new IOException(String.format("Schedule %d in %s has an unknown name!", scheduleId, file));
+				}
+
+				scheduler.restore(scheduleId, bankAccount, kind, nameIndex < 0 ? null : names[nameIndex],
+						transactionId, debit, credit, dueTime, period, attemptCount);
+			}
+
+			scheduler.rebuildFreeList();
+			return scheduler;
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param bankAccount     The bank account.
+	 * @param kind            The kind of schedule.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit, or the bits of the interest rate.
+	 * @param credit          The credit.
+	 * @param firstTime       The time of the first transaction.
+	 * @param periodMillis    The time between transactions.
+	 * @return The ID of the schedule.
+	 * @throws IllegalArgumentException If there is no bank account, the first
+	 *                                  time is negative or the period is not
+	 *                                  positive.
+	 */
+	private int add(BankAccount bankAccount, byte kind, String transactionName, int transactionId, long debit,
+			long credit, long firstTime, long periodMillis) throws IllegalArgumentException {
+		if (bankAccount == null) {
+			throw new IllegalArgumentException("A schedule needs a bank account!");
+		} else if (firstTime < 0) {
+			throw new IllegalArgumentException(String.format("The first time %d is negative!", firstTime));
+		} else if (periodMillis <= 0) {
+			throw new IllegalArgumentException(String.format("The period %d is not positive!", periodMillis));
+		}
+
+		int entry;
+
+		if (freeHead != NONE) {
+			entry = freeHead;
+			freeHead = pages[entry >>> PAGE_BITS].next[entry & PAGE_MASK];
+		} else {
+			entry = reserve();
+		}
+
+		set(entry, bankAccount, kind, transactionName, transactionId, debit, credit, firstTime, periodMillis, 0);
+		insert(entry);
+		size++;
+		return entry;
+	}
+
+	/**
+	 * @hidden
+	 * @param scheduleId      The ID of the schedule.
+	 * @param bankAccount     The bank account.
+	 * @param kind            The kind of schedule.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit, or the bits of the interest rate.
+	 * @param credit          The credit.
+	 * @param dueTime         The time the next transaction is due.
+	 * @param period          The time between transactions.
+	 * @param attemptCount    The number of failed attempts.
+	 * @throws IOException If the schedule is not valid.
+	 */
+	private void restore(int scheduleId, BankAccount bankAccount, byte kind, String transactionName,
+			int transactionId, long debit, long credit, long dueTime, long period, int attemptCount)
+			throws IOException {
+		if (scheduleId < 0 || (kind != FIXED && kind != INTEREST) || period <= 0 || dueTime < 0
+				|| attemptCount < 0 || attemptCount > maxRetries
+				|| scheduleId < nextUnused && pages[scheduleId >>> PAGE_BITS].kinds[scheduleId & PAGE_MASK] != FREE) {
+			throw new IOException(String.format("Schedule %d is not valid!", scheduleId));
+		}
+
+		while (nextUnused <= scheduleId) {
+			reserve();
+		}
+		set(scheduleId, bankAccount, kind, transactionName, transactionId, debit, credit, dueTime, period,
+				attemptCount);
+		insert(scheduleId);
+		size++;
+	}
+
+	/**
+	 * Put the unused IDs below the highest restored ID on the free list.
+	 * 
+	 * @hidden
+	 */
+	private void rebuildFreeList() {
+		for (int entry = nextUnused - 1; entry >= 0; entry--) {
+			Page page = pages[entry >>> PAGE_BITS];
+
+			if (page.kinds[entry & PAGE_MASK] == FREE) {
+				page.next[entry & PAGE_MASK] = freeHead;
+				freeHead = entry;
+			}
+		}
+	}
+
+	/**
+	 * Take the next entry that has never been used, adding a page for it if
+	 * needed.
+	 * 
+	 * @hidden
+	 * @return The entry.
+	 */
+	private int reserve() {
+		int pageIndex = nextUnused >>> PAGE_BITS;
+
+		if (pageIndex == pages.length) {
+			pages = Arrays.copyOf(pages, pages.length * 2);
+		}
+
+		if (pages[pageIndex] == null) {
+			pages[pageIndex] = new Page();
+		}
+
+		return nextUnused++;
+	}
+
+	/**
+	 * @hidden
+	 * @param scheduleId The ID of a schedule.
+	 * @throws IllegalArgumentException If there is no such schedule.
+	 */
+	private void checkScheduled(int scheduleId) throws IllegalArgumentException {
+		if (!isScheduled(scheduleId)) {
+			throw new IllegalArgumentException(String.format("Schedule %d does not exist!", scheduleId));
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param entry           The entry of the schedule.
+	 * @param bankAccount     The bank account.
+	 * @param kind            The kind of schedule.
+	 * @param transactionName The name of the transaction.
+	 * @param transactionId   The ID of the transaction.
+	 * @param debit           The debit, or the bits of the interest rate.
+	 * @param credit          The credit.
+	 * @param dueTime         The time the next transaction is due.
+	 * @param period          The time between transactions.
+	 * @param attemptCount    The number of failed attempts.
+	 */
+	private void set(int entry, BankAccount bankAccount, byte kind, String transactionName, int transactionId,
+			long debit, long credit, long dueTime, long period, int attemptCount) {
+		Page page = pages[entry >>> PAGE_BITS];
+		int i = entry & PAGE_MASK;
+		page.bankAccounts[i] = bankAccount;
+		page.kinds[i] = kind;
+		page.transactionNames[i] = transactionName;
+		page.transactionIds[i] = transactionId;
+		page.debits[i] = debit;
+		page.credits[i] = credit;
+		page.dueTimes[i] = dueTime;
+		page.periods[i] = period;
+		page.attempts[i] = (byte) attemptCount;
+	}
+
+	/**
+	 * Try the transactions of every entry that is due, putting each one back in
+	 * the wheel for its next occurrence or retry.
+	 * 
+	 * @hidden
+	 * @param time The timestamp of the transactions.
+	 * @return The number of transactions that were tried.
+	 */
+	private int fireReady(long time) {
+		int tried = 0;
+
+		while (readyHead != NONE) {
+			int entry = readyHead;
+			Page page = pages[entry >>> PAGE_BITS];
+			int i = entry & PAGE_MASK;
+			readyHead = page.next[i];
+
+			if (page.kinds[i] == CANCELLED) {
+				free(entry);
+				continue;
+			}
+
+			BankAccount bankAccount = page.bankAccounts[i];
+			String transactionName = page.transactionNames[i];
+			long debit = page.kinds[i] == INTEREST
+					? (long) (Double.longBitsToDouble(page.debits[i]) * bankAccount.getBalanceMinorUnits())
+					: page.debits[i];
+			int result;
+
+			try {
+				result = debit == 0 && page.credits[i] == 0 ? BankAccount.POSTED
+						: bankAccount.tryAddTransaction(transactionName, page.transactionIds[i], debit,
+								page.credits[i], time);
+			} catch (ArithmeticException e) {
+				result = BankAccount.INSUFFICIENT_FUNDS;
+			} catch (RuntimeException e) {
+				// The entry is already off the ready list, so it is put back as a
+				// failed attempt and the other entries still fire.
+				if (postingError == null) {
+					postingError = e;
+				}
+
+				result = BankAccount.INSUFFICIENT_FUNDS;
+			}
+
+			tried++;
+
+			if (result == BankAccount.POSTED) {
+				posted++;
+				page.attempts[i] = 0;
+				page.dueTimes[i] = later(page.dueTimes[i], page.periods[i]);
+			} else if (page.attempts[i] < maxRetries) {
+				failed++;
+				page.attempts[i]++;
+			} else {
+				failed++;
+				abandoned++;
+				EventChannel.getDefault().publish(new ScheduledTransactionFailed(entry, bankAccount,
+						transactionName, page.dueTimes[i], page.attempts[i] + 1));
+				page.attempts[i] = 0;
+				page.dueTimes[i] = later(page.dueTimes[i], page.periods[i]);
+			}
+
+			insert(entry);
+		}
+
+		return tried;
+	}
+
+	/**
+	 * Put an entry in the slot for the tick it fires in, or on the ready list if
+	 * that tick has been reached.
+	 * 
+	 * @hidden
+	 * @param entry The entry of a schedule.
+	 */
+	private void insert(int entry) {
+		Page page = pages[entry >>> PAGE_BITS];
+		int i = entry & PAGE_MASK;
+		long fireTime = page.dueTimes[i];
+
+		if (page.attempts[i] > 0) {
+			// Each retry waits twice as long as the one before.
+			long factor = (1L << page.attempts[i]) - 1;
+			fireTime = later(fireTime,
+					retryBackoffMillis > Long.MAX_VALUE / factor ? Long.MAX_VALUE : retryBackoffMillis * factor);
+		}
+
+		long tick = fireTime / tickMillis + (fireTime % tickMillis == 0 ? 0 : 1);
+
+		if (tick <= currentTick) {
+			push(entry);
+			return;
+		}
+
+		int level = (63 - Long.numberOfLeadingZeros(tick ^ currentTick)) / SLOT_BITS;
+		int index = level * SLOTS + digit(tick, level);
+		page.next[i] = slotHeads[index];
+		slotHeads[index] = entry;
+		occupied[index >>> 6] |= 1L << index;
+	}
+
+	/**
+	 * @hidden
+	 * @param entry The entry to be put on the ready list.
+	 */
+	private void push(int entry) {
+		pages[entry >>> PAGE_BITS].next[entry & PAGE_MASK] = readyHead;
+		readyHead = entry;
+	}
+
+	/**
+	 * @hidden
+	 * @param entry The entry to be put on the free list.
+	 */
+	private void free(int entry) {
+		Page page = pages[entry >>> PAGE_BITS];
+		page.kinds[entry & PAGE_MASK] = FREE;
+		page.next[entry & PAGE_MASK] = freeHead;
+		freeHead = entry;
+	}
+
+	/**
+	 * Move the entries of a slot down to the lower levels, now that the ticks
+	 * above them match.
+	 * 
+	 * @hidden
+	 * @param level The level of the slot.
+	 * @param slot  The slot.
+	 */
+	private void cascade(int level, int slot) {
+		int head = take(level, slot);
+
+		while (head != NONE) {
+			int entry = head;
+			Page page = pages[entry >>> PAGE_BITS];
+			head = page.next[entry & PAGE_MASK];
+
+			if (page.kinds[entry & PAGE_MASK] == CANCELLED) {
+				free(entry);
+			} else {
+				insert(entry);
+			}
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param level The level of a slot.
+	 * @param slot  The slot.
+	 * @return The first entry of the slot, which is left empty.
+	 */
+	private int take(int level, int slot) {
+		int index = level * SLOTS + slot, head = slotHeads[index];
+		slotHeads[index] = NONE;
+		occupied[index >>> 6] &= ~(1L << index);
+		return head;
+	}
+
+	/**
+	 * Find the next tick at which an entry fires or moves down a level.
+	 * 
+	 * @hidden
+	 * @param tick The current tick.
+	 * @return The next tick, or <code>Long.MAX_VALUE</code> if the wheel is
+	 *         empty.
+	 */
+	private long nextOccupiedTick(long tick) {
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = level * SLOT_BITS, slot = nextOccupiedSlot(level, digit(tick, level) + 1);
+
+			if (slot != NONE) {
+				long higher = shift + SLOT_BITS < 64 ? tick >>> shift + SLOT_BITS : 0;
+				return (higher << SLOT_BITS | slot) << shift;
+			}
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @hidden
+	 * @param level The level.
+	 * @param from  The first slot to look at.
+	 * @return The first slot from there on that is not empty, or -1 if there is
+	 *         none.
+	 */
+	private int nextOccupiedSlot(int level, int from) {
+		for (int word = from >>> 6; word < SLOTS / 64; word++) {
+			long bits = occupied[level * SLOTS / 64 + word] & (word == from >>> 6 ? -1L << from : -1L);
+
+			if (bits != 0) {
+				return word * 64 + Long.numberOfTrailingZeros(bits);
+			}
+		}
+
+		return NONE;
+	}
+
+	/**
+	 * @hidden
+	 * @param time   A time in milliseconds.
+	 * @param millis A number of milliseconds that is not negative.
+	 * @return The time that many milliseconds later, or
+	 *         <code>Long.MAX_VALUE</code> if that is too far away.
+	 */
+	private static long later(long time, long millis) {
+		long result = time + millis;
+		return result < time ? Long.MAX_VALUE : result;
+	}
+
+	/**
+	 * @hidden
+	 * @param tick  A tick.
+	 * @param level A level of the wheel.
+	 * @return The slot of the tick in that level.
+	 */
+	private static int digit(long tick, int level) {
+		return (int) (tick >>> level * SLOT_BITS) & SLOT_MASK;
+	}
+
+	/**
+	 * The columns of a fixed number of entries. The debit of an interest
+	 * schedule holds the bits of its rate, and the next entry links an entry
+	 * into a slot, the ready list or the free list.
+	 * 
+	 * @hidden
+	 */
+	private static final class Page {
+		private final BankAccount[] bankAccounts = new BankAccount[PAGE_SIZE];
+		private final String[] transactionNames = new String[PAGE_SIZE];
+		private final int[] transactionIds = new int[PAGE_SIZE], next = new int[PAGE_SIZE];
+		private final long[] debits = new long[PAGE_SIZE], credits = new long[PAGE_SIZE],
+				dueTimes = new long[PAGE_SIZE], periods = new long[PAGE_SIZE];
+		private final byte[] kinds = new byte[PAGE_SIZE], attempts = new byte[PAGE_SIZE];
+	}
+
+	/**
+	 * A buffered writer for a file channel.
+	 * 
+	 * @hidden
+	 */
+	private static final class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+
+		private Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void putByte(byte value) throws IOException {
+			ensure(1).put(value);
+		}
+
+		private void putInt(int value) throws IOException {
+			ensure(4).putInt(value);
+		}
+
+		private void putLong(long value) throws IOException {
+			ensure(8).putLong(value);
+		}
+
+		private void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+
+			for (int position = 0; position < bytes.length;) {
+				int chunk = Math.min(bytes.length - position, ensure(1).remaining());
+				buffer.put(bytes, position, chunk);
+				position += chunk;
+			}
+		}
+
+		private ByteBuffer ensure(int size) throws IOException {
+			if (buffer.remaining() < size) {
+				flush();
+			}
+
+			return buffer;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * A buffered reader for a file channel.
+	 * 
+	 * @hidden
+	 */
+	private static final class Input {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20).flip();
+
+		private Input(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private byte getByte() throws IOException {
+			return ensure(1).get();
+		}
+
+		private int getInt() throws IOException {
+			return ensure(4).getInt();
+		}
+
+		private long getLong() throws IOException {
+			return ensure(8).getLong();
+		}
+
+		private String getString() throws IOException {
+			byte[] bytes = new byte[getInt()];
+
+			for (int position = 0; position < bytes.length;) {
+				int chunk = Math.min(bytes.length - position, ensure(1).remaining());
+				buffer.get(bytes, position, chunk);
+				position += chunk;
+			}
+
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private ByteBuffer ensure(int size) throws IOException {
+			if (buffer.remaining() < size) {
+				buffer.compact();
+
+				while (buffer.position() < size) {
+					if (channel.read(buffer) < 0) {
+						throw new IOException("The saved scheduler ends too early!");
+					}
+				}
+
+				buffer.flip();
+			}
+
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * Classes for adding recurring transactions to bank accounts on schedules.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+package scheduling;
@@ -1,7 +1,12 @@
 package userservice;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
+import events.ContactNotFound;
+import events.EventChannel;
 import makingtransactions.bankaccounts.BankAccount;
 import makingtransactions.bankaccounts.JointAccount;
 
@@ -15,8 +20,10 @@ public final class User {
 	private String name;
 	private int age, userId;
 
-	private ArrayList<BankAccount> bankAccounts = new ArrayList<BankAccount>();
+	private LinkedHashSet<BankAccount> bankAccounts = new LinkedHashSet<BankAccount>();
+	private Set<BankAccount> bankAccountsView = Collections.unmodifiableSet(bankAccounts);
 	private ArrayList<String> emailAddresses = new ArrayList<String>(), phoneNumbers = new ArrayList<String>();
+	volatile UserDirectory directory;
 
 	/**
 	 * Create a user.
@@ -124,18 +131,51 @@ public final class User {
 	 * Set the ID of the user.
 	 * 
 	 * @param userId The ID of the user.
+	 * @throws IllegalArgumentException If the user is in a directory and the ID
+	 *                                  belongs to another user in it.
 	 */
-	public void setUserId(int userId) {
+	public void setUserId(int userId) throws IllegalArgumentException {
+		UserDirectory currentDirectory = directory;
+
+		if (currentDirectory != null) {
+			currentDirectory.moveUserId(this, userId);
+		}
+
 		this.userId = userId;
 	}
 
 	/**
-	 * Get the <code>ArrayList</code> of bank accounts from a user.
+	 * Get the <code>ArrayList</code> of bank accounts from a user, in the order
+	 * they were added.
 	 * 
-	 * @return An <code>ArrayList</code> of BankAccount classes.
+	 * @return An <code>ArrayList</code> of BankAccount classes. It is a copy, so
+	 *         changes made to it do not change the user. Use addBankAccount and
+	 *         removeBankAccount instead.
 	 */
 	public ArrayList<BankAccount> getBankAccounts() {
-		return bankAccounts;
+		return new ArrayList<BankAccount>(bankAccounts);
+	}
+
+	/**
+	 * Get the bank accounts from a user as a set, in the order they were added.
+	 * Unlike getBankAccounts, nothing is copied.
+	 * 
+	 * @return A read-only <code>Set</code> of BankAccount classes. It also shows
+	 *         accounts that are added later.
+	 */
+	public Set<BankAccount> getBankAccountSet() {
+		return bankAccountsView;
+	}
+
+	/**
+	 * Check to see if the user holds a bank account.
+	 * 
+	 * @param bankAccount The bank account that is being checked.
+	 * @return <code>true</code> if the user holds the account. If not, it returns
+	 *         <code>false</code>.
+	 */
+	public boolean hasBankAccount(BankAccount bankAccount) {
+		return bankAccounts.contains(bankAccount);
 	}
 
 	/**
@@ -144,11 +184,11 @@ public final class User {
 	 * @param bankAccount The bank account to be added.
 	 */
 	public void addBankAccount(BankAccount bankAccount) {
-		if (!bankAccounts.contains(bankAccount)) {
-			bankAccounts.add(bankAccount);
+		if (bankAccounts.add(bankAccount) && bankAccount instanceof JointAccount) {
+			JointAccount jointAccount = (JointAccount) bankAccount;
 
-			if (bankAccount instanceof JointAccount) {
-				((JointAccount) bankAccount).addUser(this);
+			if (!jointAccount.containsUser(this)) {
+				jointAccount.addUser(this);
 			}
 		}
 	}
@@ -159,10 +199,12 @@ public final class User {
 	 * @param bankAccount The bank account to be removed.
 	 */
 	public void removeBankAccount(BankAccount bankAccount) {
-		boolean removedAccount = bankAccounts.remove(bankAccount);
+		if (bankAccounts.remove(bankAccount) && bankAccount instanceof JointAccount) {
+			JointAccount jointAccount = (JointAccount) bankAccount;
 
-		if (removedAccount && bankAccount instanceof JointAccount) {
-			((JointAccount) bankAccount).removeUser(this);
+			if (jointAccount.containsUser(this)) {
+				jointAccount.removeUser(this);
+			}
 		}
 	}
 
@@ -170,24 +212,38 @@ public final class User {
 	 * Add an email to the <code>ArrayList</code> of email addresses.
 	 * 
 	 * @param email The email to be added.
+	 * @throws IllegalArgumentException If the user is in a directory and the
+	 *                                  email already belongs to a user in it.
 	 */
-	public void addEmail(String email) {
+	public void addEmail(String email) throws IllegalArgumentException {
+		UserDirectory currentDirectory = directory;
+
+		if (currentDirectory != null) {
+			currentDirectory.claimEmail(this, email);
+		}
+
 		emailAddresses.add(email);
 	}
 
 	/**
-	 * Remove an email address from the user.
+	 * Remove an email address from the user. If the user does not have it, an
+	 * event is published to the default EventChannel.
 	 * 
 	 * @param email The email to be removed.
 	 */
 	public void removeEmail(String email) {
-		removeFromStringArrayList(email, emailAddresses);
+		UserDirectory currentDirectory = directory;
+
+		if (removeFromStringArrayList(email, emailAddresses) && currentDirectory != null) {
+			currentDirectory.releaseEmail(this, email);
+		}
 	}
 
 	/**
 	 * Get an <code>ArrayList</code> of email addresses linked to the user.
 	 * 
-	 * @return An <code>ArrayList</code> of email addresses.
+	 * @return An <code>ArrayList</code> of email addresses. Changes made
+	 *         directly to it are not seen by a UserDirectory.
 	 */
 	public ArrayList<String> getEmailAddresses() {
 		return emailAddresses;
@@ -197,24 +253,39 @@ public final class User {
 	 * Add a phone number to the user.
 	 * 
 	 * @param phoneNumber The phone number to be added.
+	 * @throws IllegalArgumentException If the user is in a directory and the
+	 *                                  phone number already belongs to a user in
+	 *                                  it.
 	 */
-	public void addPhoneNumber(String phoneNumber) {
+	public void addPhoneNumber(String phoneNumber) throws IllegalArgumentException {
+		UserDirectory currentDirectory = directory;
+
+		if (currentDirectory != null) {
+			currentDirectory.claimPhoneNumber(this, phoneNumber);
+		}
+
 		phoneNumbers.add(phoneNumber);
 	}
 
 	/**
-	 * Remove a phone number from the user.
+	 * Remove a phone number from the user. If the user does not have it, an
+	 * event is published to the default EventChannel.
 	 * 
 	 * @param phoneNumber The phone number to be removed.
 	 */
 	public void removePhoneNumber(String phoneNumber) {
-		removeFromStringArrayList(phoneNumber, phoneNumbers);
+		UserDirectory currentDirectory = directory;
+
+		if (removeFromStringArrayList(phoneNumber, phoneNumbers) && currentDirectory != null) {
+			currentDirectory.releasePhoneNumber(this, phoneNumber);
+		}
 	}
 
 	/**
 	 * Get an <code>ArrayList</code> of phone numbers linked to the user.
 	 * 
-	 * @return An <code>ArrayList</code> of phone numbers.
+	 * @return An <code>ArrayList</code> of phone numbers. Changes made
+	 *         directly to it are not seen by a UserDirectory.
 	 */
 	public ArrayList<String> getPhoneNumbers() {
 		return phoneNumbers;
@@ -229,12 +300,14 @@ public final class User {
 	 * @hidden
 	 * @param item            The item to be removed.
 	 * @param stringArrayList An ArrayList of strings.
+	 * @return <code>true</code> if the item was found and removed.
 	 */
-	private void removeFromStringArrayList(String item, ArrayList<String> stringArrayList) {
-		if (stringArrayList.contains(item)) {
-			stringArrayList.remove(item);
-		} else {
-			System.out.println(String.format("%s was not found! Nothing was removed", item));
+	private boolean removeFromStringArrayList(String item, ArrayList<String> stringArrayList) {
+		if (stringArrayList.remove(item)) {
+			return true;
 		}
+
+		EventChannel.getDefault().publish(new ContactNotFound(this, item));
+		return false;
 	}
 }
@@ -0,0 +1,313 @@
+package userservice;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class for finding users by their ID, email addresses and phone numbers.
+ * Each one is kept in a concurrent hash index, so lookups never lock and can
+ * run at the same time as changes.
+ * 
+ * Every user ID, email address and phone number can only belong to one
+ * registered user. Email addresses are compared without case and phone numbers
+ * only by their digits. The indexes stay correct when a registered user's ID,
+ * email addresses or phone numbers are changed through its methods.
+ * 
+ * @author Synthird
+ * @version 1.0.0
+ */
+public class UserDirectory {
+	private final ConcurrentHashMap<Integer, User> userIds = new ConcurrentHashMap<Integer, User>();
+	private final ConcurrentHashMap<String, User> emailAddresses = new ConcurrentHashMap<String, User>(),
+			phoneNumbers = new ConcurrentHashMap<String, User>();
+
+	/**
+	 * Normalize an email address for comparison by removing the whitespace
+	 * around it and making it lower case. An address that is already normalized
+	 * is returned as it is.
+	 * 
+	 * @param email The email address.
+	 * @return The normalized email address, or <code>null</code> if it was
+	 *         <code>null</code>.
+	 */
+	public static String normalizeEmail(String email) {
+		return email == null ? null : email.strip().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Normalize a phone number for comparison by keeping only its digits and a
+	 * leading plus sign. A number that is already normalized is returned as it
+	 * is.
+	 * 
+	 * @param phoneNumber The phone number.
+	 * @return The normalized phone number, or <code>null</code> if it was
+	 *         <code>null</code>.
+	 */
+	public static String normalizePhoneNumber(String phoneNumber) {
+		if (phoneNumber == null) {
+			return null;
+		}
+
+		int i = phoneNumber.startsWith("+") ? 1 : 0;
+
+		while (i < phoneNumber.length() && Character.isDigit(phoneNumber.charAt(i))) {
+			i++;
+		}
+
+		if (i == phoneNumber.length()) {
+			return phoneNumber;
+		}
+
+		StringBuilder digits = new StringBuilder(phoneNumber.length());
+
+		for (int j = 0; j < phoneNumber.length(); j++) {
+			char c = phoneNumber.charAt(j);
+
+			if (Character.isDigit(c) || c == '+' && digits.length() == 0) {
+				digits.append(c);
+			}
+		}
+
+		return digits.toString();
+	}
+
+	/**
+	 * Find a user by their ID.
+	 * 
+	 * @param userId The user ID.
+	 * @return The user, or <code>null</code> if no registered user has that ID.
+	 */
+	public User get(int userId) {
+		return userIds.get(userId);
+	}
+
+	/**
+	 * Find the user that an email address belongs to.
+	 * 
+	 * @param email The email address.
+	 * @return The user, or <code>null</code> if the address does not belong to
+	 *         a registered user.
+	 */
+	public User getByEmail(String email) {
+		return email == null ? null : emailAddresses.get(normalizeEmail(email));
+	}
+
+	/**
+	 * Find the user that a phone number belongs to.
+	 * 
+	 * @param phoneNumber The phone number.
+	 * @return The user, or <code>null</code> if the number does not belong to a
+	 *         registered user.
+	 */
+	public User getByPhoneNumber(String phoneNumber) {
+		return phoneNumber == null ? null : phoneNumbers.get(normalizePhoneNumber(phoneNumber));
+	}
+
+	/**
+	 * Get the number of registered users.
+	 * 
+	 * @return The number of users.
+	 */
+	public int size() {
+		return userIds.size();
+	}
+
+	/**
+	 * Add a user to the directory with their ID, email addresses and phone
+	 * numbers. Nothing is added if any of them already belongs to a registered
+	 * user.
+	 * 
+	 * @param user The user to be added.
+	 * @throws IllegalArgumentException If the ID, an email address or a phone
+	 *                                  number already belongs to a registered
+	 *                                  user.
+	 * @throws IllegalStateException    If the user is already in a directory.
+	 */
+	public synchronized void register(User user) throws IllegalArgumentException, IllegalStateException {
+		if (user.directory != null) {
+			throw new IllegalStateException(String.format("%s is already in a directory!", user));
+		}
+
+		claim(userIds, user.getUserId(), user, "User ID " + user.getUserId());
+		ArrayList<String> claimedEmails = new ArrayList<String>(), claimedPhoneNumbers = new ArrayList<String>();
+
+		try {
+			for (String email : user.getEmailAddresses()) {
+				claimEmail(user, email);
+				claimedEmails.add(email);
+			}
+
+			for (String phoneNumber : user.getPhoneNumbers()) {
+				claimPhoneNumber(user, phoneNumber);
+				claimedPhoneNumbers.add(phoneNumber);
+			}
+		} catch (IllegalArgumentException e) {
+			for (String email : claimedEmails) {
+				removeKey(emailAddresses, email == null ? null : normalizeEmail(email), user);
+			}
+
+			for (String phoneNumber : claimedPhoneNumbers) {
+				removeKey(phoneNumbers, phoneNumber == null ? null : normalizePhoneNumber(phoneNumber), user);
+			}
+
+			userIds.remove(user.getUserId(), user);
+			throw e;
+		}
+
+		user.directory = this;
+	}
+
+	/**
+	 * Remove a user from the directory with their email addresses and phone
+	 * numbers.
+	 * 
+	 * @param user The user to be removed.
+	 * @return <code>true</code> if the user was in this directory.
+	 */
+	public synchronized boolean unregister(User user) {
+		if (user.directory != this) {
+			return false;
+		}
+
+		for (String email : user.getEmailAddresses()) {
+			removeKey(emailAddresses, email == null ? null : normalizeEmail(email), user);
+		}
+
+		for (String phoneNumber : user.getPhoneNumbers()) {
+			removeKey(phoneNumbers, phoneNumber == null ? null : normalizePhoneNumber(phoneNumber), user);
+		}
+
+		userIds.remove(user.getUserId(), user);
+		user.directory = null;
+		return true;
+	}
+
+	/**
+	 * Give an email address to a registered user before it is added to them.
+	 * 
+	 * @hidden
+	 * @param user  The user.
+	 * @param email The email address.
+	 * @throws IllegalArgumentException If the address already belongs to a
+	 *                                  registered user.
+	 */
+	void claimEmail(User user, String email) throws IllegalArgumentException {
+		if (email != null) {
+			claim(emailAddresses, normalizeEmail(email), user, email);
+		}
+	}
+
+	/**
+	 * Take an email address from a registered user after it is removed from
+	 * them, unless they still have an address that is the same once
+	 * normalized.
+	 * 
+	 * @hidden
+	 * @param user  The user.
+	 * @param email The email address.
+	 */
+	void releaseEmail(User user, String email) {
+		if (email == null) {
+			return;
+		}
+
+		String key = normalizeEmail(email);
+
+		for (String other : user.getEmailAddresses()) {
+			if (other != null && normalizeEmail(other).equals(key)) {
+				return;
+			}
+		}
+
+		emailAddresses.remove(key, user);
+	}
+
+	/**
+	 * Give a phone number to a registered user before it is added to them.
+	 * 
+	 * @hidden
+	 * @param user        The user.
+	 * @param phoneNumber The phone number.
+	 * @throws IllegalArgumentException If the number already belongs to a
+	 *                                  registered user.
+	 */
+	void claimPhoneNumber(User user, String phoneNumber) throws IllegalArgumentException {
+		if (phoneNumber != null) {
+			claim(phoneNumbers, normalizePhoneNumber(phoneNumber), user, phoneNumber);
+		}
+	}
+
+	/**
+	 * Take a phone number from a registered user after it is removed from
+	 * them, unless they still have a number that is the same once normalized.
+	 * 
+	 * @hidden
+	 * @param user        The user.
+	 * @param phoneNumber The phone number.
+	 */
+	void releasePhoneNumber(User user, String phoneNumber) {
+		if (phoneNumber == null) {
+			return;
+		}
+
+		String key = normalizePhoneNumber(phoneNumber);
+
+		for (String other : user.getPhoneNumbers()) {
+			if (other != null && normalizePhoneNumber(other).equals(key)) {
+				return;
+			}
+		}
+
+		phoneNumbers.remove(key, user);
+	}
+
+	/**
+	 * Move a registered user to a new ID before its setter changes it.
+	 * 
+	 * @hidden
+	 * @param user   The user being changed.
+	 * @param userId The new user ID.
+	 * @throws IllegalArgumentException If the new ID belongs to another
+	 *                                  registered user.
+	 */
+	void moveUserId(User user, int userId) throws IllegalArgumentException {
+		if (userId != user.getUserId()) {
+			claim(userIds, userId, user, "User ID " + userId);
+			userIds.remove(user.getUserId(), user);
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param <K>         The type of the key.
+	 * @param index       The index to add the key to.
+	 * @param key         The key.
+	 * @param user        The user that the key belongs to.
+	 * @param description The key as it is shown in an error.
+	 * @throws IllegalArgumentException If the key already belongs to another
+	 *                                  user.
+	 */
+	private static <K> void claim(ConcurrentHashMap<K, User> index, K key, User user, String description)
+			throws IllegalArgumentException {
+		User owner = index.putIfAbsent(key, user);
+
+		// Two addresses of the same user can be the same once normalized.
+		if (owner != null && owner != user) {
+			throw new IllegalArgumentException(String.format("%s already belongs to %s!", description, owner));
+		}
+	}
+
+	/**
+	 * @hidden
+	 * @param <K>   The type of the key.
+	 * @param index The index to remove the key from.
+	 * @param key   The key, or <code>null</code>.
+	 * @param user  The user that the key belongs to.
+	 */
+	private static <K> void removeKey(ConcurrentHashMap<K, User> index, K key, User user) {
+		if (key != null) {
+			index.remove(key, user);
+		}
+	}
+}